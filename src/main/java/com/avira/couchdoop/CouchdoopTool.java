@@ -19,6 +19,7 @@
 
 package com.avira.couchdoop;
 
+import com.avira.couchdoop.jobs.CouchbaseBucketImporter;
 import com.avira.couchdoop.jobs.CouchbaseExporter;
 import com.avira.couchdoop.jobs.CouchbaseViewImporter;
 import com.avira.couchdoop.jobs.CouchbaseViewSerialImporter;
@@ -55,6 +56,11 @@ public class CouchdoopTool {
           importer.start(tailArgs);
           break;
         }
+        case "import-bucket": {
+          CouchbaseBucketImporter importer = new CouchbaseBucketImporter();
+          importer.start(tailArgs);
+          break;
+        }
         case "serial-import": {
           CouchbaseViewSerialImporter importer = new CouchbaseViewSerialImporter();
           importer.start(tailArgs);
@@ -85,6 +91,7 @@ public class CouchdoopTool {
     System.err.println("Usage:\n" +
       APP_NAME + " import [OPTIONS]\n" +
       APP_NAME + " import-to-hbase [OPTIONS]\n" +
+      APP_NAME + " import-bucket [OPTIONS]\n" +
       APP_NAME + " serial-import [OPTIONS]\n" +
       APP_NAME + " export [OPTIONS]\n");
   }
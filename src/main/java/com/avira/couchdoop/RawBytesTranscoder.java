@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Couchbase client {@link net.spy.memcached.transcoders.Transcoder} which stores byte array and
+ * {@link java.nio.ByteBuffer} values unchanged, by default with the same flags as a string, so that documents given
+ * as UTF-8 bytes are stored exactly like the equivalent {@link java.lang.String} documents, without decoding and
+ * encoding them again. Byte values are never compressed.
+ *
+ * <p>If raw decoding is enabled, documents which were stored as strings or raw bytes are read back as byte arrays
+ * instead of strings, decompressing them if needed. Other values are handled as by the client's default
+ * {@link net.spy.memcached.transcoders.SerializingTranscoder}.</p>
+ */
+public class RawBytesTranscoder extends SerializingTranscoder {
+
+  /** Flags of an uncompressed string document. */
+  public static final int STRING_FLAGS = 0;
+
+  // Flags used by SerializingTranscoder, which are not visible outside its package.
+  private static final int SERIALIZED = 1;
+  private static final int COMPRESSED = 2;
+  private static final int SPECIAL_MASK = 0xff00;
+
+  private final int rawFlags;
+  private final boolean rawDecoding;
+
+  /**
+   * Creates a transcoder which stores bytes as strings and reads strings back as strings.
+   */
+  public RawBytesTranscoder() {
+    this(STRING_FLAGS, false);
+  }
+
+  /**
+   * @param rawFlags flags stored together with byte values
+   * @param rawDecoding whether string and raw bytes documents are read back as byte arrays
+   */
+  public RawBytesTranscoder(int rawFlags, boolean rawDecoding) {
+    this.rawFlags = rawFlags;
+    this.rawDecoding = rawDecoding;
+  }
+
+  @Override
+  public CachedData encode(Object value) {
+    if (value instanceof byte[]) {
+      return new CachedData(rawFlags, (byte[]) value, getMaxSize());
+    } else if (value instanceof ByteBuffer) {
+      return new CachedData(rawFlags, toBytes((ByteBuffer) value), getMaxSize());
+    }
+
+    return super.encode(value);
+  }
+
+  @Override
+  public Object decode(CachedData data) {
+    int flags = data.getFlags();
+    if (rawDecoding && (flags == rawFlags || (flags & (SERIALIZED | SPECIAL_MASK)) == 0)) {
+      byte[] bytes = data.getData();
+      if (flags != rawFlags && (flags & COMPRESSED) != 0) {
+        bytes = decompress(bytes);
+      }
+      return bytes;
+    }
+
+    return super.decode(data);
+  }
+
+  /**
+   * Returns the remaining bytes of a buffer, without changing its position. The backing array is returned as it is
+   * if it holds exactly those bytes.
+   */
+  public static byte[] toBytes(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+        buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
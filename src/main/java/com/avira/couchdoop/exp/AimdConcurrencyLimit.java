@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+/**
+ * Limit of operations in flight adjusted with additive-increase/multiplicative-decrease (AIMD), similar to TCP
+ * congestion control.
+ *
+ * <p>Each successful operation increases the limit by {@code additiveIncrease / limit}, so the limit grows by
+ * {@code additiveIncrease} after a whole window of successful operations. Each congestion signal (a temporary
+ * failure, a timeout or a latency above the threshold) multiplies the limit by {@code multiplicativeDecrease}, but
+ * at most once per window, because the operations which were already in flight are likely to report the same
+ * congestion.</p>
+ */
+class AimdConcurrencyLimit {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double additiveIncrease;
+  private final double multiplicativeDecrease;
+  private final long latencyThreshold; // ms
+
+  private double limit;
+  private long completionsSinceDecrease = 0;
+  private long decreases = 0;
+
+  /**
+   * @param minLimit minimum number of operations in flight
+   * @param maxLimit maximum number of operations in flight
+   * @param additiveIncrease how much the limit grows after a window of successful operations
+   * @param multiplicativeDecrease factor between 0 and 1 applied to the limit on congestion
+   * @param latencyThreshold latency in milliseconds above which an operation signals congestion; 0 to ignore latency
+   */
+  AimdConcurrencyLimit(int minLimit, int maxLimit, double additiveIncrease, double multiplicativeDecrease,
+                       long latencyThreshold) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("Invalid AIMD limits [" + minLimit + ", " + maxLimit + "].");
+    }
+    if (multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1) {
+      throw new IllegalArgumentException("The AIMD multiplicative decrease must be between 0 and 1.");
+    }
+
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.additiveIncrease = additiveIncrease;
+    this.multiplicativeDecrease = multiplicativeDecrease;
+    this.latencyThreshold = latencyThreshold;
+    this.limit = minLimit;
+  }
+
+  /**
+   * Updates the limit with the outcome of an operation which did not fail temporarily.
+   *
+   * @param latency operation latency in milliseconds
+   */
+  void onSuccess(long latency) {
+    if (latencyThreshold > 0 && latency > latencyThreshold) {
+      onCongestion();
+      return;
+    }
+
+    completionsSinceDecrease++;
+    limit = Math.min(maxLimit, limit + additiveIncrease / limit);
+  }
+
+  /**
+   * Decreases the limit because of a temporary failure, a timeout or a high latency.
+   */
+  void onCongestion() {
+    completionsSinceDecrease++;
+    if (completionsSinceDecrease < getLimit() && decreases > 0) {
+      // The window which got congested was already shrunk.
+      return;
+    }
+
+    limit = Math.max(minLimit, limit * multiplicativeDecrease);
+    completionsSinceDecrease = 0;
+    decreases++;
+  }
+
+  int getLimit() {
+    // Tolerate the rounding errors accumulated by the fractional increases.
+    return (int) (limit + 1e-9);
+  }
+
+  long getDecreases() {
+    return decreases;
+  }
+}
@@ -25,6 +25,10 @@ import java.io.Serializable;
  * This class should be used as a Hadoop value to represent a Couchbase operation, a key and a document to be stored. The
  * available operations are SET, ADD, REPLACE, APPEND, PREPEND and DELETE. For the DELETE operation the document is
  * ignored.
+ *
+ * <p>Byte array and {@link java.nio.ByteBuffer} documents are stored by
+ * {@link com.avira.couchdoop.exp.CouchbaseOutputFormat} unchanged, so UTF-8 encoded JSON can be stored without
+ * converting it to a {@link java.lang.String}. Other documents are stored like by the Couchbase client.</p>
  */
 public class CouchbaseAction implements Serializable {
 
@@ -21,25 +21,47 @@ package com.avira.couchdoop.exp;
 
 import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.CouchbaseArgs;
+import com.avira.couchdoop.RawBytesTranscoder;
 import com.couchbase.client.CouchbaseClient;
 import net.spy.memcached.internal.CheckedOperationTimeoutException;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.Transcoder;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.mapreduce.*;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This output format writes writes each key-value received as a Couchbase document.
  *
  * <p>Keys received correspond to the Couchbase keys and values received to Couchbase
  * documents.</p>
+ *
+ * <p>If the job has an output path, the actions which could not be stored because of timeouts,
+ * errors or too many temporary failures are written under it in block-compressed SequenceFiles of
+ * {@link org.apache.hadoop.io.Text} keys and {@link com.avira.couchdoop.exp.DeadLetter} values,
+ * named {@value #DEAD_LETTER_FILE_BASENAME}-m-NNNNN. They can be replayed later by using
+ * {@link com.avira.couchdoop.exp.DeadLetterToCouchbaseMapper}.</p>
  */
 public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction> {
 
@@ -50,6 +72,9 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
    *
    * <p>If either this value or couchdoop.expBackoff.maxRetryIntervalPerTask is reached the failure
    * is ignored.</p>
+   *
+   * <p>Operations which failed temporarily are retried in the background with jittered
+   * exponential back-off while the task keeps writing new records.</p>
    */
   public final static String CONF_EXP_BACKOFF_MAX_TRIES_PER_TASK =
       "couchdoop.expBackoff.maxTriesPerTask";
@@ -66,7 +91,8 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
   protected final static int EXP_BACKOFF_MAX_RETRY_INTERVAL = 1000; // ms
 
   /**
-   * Maximum total time in milliseconds for a task to wait until retrying failed operations.
+   * Maximum total time in milliseconds for a task to wait until retrying failed operations, measured
+   * as the wall-clock time during which the task had operations waiting for their back-off delay.
    *
    * <p>A task is failed if this value is reached.</p>
    */
@@ -74,43 +100,159 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
       "couchdoop.expBackoff.maxTotalTimeoutPerTask";
   protected final static int EXP_BACKOFF_MAX_TOTAL_TIMEOUT = 60000; // ms
 
+  /**
+   * Maximum number of store operations a task keeps in flight, without waiting for their outcome.
+   *
+   * <p>With the default value of 1 each operation is completed before the next record is accepted.
+   * Larger values let the client pipeline operations to the cluster.</p>
+   *
+   * <p>Operations waiting for a retry or for an earlier operation on the same key count against this
+   * limit too, so a task stops accepting records while they pile up.</p>
+   */
+  public final static String CONF_MAX_IN_FLIGHT_OPERATIONS_PER_TASK =
+      "couchdoop.export.maxInFlightOperationsPerTask";
+  protected final static int MAX_IN_FLIGHT_OPERATIONS = 1;
+
+  /**
+   * Maximum number of document bytes a task keeps in flight, without waiting for their outcome.
+   *
+   * <p>The default value of 0 means that only couchdoop.export.maxInFlightOperationsPerTask
+   * limits the operations in flight.</p>
+   */
+  public final static String CONF_MAX_IN_FLIGHT_BYTES_PER_TASK =
+      "couchdoop.export.maxInFlightBytesPerTask";
+  protected final static long MAX_IN_FLIGHT_BYTES = 0;
+
+  /**
+   * Whether a task should adapt its limit of operations in flight to the feedback received from Couchbase by doing
+   * additive-increase/multiplicative-decrease (AIMD).
+   *
+   * <p>The limit starts at couchdoop.export.aimd.minInFlightOperationsPerTask and never exceeds
+   * couchdoop.export.maxInFlightOperationsPerTask. It is decreased on temporary failures, timeouts and latencies
+   * above couchdoop.export.aimd.latencyThreshold.</p>
+   */
+  public final static String CONF_AIMD_ENABLED = "couchdoop.export.aimd.enabled";
+
+  /**
+   * Minimum number of operations a task keeps in flight when AIMD is enabled.
+   */
+  public final static String CONF_AIMD_MIN_IN_FLIGHT_OPERATIONS_PER_TASK =
+      "couchdoop.export.aimd.minInFlightOperationsPerTask";
+  protected final static int AIMD_MIN_IN_FLIGHT_OPERATIONS = 1;
+
+  /**
+   * How many operations are added to the limit of operations in flight after a whole window of successful
+   * operations.
+   */
+  public final static String CONF_AIMD_ADDITIVE_INCREASE = "couchdoop.export.aimd.additiveIncrease";
+  protected final static float AIMD_ADDITIVE_INCREASE = 1.0f;
+
+  /**
+   * Factor, between 0 and 1, applied to the limit of operations in flight when Couchbase is congested.
+   */
+  public final static String CONF_AIMD_MULTIPLICATIVE_DECREASE = "couchdoop.export.aimd.multiplicativeDecrease";
+  protected final static float AIMD_MULTIPLICATIVE_DECREASE = 0.5f;
+
+  /**
+   * Operation latency in milliseconds above which Couchbase is considered congested. The default value of 0 means
+   * that latency is ignored.
+   */
+  public final static String CONF_AIMD_LATENCY_THRESHOLD = "couchdoop.export.aimd.latencyThreshold";
+  protected final static long AIMD_LATENCY_THRESHOLD = 0; // ms
+
+  /**
+   * Flags stored together with byte array and {@link java.nio.ByteBuffer} documents, which are stored unchanged.
+   *
+   * <p>The default value of 0 are the flags of a string document, so UTF-8 bytes are read back as strings by the
+   * Couchbase clients.</p>
+   */
+  public final static String CONF_RAW_BYTES_FLAGS = "couchdoop.export.rawBytesFlags";
+  protected final static int RAW_BYTES_FLAGS = RawBytesTranscoder.STRING_FLAGS;
+
+  public static final String DEAD_LETTER_FILE_BASENAME = "dead-letter";
+
   public static class CouchbaseRecordWriter extends RecordWriter<String, CouchbaseAction> {
     
     private CouchbaseClient couchbaseClient;
+    /** Stores byte documents unchanged and everything else like the default client transcoder. */
+    private Transcoder<Object> transcoder;
+
+    /** Operations which were sent to Couchbase, in the order they were sent. */
+    private Deque<PendingOperation> inFlight = new ArrayDeque<>();
+    private long inFlightBytes = 0;
+
+    /** Operations which failed temporarily and wait for their back-off delay to pass. */
+    private DelayQueue<PendingOperation> retries = new DelayQueue<>();
+    /** Operations which can be sent again as soon as there is room in the in-flight window. */
+    private Deque<PendingOperation> ready = new ArrayDeque<>();
+    /**
+     * Keys with an operation in flight or waiting to be retried. Later operations on them wait for it to complete,
+     * so the operations on a key are applied in the order they were written.
+     */
+    private Map<String, PendingOperation> busyKeys = new HashMap<>();
+    /** Operations which were accepted and not finished yet, wherever they wait, and their size. */
+    private int queuedOperations = 0;
+    private long queuedBytes = 0;
+    /** When the retry queue last became non-empty, or 0 while it is empty. */
+    private long retriesPendingSince = 0; // ns
+    private long retriesPendingTime = 0; // ns
 
     private long nonExistentTouchedKeys = 0;
     private long failedStoreOperations = 0;
     private long timeoutOperations = 0;
-    private long totalTimeout = 0;
     private long existentKeys = 0;
+    private long deadLetterOperations = 0;
     private int[] expBackoffCounters;
 
     protected int expBackoffMaxTries;
     protected int expBackoffMaxRetryInterval; // ms
     protected int expBackoffMaxTotalTimeout; // ms
 
+    protected int maxInFlightOperations = MAX_IN_FLIGHT_OPERATIONS;
+    protected long maxInFlightBytes = MAX_IN_FLIGHT_BYTES;
+
+    private Random random = new Random();
+
+    private AimdConcurrencyLimit aimdLimit;
+    private Counter inFlightLimitCounter;
+
+    private Configuration deadLetterConf;
+    private Path deadLetterPath;
+    private SequenceFile.Writer deadLetterWriter;
+
     public CouchbaseRecordWriter(List<URI> urls, String bucket, String password)
         throws IOException {
       LOGGER.info("Connecting to Couchbase bucket {} by using URLs {}...", bucket, urls, password);
       couchbaseClient = new CouchbaseClient(urls, bucket, password);
       LOGGER.info("Connected to Couchbase.");
+      transcoder = new RawBytesTranscoder();
+
+      setExpBackoffMaxTries(EXP_BACKOFF_MAX_TRIES);
+    }
+
+    /**
+     * Creates a writer without a Couchbase client, for subclasses which override
+     * {@link #store(CouchbaseOperation, String, Object, int)}.
+     */
+    protected CouchbaseRecordWriter() {
+      transcoder = new RawBytesTranscoder();
 
-      expBackoffCounters = new int[expBackoffMaxTries];
+      setExpBackoffMaxTries(EXP_BACKOFF_MAX_TRIES);
     }
 
     protected OperationFuture<Boolean> store(CouchbaseOperation operation,
                                              String key, Object value, int expiry) {
       switch (operation) {
         case SET:
-          return couchbaseClient.set(key, expiry, value);
+          return couchbaseClient.set(key, expiry, value, transcoder);
         case ADD:
-          return couchbaseClient.add(key, expiry, value);
+          return couchbaseClient.add(key, expiry, value, transcoder);
         case REPLACE:
-          return couchbaseClient.replace(key, expiry, value);
+          return couchbaseClient.replace(key, expiry, value, transcoder);
         case APPEND:
-          return couchbaseClient.append(key, value);
+          return couchbaseClient.append(key, value, transcoder);
         case PREPEND:
-          return couchbaseClient.prepend(key, value);
+          return couchbaseClient.prepend(key, value, transcoder);
         case DELETE:
           return couchbaseClient.delete(key);
         case TOUCH:
@@ -125,61 +267,309 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
 
     @Override
     public void write(String key, CouchbaseAction value) throws IOException, InterruptedException {
-      int backoffExp = 0;
-      OperationFuture<Boolean> future;
-
-      // Store in Couchbase by doing exponential back-off.
-      do {
-        future = store(value.getOperation(), key, value.getValue(), value.getExpiry());
-        if (future == null) {
-          return;
-        }
+      // Handle the operations which already completed and retry the ones which are due, without blocking.
+      while (!inFlight.isEmpty() && inFlight.peek().getFuture().isDone()) {
+        completeOldest();
+      }
+      sendDueRetries();
+
+      PendingOperation operation = new PendingOperation(key, value);
+      waitForCapacity(operation);
+      queuedOperations++;
+      queuedBytes += operation.getSize();
+
+      // Keep the order of the operations on a key by having at most one of them in flight or waiting for a retry.
+      PendingOperation previous = busyKeys.get(key);
+      if (previous != null) {
+        previous.addFollower(operation);
+        return;
+      }
+      busyKeys.put(key, operation);
 
-        // If the operation exists, count non existent touched keys.
-        boolean res;
-        try {
-          res = future.get();
-        } catch (Exception e) {
-          res = false;
+      waitForRoom(operation);
+      send(operation);
+    }
 
-          if (e.getCause() instanceof CheckedOperationTimeoutException) {
-            timeoutOperations++;
-          }
-        }
-        if (!res && value.getOperation().equals(CouchbaseOperation.TOUCH)) {
-          nonExistentTouchedKeys++;
-        }
+    /**
+     * Waits until the operation fits in the in-flight window by completing the oldest operations.
+     */
+    private void waitForRoom(PendingOperation operation) throws IOException, InterruptedException {
+      while (!inFlight.isEmpty() && (inFlight.size() >= getInFlightLimit()
+          || maxInFlightBytes > 0 && inFlightBytes + operation.getSize() > maxInFlightBytes)) {
+        completeOldest();
+      }
+    }
+
+    /**
+     * Waits until a new operation fits in the limits together with all operations which were not finished yet,
+     * including the ones waiting for a retry or for an earlier operation on their key.
+     */
+    private void waitForCapacity(PendingOperation operation) throws IOException, InterruptedException {
+      while (queuedOperations > 0 && (queuedOperations >= getInFlightLimit()
+          || maxInFlightBytes > 0 && queuedBytes + operation.getSize() > maxInFlightBytes)) {
+        completeNext();
+      }
+    }
+
+    /**
+     * Completes the oldest operation in flight or, if there is none, waits for the next retry.
+     */
+    private void completeNext() throws IOException, InterruptedException {
+      sendDueRetries();
+      if (!inFlight.isEmpty()) {
+        completeOldest();
+      } else if (!retries.isEmpty()) {
+        // Nothing else to do but to wait for the next retry.
+        ready.add(retries.take());
+        updateRetriesPendingTime();
+      }
+    }
+
+    /**
+     * Sends again the operations whose back-off delay passed.
+     */
+    private void sendDueRetries() throws IOException, InterruptedException {
+      PendingOperation operation;
+      while ((operation = pollReady()) != null) {
+        waitForRoom(operation);
+        send(operation);
+      }
+    }
+
+    private PendingOperation pollReady() throws IOException {
+      PendingOperation operation;
+      boolean polled = false;
+      while ((operation = retries.poll()) != null) {
+        ready.add(operation);
+        polled = true;
+      }
+      if (polled) {
+        updateRetriesPendingTime();
+      }
+
+      return ready.poll();
+    }
+
+    /**
+     * Sends the operation to Couchbase and adds it to the in-flight window.
+     */
+    private void send(PendingOperation operation) {
+      CouchbaseAction action = operation.getAction();
+      OperationFuture<Boolean> future = store(action.getOperation(), operation.getKey(),
+          action.getValue(), action.getExpiry());
+      if (future == null) {
+        // Ignored action.
+        finish(operation);
+        return;
+      }
+
+      operation.setFuture(future);
+      inFlight.add(operation);
+      inFlightBytes += operation.getSize();
+    }
+
+    /**
+     * Waits for the oldest in-flight operation to complete and handles its outcome.
+     */
+    private void completeOldest() throws IOException, InterruptedException {
+      PendingOperation operation = inFlight.poll();
+      inFlightBytes -= operation.getSize();
+      complete(operation);
+    }
 
-        if (!res) {
-          failedStoreOperations++;
-          if (future.getStatus().getMessage().contains("exists")) {
-            existentKeys++;
-          }
+    /**
+     * Updates the counters with the outcome of a completed operation and, if it failed temporarily, schedules it
+     * for a retry.
+     */
+    private void complete(PendingOperation operation) throws IOException, InterruptedException {
+      OperationFuture<Boolean> future = operation.getFuture();
+      CouchbaseOperation couchbaseOperation = operation.getAction().getOperation();
+
+      // If the operation exists, count non existent touched keys.
+      boolean res;
+      boolean timedOut = false;
+      Exception error = null;
+      try {
+        res = future.get();
+      } catch (Exception e) {
+        res = false;
+        error = e;
+
+        if (e.getCause() instanceof CheckedOperationTimeoutException) {
+          timeoutOperations++;
+          timedOut = true;
         }
+      }
+      if (!res && couchbaseOperation.equals(CouchbaseOperation.TOUCH)) {
+        nonExistentTouchedKeys++;
+      }
 
-        if (future.getStatus().isSuccess()
-            || !future.getStatus().getMessage().equals("Temporary failure")
-            || backoffExp >= expBackoffMaxTries) {
-          break;
+      if (!res) {
+        failedStoreOperations++;
+        if (future.getStatus().getMessage().contains("exists")) {
+          existentKeys++;
         }
+      }
+
+      boolean temporaryFailure = !future.getStatus().isSuccess()
+          && future.getStatus().getMessage().equals("Temporary failure");
+      if (aimdLimit != null) {
+        updateInFlightLimit(operation, temporaryFailure || timedOut);
+      }
+
+      if (error != null) {
+        writeDeadLetter(operation, String.valueOf(error.getCause() != null ? error.getCause() : error));
+      } else if (!res && !temporaryFailure && !isExpectedFailure(couchbaseOperation, future.getStatus())) {
+        writeDeadLetter(operation, future.getStatus().getMessage());
+      } else if (temporaryFailure && operation.getBackoffExp() >= expBackoffMaxTries) {
+        writeDeadLetter(operation, future.getStatus().getMessage() + " after " + operation.getBackoffExp()
+            + " retries");
+      }
+
+      if (!temporaryFailure || operation.getBackoffExp() >= expBackoffMaxTries) {
+        finish(operation);
+        return;
+      }
+
+      scheduleRetry(operation);
+    }
+
+    /**
+     * @return whether an operation failed only because its key existed or didn't exist, which is what ADD, REPLACE
+     * and TOUCH depend on; other failures mean that the document was not stored
+     */
+    static boolean isExpectedFailure(CouchbaseOperation operation, OperationStatus status) {
+      StatusCode code = status.getStatusCode();
+      String message = String.valueOf(status.getMessage());
+      switch (operation) {
+        case ADD:
+          return code == StatusCode.ERR_EXISTS || code == null && message.contains("exists");
+        case REPLACE:
+        case TOUCH:
+        case EXISTS:
+          return code == StatusCode.ERR_NOT_FOUND || code == null && message.contains("Not found");
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * Puts a temporarily failed operation in the retry queue with a jittered exponential back-off delay.
+     */
+    private void scheduleRetry(PendingOperation operation) throws IOException {
+      int retryInterval = Math.min((int) Math.pow(2, operation.getBackoffExp()), expBackoffMaxRetryInterval);
+      int delay = retryInterval / 2 + random.nextInt(retryInterval - retryInterval / 2 + 1);
+      operation.incrementBackoffExp();
+      expBackoffCounters[operation.getBackoffExp()]++;
+
+      operation.scheduleRetry(delay);
+      retries.add(operation);
+      updateRetriesPendingTime();
+    }
 
-        int retryInterval = Math.min((int) Math.pow(2, backoffExp), expBackoffMaxRetryInterval);
-        Thread.sleep(retryInterval);
-        backoffExp++;
-        totalTimeout += retryInterval;
-        expBackoffCounters[backoffExp]++;
+    /**
+     * Adds the time since the last update to the time during which operations waited for a retry, if any did. The
+     * back-off delays of concurrent operations overlap, so they are only counted once.
+     */
+    private void updateRetriesPendingTime() throws IOException {
+      long now = System.nanoTime();
+      if (retriesPendingSince != 0) {
+        retriesPendingTime += now - retriesPendingSince;
+      }
+      retriesPendingSince = retries.isEmpty() ? 0 : now;
+
+      // A task is only allowed to wait for retries for a maximum amount of time.
+      if (getTotalTimeout() >= expBackoffMaxTotalTimeout) {
+        throw new IOException("couchdoop.expBackoff.maxTotalTimeoutPerTask was reached!");
+      }
+    }
 
-        // A task is only allowed to stay blocked for a maximum amount of time.
-        if (totalTimeout >= EXP_BACKOFF_MAX_TOTAL_TIMEOUT) {
-          throw new IOException("couchdoop.expBackoff.maxTotalTimeoutPerTask was reached!");
+    /**
+     * @return milliseconds during which the task had operations waiting for a retry
+     */
+    long getTotalTimeout() {
+      return TimeUnit.NANOSECONDS.toMillis(retriesPendingTime);
+    }
+
+    /**
+     * Feeds the outcome of an operation to the AIMD limit of operations in flight.
+     */
+    private void updateInFlightLimit(PendingOperation operation, boolean congested) {
+      int oldLimit = aimdLimit.getLimit();
+      if (congested) {
+        aimdLimit.onCongestion();
+      } else {
+        aimdLimit.onSuccess(operation.getLatency());
+      }
+
+      int newLimit = aimdLimit.getLimit();
+      if (newLimit != oldLimit) {
+        LOGGER.debug("Limit of operations in flight changed from {} to {}.", oldLimit, newLimit);
+        if (inFlightLimitCounter != null) {
+          inFlightLimitCounter.setValue(newLimit);
         }
-      } while (true);
+      }
+    }
+
+    private int getInFlightLimit() {
+      return aimdLimit != null ? aimdLimit.getLimit() : maxInFlightOperations;
+    }
+
+    /**
+     * Keeps an operation which could not be stored in the dead-letter file, if there is one.
+     */
+    private void writeDeadLetter(PendingOperation operation, String reason) throws IOException {
+      if (deadLetterPath == null) {
+        return;
+      }
+
+      if (deadLetterWriter == null) {
+        LOGGER.info("Writing operations which could not be stored to '{}'...", deadLetterPath);
+        deadLetterWriter = SequenceFile.createWriter(deadLetterConf,
+            SequenceFile.Writer.file(deadLetterPath),
+            SequenceFile.Writer.keyClass(Text.class),
+            SequenceFile.Writer.valueClass(DeadLetter.class),
+            SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK,
+                ReflectionUtils.newInstance(DefaultCodec.class, deadLetterConf)));
+      }
+
+      deadLetterWriter.append(new Text(operation.getKey()), new DeadLetter(operation.getAction(), reason));
+      deadLetterOperations++;
+    }
+
+    /**
+     * Releases the key of an operation which won't be sent again, letting the next operation on the key be sent.
+     */
+    private void finish(PendingOperation operation) {
+      queuedOperations--;
+      queuedBytes -= operation.getSize();
+
+      PendingOperation next = operation.releaseNextFollower();
+      if (next == null) {
+        busyKeys.remove(operation.getKey());
+        return;
+      }
+
+      busyKeys.put(operation.getKey(), next);
+      ready.add(next);
     }
 
     @Override
     public void close(TaskAttemptContext context) throws IOException, InterruptedException {
-      LOGGER.info("Disconnecting from Couchbase...");
-      couchbaseClient.shutdown();
+      LOGGER.info("Waiting for {} operations in flight and {} operations to be retried to complete...",
+          inFlight.size(), retries.size());
+      while (!inFlight.isEmpty() || !retries.isEmpty() || !ready.isEmpty()) {
+        completeNext();
+      }
+
+      if (couchbaseClient != null) {
+        LOGGER.info("Disconnecting from Couchbase...");
+        couchbaseClient.shutdown();
+      }
+
+      if (deadLetterWriter != null) {
+        deadLetterWriter.close();
+      }
 
       if (failedStoreOperations > 0) {
         context.getCounter(CouchbaseOutputFormat.class.getName(), "FAILED_STORE_OPERATIONS")
@@ -189,20 +579,29 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
         context.getCounter(CouchbaseOutputFormat.class.getName(), "TIMEOUT_OPERATIONS")
             .increment(timeoutOperations);
       }
-      if (totalTimeout > 0) {
+      if (getTotalTimeout() > 0) {
         context.getCounter(CouchbaseOutputFormat.class.getName(), "TOTAL_TIMEOUT")
-            .increment(totalTimeout);
+            .increment(getTotalTimeout());
       }
       if (existentKeys > 0) {
         context.getCounter(CouchbaseOutputFormat.class.getName(), "EXISTENT_KEYS")
             .increment(existentKeys);
       }
+      if (deadLetterOperations > 0) {
+        context.getCounter(CouchbaseOutputFormat.class.getName(), "DEAD_LETTER_OPERATIONS")
+            .increment(deadLetterOperations);
+      }
 
       // Set counter for non existent touched keys if applicable.
       if (nonExistentTouchedKeys > 0) {
         context.getCounter(CouchbaseOutputFormat.class.getName(), "NON_EXISTENT_TOUCHED_KEYS")
             .increment(nonExistentTouchedKeys);
       }
+      // Set counters for AIMD.
+      if (aimdLimit != null && aimdLimit.getDecreases() > 0) {
+        context.getCounter(CouchbaseOutputFormat.class.getName(), "IN_FLIGHT_LIMIT_DECREASES")
+            .increment(aimdLimit.getDecreases());
+      }
       // Set counters for exponential back-off.
       for (int i = 0; i < expBackoffCounters.length; i++) {
         int expBackoffCounter = expBackoffCounters[i];
@@ -215,6 +614,7 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
 
     public void setExpBackoffMaxTries(int expBackoffMaxTries) {
       this.expBackoffMaxTries = expBackoffMaxTries;
+      this.expBackoffCounters = new int[expBackoffMaxTries + 1];
     }
 
     public void setExpBackoffMaxRetryInterval(int expBackoffMaxRetryInterval) {
@@ -224,6 +624,44 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
     public void setExpBackoffMaxTotalTimeout(int expBackoffMaxTotalTimeout) {
       this.expBackoffMaxTotalTimeout = expBackoffMaxTotalTimeout;
     }
+
+    public void setRawBytesFlags(int rawBytesFlags) {
+      transcoder = new RawBytesTranscoder(rawBytesFlags, false);
+    }
+
+    public void setMaxInFlightOperations(int maxInFlightOperations) {
+      this.maxInFlightOperations = Math.max(1, maxInFlightOperations);
+    }
+
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+      this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Sets the file where operations which could not be stored are written. The file is only created if there are
+     * such operations.
+     */
+    public void setDeadLetterPath(Configuration conf, Path deadLetterPath) {
+      this.deadLetterConf = conf;
+      this.deadLetterPath = deadLetterPath;
+    }
+
+    /**
+     * Enables adapting the limit of operations in flight by doing additive-increase/multiplicative-decrease. The
+     * limit stays between {@code minInFlightOperations} and the maximum set with
+     * {@link #setMaxInFlightOperations(int)}.
+     *
+     * @param limitCounter counter updated with the current limit; may be null
+     */
+    public void enableAimd(int minInFlightOperations, double additiveIncrease, double multiplicativeDecrease,
+                           long latencyThreshold, Counter limitCounter) {
+      aimdLimit = new AimdConcurrencyLimit(Math.min(minInFlightOperations, maxInFlightOperations),
+          maxInFlightOperations, additiveIncrease, multiplicativeDecrease, latencyThreshold);
+      inFlightLimitCounter = limitCounter;
+      if (inFlightLimitCounter != null) {
+        inFlightLimitCounter.setValue(aimdLimit.getLimit());
+      }
+    }
   }
 
   public static void initJob(Job job, String urls, String bucket, String password) {
@@ -259,6 +697,31 @@ public class CouchbaseOutputFormat extends OutputFormat<String, CouchbaseAction>
     couchbaseRecordWriter.setExpBackoffMaxTotalTimeout(
         conf.getInt(CONF_EXP_BACKOFF_MAX_TOTAL_TIMEOUT_PER_TASK, EXP_BACKOFF_MAX_TOTAL_TIMEOUT)
     );
+    couchbaseRecordWriter.setRawBytesFlags(
+        conf.getInt(CONF_RAW_BYTES_FLAGS, RAW_BYTES_FLAGS)
+    );
+    couchbaseRecordWriter.setMaxInFlightOperations(
+        conf.getInt(CONF_MAX_IN_FLIGHT_OPERATIONS_PER_TASK, MAX_IN_FLIGHT_OPERATIONS)
+    );
+    couchbaseRecordWriter.setMaxInFlightBytes(
+        conf.getLong(CONF_MAX_IN_FLIGHT_BYTES_PER_TASK, MAX_IN_FLIGHT_BYTES)
+    );
+    if (conf.getBoolean(CONF_AIMD_ENABLED, false)) {
+      couchbaseRecordWriter.enableAimd(
+          conf.getInt(CONF_AIMD_MIN_IN_FLIGHT_OPERATIONS_PER_TASK, AIMD_MIN_IN_FLIGHT_OPERATIONS),
+          conf.getFloat(CONF_AIMD_ADDITIVE_INCREASE, AIMD_ADDITIVE_INCREASE),
+          conf.getFloat(CONF_AIMD_MULTIPLICATIVE_DECREASE, AIMD_MULTIPLICATIVE_DECREASE),
+          conf.getLong(CONF_AIMD_LATENCY_THRESHOLD, AIMD_LATENCY_THRESHOLD),
+          context.getCounter(CouchbaseOutputFormat.class.getName(), "IN_FLIGHT_LIMIT")
+      );
+    }
+
+    // Write the operations which could not be stored under the output path of the job, if there is one.
+    if (FileOutputFormat.getOutputPath(context) != null) {
+      FileOutputCommitter committer = (FileOutputCommitter) getOutputCommitter(context);
+      couchbaseRecordWriter.setDeadLetterPath(conf, new Path(committer.getWorkPath(),
+          FileOutputFormat.getUniqueFile(context, DEAD_LETTER_FILE_BASENAME, "")));
+    }
 
     return couchbaseRecordWriter;
   }
@@ -25,18 +25,24 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * This mapper maps key-value pairs read from TSV files as documents in Couchbase by using keys as IDs and values as
  * documents.
+ *
+ * <p>Each line is split at the first occurrence of the fields delimiter, which is matched literally. Everything after
+ * it is the document, which is passed on as UTF-8 bytes, without decoding it, and stored by
+ * {@link com.avira.couchdoop.exp.CouchbaseOutputFormat} as it is.</p>
  */
 public class CsvToCouchbaseMapper extends Mapper<LongWritable, Text, String, CouchbaseAction> {
 
   private CouchbaseOperation operation;
   private int expiry;
-  private String fieldsDelimiter;
+  private byte[] fieldsDelimiter;
 
   private static final Set<CouchbaseOperation> UNARY_OPERATIONS = new HashSet<CouchbaseOperation>(){{
     add(CouchbaseOperation.DELETE);
@@ -54,7 +60,7 @@ public class CsvToCouchbaseMapper extends Mapper<LongWritable, Text, String, Cou
 
       operation = exportArgs.getOperation();
       expiry = exportArgs.getExpiry();
-      fieldsDelimiter = exportArgs.getFieldsDelimiter();
+      fieldsDelimiter = exportArgs.getFieldsDelimiter().getBytes(StandardCharsets.UTF_8);
     } catch (ArgsException e) {
       throw new IllegalArgumentException(e);
     }
@@ -62,22 +68,51 @@ public class CsvToCouchbaseMapper extends Mapper<LongWritable, Text, String, Cou
 
   @Override
   protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
-    Object doc;
-    String docId;
-    CouchbaseAction action;
-    String[] pair = value.toString().split(fieldsDelimiter);
+    byte[] bytes = value.getBytes();
+    int length = value.getLength();
+    int delimiterIndex = indexOf(bytes, length, fieldsDelimiter);
+    boolean unary = UNARY_OPERATIONS.contains(operation);
 
     // Validate number of columns against operation.
-    if (UNARY_OPERATIONS.contains(operation) && pair.length < 1 ||
-        !UNARY_OPERATIONS.contains(operation) && pair.length < 2) {
+    if (!unary && (delimiterIndex < 0 || delimiterIndex + fieldsDelimiter.length == length) ||
+        unary && (delimiterIndex == 0 || length == 0)) {
       context.getCounter(Error.LINES_WITH_WRONG_COLUMNS_COUNT).increment(1);
       return;
     }
 
-    docId = pair[0];
-    doc = (pair.length >= 2 ? pair[1] : null);
-    action = new CouchbaseAction(operation, doc, expiry);
+    String docId = Text.decode(bytes, 0, delimiterIndex < 0 ? length : delimiterIndex);
+    Object doc = (unary ? null : Arrays.copyOfRange(bytes, delimiterIndex + fieldsDelimiter.length, length));
+    CouchbaseAction action = new CouchbaseAction(operation, doc, expiry);
 
     context.write(docId, action);
   }
+
+  /**
+   * Finds the first occurrence of a delimiter in the first length bytes of a buffer.
+   *
+   * @return the index where the delimiter starts or -1 if it doesn't occur
+   */
+  static int indexOf(byte[] bytes, int length, byte[] delimiter) {
+    if (delimiter.length == 0) {
+      return -1;
+    }
+
+    byte first = delimiter[0];
+    int last = length - delimiter.length;
+    for (int i = 0; i <= last; i++) {
+      if (bytes[i] != first) {
+        continue;
+      }
+
+      int j = 1;
+      while (j < delimiter.length && bytes[i + j] == delimiter[j]) {
+        j++;
+      }
+      if (j == delimiter.length) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
 }
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import com.avira.couchdoop.RawBytesTranscoder;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Hadoop value for a {@link com.avira.couchdoop.exp.CouchbaseAction} which could not be stored in Couchbase, together
+ * with the reason of the failure. The Couchbase key is stored as the Hadoop key of the dead-letter file.
+ *
+ * <p>String and byte array values are written as they are. {@link java.nio.ByteBuffer} values are read back as byte
+ * arrays. Other values are written with Java serialization, which is what the Couchbase client does with them too.</p>
+ */
+public class DeadLetter implements Writable {
+
+  private static final byte VALUE_NULL = 0;
+  private static final byte VALUE_STRING = 1;
+  private static final byte VALUE_BYTES = 2;
+  private static final byte VALUE_SERIALIZED = 3;
+
+  private CouchbaseAction action;
+  private String reason;
+
+  /**
+   * Default constructor (necessary because this is a Writable)
+   */
+  public DeadLetter() {
+  }
+
+  public DeadLetter(CouchbaseAction action, String reason) {
+    this.action = action;
+    this.reason = reason;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeEnum(out, action.getOperation());
+    WritableUtils.writeVInt(out, action.getExpiry());
+    Text.writeString(out, reason == null ? "" : reason);
+
+    Object value = action.getValue();
+    if (value == null) {
+      out.writeByte(VALUE_NULL);
+    } else if (value instanceof String) {
+      out.writeByte(VALUE_STRING);
+      Text.writeString(out, (String) value);
+    } else if (value instanceof byte[]) {
+      out.writeByte(VALUE_BYTES);
+      writeBytes(out, (byte[]) value);
+    } else if (value instanceof ByteBuffer) {
+      out.writeByte(VALUE_BYTES);
+      writeBytes(out, RawBytesTranscoder.toBytes((ByteBuffer) value));
+    } else {
+      out.writeByte(VALUE_SERIALIZED);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+        objectOut.writeObject(value);
+      }
+      writeBytes(out, bytes.toByteArray());
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    CouchbaseOperation operation = WritableUtils.readEnum(in, CouchbaseOperation.class);
+    int expiry = WritableUtils.readVInt(in);
+    reason = Text.readString(in);
+
+    Object value;
+    byte valueType = in.readByte();
+    switch (valueType) {
+      case VALUE_NULL:
+        value = null;
+        break;
+      case VALUE_STRING:
+        value = Text.readString(in);
+        break;
+      case VALUE_BYTES:
+        value = readBytes(in);
+        break;
+      case VALUE_SERIALIZED:
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+          value = objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Unable to deserialize dead-letter value.", e);
+        }
+        break;
+      default:
+        throw new IOException("Unknown dead-letter value type " + valueType + ".");
+    }
+
+    action = new CouchbaseAction(operation, value, expiry);
+  }
+
+  private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+    WritableUtils.writeVInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[WritableUtils.readVInt(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  public CouchbaseAction getAction() {
+    return action;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  @Override
+  public String toString() {
+    return "DeadLetter{" +
+        "action=" + action +
+        ", reason='" + reason + '\'' +
+        '}';
+  }
+}
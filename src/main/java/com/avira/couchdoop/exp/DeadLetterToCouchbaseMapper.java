@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * This mapper replays the actions read from the dead-letter files written by
+ * {@link com.avira.couchdoop.exp.CouchbaseOutputFormat}, with their original operation and expiry.
+ */
+public class DeadLetterToCouchbaseMapper extends Mapper<Text, DeadLetter, String, CouchbaseAction> {
+
+  @Override
+  protected void map(Text key, DeadLetter value, Context context) throws IOException, InterruptedException {
+    context.write(key.toString(), value.getAction());
+  }
+}
@@ -34,8 +34,22 @@ import java.util.List;
  */
 public class ExportArgs extends CouchbaseArgs {
 
+  /**
+   * Formats of the export input.
+   */
+  public enum InputFormat {
+    /** Key-value CSV files. */
+    CSV,
+    /** Dead-letter files written by a previous export, replayed with their original operations. */
+    DEAD_LETTER
+  }
+
   private String input;
 
+  private InputFormat inputFormat;
+
+  private String output;
+
   private CouchbaseOperation operation;
 
   private int expiry;
@@ -44,6 +58,10 @@ public class ExportArgs extends CouchbaseArgs {
 
   public static final ArgDef ARG_INPUT = new ArgDef('i', "input", true, true,
       "(required) HDFS input directory");
+  public static final ArgDef ARG_INPUT_FORMAT = new ArgDef('f', "input.format", true, false,
+      "format of the input: CSV or DEAD_LETTER to replay the dead-letter files of a previous export; defaults to CSV");
+  public static final ArgDef ARG_OUTPUT = new ArgDef('o', "output", true, false,
+      "HDFS output directory where operations which could not be stored are written as dead-letter files");
   public static final ArgDef ARG_OPERATION = new ArgDef('t', "couchbase.operation", true, false,
       "one of Couchbase store operations: SET, ADD, REPLACE, APPEND, PREPEND, DELETE, TOUCH; defaults to SET");
   public static final ArgDef ARG_EXPIRY = new ArgDef('x', "couchbase.expiry", true, false,
@@ -51,9 +69,11 @@ public class ExportArgs extends CouchbaseArgs {
   public static final ArgDef ARG_DELIMITER_FIELDS = new ArgDef('d', "delimiter.fields", true, false,
       "Fields delimiter for the CSV input; defaults to tab");
 
-  public static final List<ArgDef> ARGS_LIST = new ArrayList<>(4);
+  public static final List<ArgDef> ARGS_LIST = new ArrayList<>(6);
   static {
     ARGS_LIST.add(ARG_INPUT);
+    ARGS_LIST.add(ARG_INPUT_FORMAT);
+    ARGS_LIST.add(ARG_OUTPUT);
     ARGS_LIST.add(ARG_OPERATION);
     ARGS_LIST.add(ARG_EXPIRY);
     ARGS_LIST.add(ARG_DELIMITER_FIELDS);
@@ -75,6 +95,8 @@ public class ExportArgs extends CouchbaseArgs {
     super.loadFromHadoopConfiguration(conf);
 
     input = conf.get(ARG_INPUT.getPropertyName());
+    inputFormat = getInputFormat(conf);
+    output = conf.get(ARG_OUTPUT.getPropertyName());
     operation = getOperation(conf);
     expiry = getExpiry(conf);
     fieldsDelimiter = conf.get(ARG_DELIMITER_FIELDS.getPropertyName(), "\t");
@@ -87,6 +109,40 @@ public class ExportArgs extends CouchbaseArgs {
     return input;
   }
 
+  /**
+   * Reads the input format from the Hadoop configuration.
+   * @return format of the export input
+   */
+  public static InputFormat getInputFormat(Configuration hadoopConfiguration) throws ArgsException {
+    String strInputFormat = hadoopConfiguration.get(ARG_INPUT_FORMAT.getPropertyName());
+
+    // Default value
+    if (strInputFormat == null) {
+      return InputFormat.CSV;
+    }
+
+    try {
+      return InputFormat.valueOf(strInputFormat);
+    } catch (IllegalArgumentException e) {
+      throw new ArgsException("Unrecognized input format '" + strInputFormat +
+        "'. Please provide one of the following: CSV and DEAD_LETTER.", e);
+    }
+  }
+
+  /**
+   * @return format of the export input
+   */
+  public InputFormat getInputFormat() {
+    return inputFormat;
+  }
+
+  /**
+   * @return HDFS output directory for dead-letter files or null if they should not be written
+   */
+  public String getOutput() {
+    return output;
+  }
+
   /**
    * Reads Couchbase store operation from the Hadoop configuration type.
    * @return Couchbase store operation to be used
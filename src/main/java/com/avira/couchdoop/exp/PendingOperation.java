@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A store operation issued by {@link com.avira.couchdoop.exp.CouchbaseOutputFormat.CouchbaseRecordWriter} which
+ * is kept until its outcome is known, so it can be retried.
+ *
+ * <p>While waiting for a retry the operation sits in a {@link java.util.concurrent.DelayQueue}, so it is
+ * {@link java.util.concurrent.Delayed} until the time of the retry.</p>
+ *
+ * <p>The operation listens for the completion of its future in order to measure its latency.</p>
+ */
+class PendingOperation implements Delayed, OperationCompletionListener {
+
+  private final String key;
+  private final CouchbaseAction action;
+  private final int size;
+
+  private OperationFuture<Boolean> future;
+  private int backoffExp = 0;
+  private long retryTime; // ns
+  private long sendTime; // ns
+  private volatile long completionTime; // ns
+
+  /** Later operations on the same key which must wait for this one to complete, including its retries. */
+  private Deque<PendingOperation> followers;
+
+  PendingOperation(String key, CouchbaseAction action) {
+    this.key = key;
+    this.action = action;
+    this.size = sizeOf(action.getValue());
+  }
+
+  /**
+   * Roughly estimates how many bytes a document value occupies on the wire.
+   */
+  static int sizeOf(Object value) {
+    if (value instanceof String) {
+      return ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    } else if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).remaining();
+    }
+
+    return 0;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  CouchbaseAction getAction() {
+    return action;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  OperationFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  void setFuture(OperationFuture<Boolean> future) {
+    this.future = future;
+    sendTime = System.nanoTime();
+    completionTime = 0;
+    future.addListener(this);
+  }
+
+  @Override
+  public void onComplete(OperationFuture<?> future) {
+    completionTime = System.nanoTime();
+  }
+
+  /**
+   * @return milliseconds between sending the operation and its completion, or until now if the completion was not
+   * notified yet
+   */
+  long getLatency() {
+    long end = completionTime;
+    if (end == 0) {
+      end = System.nanoTime();
+    }
+    return TimeUnit.NANOSECONDS.toMillis(end - sendTime);
+  }
+
+  int getBackoffExp() {
+    return backoffExp;
+  }
+
+  void incrementBackoffExp() {
+    backoffExp++;
+  }
+
+  void scheduleRetry(long delayMillis) {
+    retryTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+  }
+
+  void addFollower(PendingOperation follower) {
+    if (followers == null) {
+      followers = new ArrayDeque<>();
+    }
+    followers.add(follower);
+  }
+
+  /**
+   * Removes the first of the operations which waited for this one. The others then wait for it instead.
+   *
+   * @return the operation received right after this one on the same key or null if there is none
+   */
+  PendingOperation releaseNextFollower() {
+    if (followers == null || followers.isEmpty()) {
+      return null;
+    }
+
+    PendingOperation next = followers.poll();
+    next.followers = followers;
+    followers = null;
+    return next;
+  }
+
+  @Override
+  public long getDelay(TimeUnit unit) {
+    return unit.convert(retryTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public int compareTo(Delayed other) {
+    long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+  }
+}
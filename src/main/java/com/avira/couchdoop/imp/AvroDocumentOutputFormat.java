@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Output format which writes document IDs and documents to Avro data files, as records with an {@code id} and a
+ * {@code document} string field. Documents given as UTF-8 bytes are written without decoding them.
+ *
+ * <p>The Avro codec is the {@code output.compression} property: snappy, deflate (also accepted as gzip), bzip2 or
+ * none, which is the default.</p>
+ */
+public class AvroDocumentOutputFormat extends FileOutputFormat<Text, Text> {
+
+  public static final Schema SCHEMA = new Schema.Parser().parse("{" +
+      "\"type\": \"record\", \"name\": \"CouchbaseDocument\", \"namespace\": \"com.avira.couchdoop\", " +
+      "\"fields\": [{\"name\": \"id\", \"type\": \"string\"}, {\"name\": \"document\", \"type\": \"string\"}]" +
+      "}");
+
+  /**
+   * @param compression name of the codec or {@link ImportViewArgs#COMPRESSION_NONE}
+   * @throws IllegalArgumentException if Avro doesn't support the codec
+   */
+  public static CodecFactory getCodecFactory(String compression) {
+    switch (compression) {
+      case ImportViewArgs.COMPRESSION_NONE:
+        return CodecFactory.nullCodec();
+      case "snappy":
+        return CodecFactory.snappyCodec();
+      case "gzip":
+      case "deflate":
+        return CodecFactory.deflateCodec(6);
+      case "bzip2":
+        return CodecFactory.bzip2Codec();
+      default:
+        throw new IllegalArgumentException("Unrecognized Avro compression codec '" + compression +
+            "'. Please provide one of the following: snappy, deflate, bzip2 and none.");
+    }
+  }
+
+  @Override
+  public RecordWriter<Text, Text> getRecordWriter(TaskAttemptContext context) throws IOException {
+    String compression = context.getConfiguration().get(ImportViewArgs.ARG_COMPRESSION.getPropertyName(),
+        ImportViewArgs.COMPRESSION_NONE);
+    Path file = getDefaultWorkFile(context, ".avro");
+    FileSystem fileSystem = file.getFileSystem(context.getConfiguration());
+
+    DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(SCHEMA));
+    writer.setCodec(getCodecFactory(compression));
+    writer.create(SCHEMA, fileSystem.create(file, false));
+    return new AvroDocumentRecordWriter(writer);
+  }
+
+  private static class AvroDocumentRecordWriter extends RecordWriter<Text, Text> {
+
+    private final DataFileWriter<GenericRecord> writer;
+    private final GenericRecord record = new GenericData.Record(SCHEMA);
+
+    private AvroDocumentRecordWriter(DataFileWriter<GenericRecord> writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void write(Text key, Text value) throws IOException {
+      record.put(0, toUtf8(key));
+      record.put(1, toUtf8(value));
+      writer.append(record);
+    }
+
+    private static Utf8 toUtf8(Text text) {
+      return new Utf8(Arrays.copyOf(text.getBytes(), text.getLength()));
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      writer.close();
+    }
+  }
+}
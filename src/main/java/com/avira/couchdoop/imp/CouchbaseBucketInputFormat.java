@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.ArgsException;
+import com.avira.couchdoop.RawBytesTranscoder;
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.TapClient;
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowWithDocs;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.tapmessage.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.ConfigurationException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This input format reads all the documents of a Couchbase bucket, without a view, by dumping them with the TAP
+ * protocol.
+ * <p/>
+ * The vBuckets of the bucket are divided into contiguous ranges, one for each Mapper task, and each task dumps only
+ * the documents of its vBuckets, from all the nodes of the cluster at once.
+ * <p/>
+ * Instances emit document IDs as key and a {@link com.couchbase.client.protocol.views.ViewRow} with the document as
+ * value, like {@link CouchbaseViewInputFormat}, so the same mappers can be used. The rows have no view key or value.
+ * If {@value CouchbaseViewInputFormat#CONF_RAW_DOCUMENTS} is true, the documents are the bytes stored in Couchbase.
+ */
+public class CouchbaseBucketInputFormat extends InputFormat<Text, ViewRow> {
+
+  public static class CouchbaseBucketInputSplit extends InputSplit implements Writable {
+
+    private int firstVBucket;
+    private int endVBucket;
+
+    /**
+     * Default constructor (necessary because this is a Writable)
+     */
+    public CouchbaseBucketInputSplit() {
+    }
+
+    /**
+     * @param firstVBucket first vBucket of the split
+     * @param endVBucket vBucket after the last one of the split
+     */
+    public CouchbaseBucketInputSplit(int firstVBucket, int endVBucket) {
+      this.firstVBucket = firstVBucket;
+      this.endVBucket = endVBucket;
+    }
+
+    @Override
+    public long getLength() throws IOException, InterruptedException {
+      // Documents are distributed evenly across vBuckets.
+      return endVBucket - firstVBucket;
+    }
+
+    @Override
+    public String[] getLocations() throws IOException, InterruptedException {
+      // It is assumed that the Couchbase nodes cannot be local.
+      return new String[]{};
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(firstVBucket);
+      out.writeInt(endVBucket);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      firstVBucket = in.readInt();
+      endVBucket = in.readInt();
+    }
+
+    public int getFirstVBucket() {
+      return firstVBucket;
+    }
+
+    public int getEndVBucket() {
+      return endVBucket;
+    }
+
+    @Override
+    public String toString() {
+      return "vBuckets [" + firstVBucket + ", " + endVBucket + ")";
+    }
+  }
+
+  public static class CouchbaseBucketRecordReader extends RecordReader<Text, ViewRow> {
+
+    private static final long POLL_TIMEOUT = 1000; // ms
+
+    private TapClient tapClient;
+    private RawBytesTranscoder transcoder;
+    private CouchbaseBucketInputSplit split;
+    private BitSet vBucketsSeen = new BitSet();
+
+    private Text key = new Text();
+    private ViewRow value;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseBucketRecordReader.class);
+
+    @Override
+    public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      ImportBucketArgs importBucketArgs;
+      try {
+        importBucketArgs = new ImportBucketArgs(conf);
+      } catch (ArgsException e) {
+        throw new IllegalArgumentException(e);
+      }
+
+      split = (CouchbaseBucketInputSplit) inputSplit;
+      transcoder = new RawBytesTranscoder(RawBytesTranscoder.STRING_FLAGS,
+          conf.getBoolean(CouchbaseViewInputFormat.CONF_RAW_DOCUMENTS, false));
+
+      short[] vBuckets = new short[split.getEndVBucket() - split.getFirstVBucket()];
+      for (int i = 0; i < vBuckets.length; i++) {
+        vBuckets[i] = (short) (split.getFirstVBucket() + i);
+      }
+
+      RequestMessage request = new RequestMessage();
+      request.setMagic(TapMagic.PROTOCOL_BINARY_REQ);
+      request.setFlags(TapRequestFlag.DUMP);
+      request.setFlags(TapRequestFlag.SUPPORT_ACK);
+      request.setFlags(TapRequestFlag.FIX_BYTEORDER);
+      request.setFlags(TapRequestFlag.LIST_VBUCKETS);
+      request.setVbucketlist(vBuckets);
+
+      // Attempts of the same task use the same TAP name on the server.
+      String tapName = "couchdoop-" + context.getTaskAttemptID().getTaskID();
+      LOGGER.info("Dumping {} of bucket {}...", split, importBucketArgs.getBucket());
+      tapClient = new TapClient(importBucketArgs.getUrls(), importBucketArgs.getBucket(),
+          importBucketArgs.getPassword());
+      try {
+        tapClient.tapCustom(tapName, request);
+      } catch (ConfigurationException e) {
+        throw new IOException("Unable to open a TAP stream for " + split + ".", e);
+      }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+      while (tapClient != null && tapClient.hasMoreMessages()) {
+        ResponseMessage message = tapClient.getNextMessage(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (message == null || message.getOpcode() != TapOpcode.MUTATION) {
+          continue;
+        }
+
+        vBucketsSeen.set(message.getVbucket());
+        Object document = transcoder.decode(
+            new CachedData(message.getItemFlags(), message.getValue(), CachedData.MAX_SIZE));
+        key.set(message.getKey());
+        value = new ViewRowWithDocs(message.getKey(), null, null, document);
+        return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    public Text getCurrentKey() throws IOException, InterruptedException {
+      return key;
+    }
+
+    @Override
+    public ViewRow getCurrentValue() throws IOException, InterruptedException {
+      return value;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+      if (tapClient == null || !tapClient.hasMoreMessages()) {
+        return 1.0f;
+      }
+
+      // vBuckets are dumped one after the other on each node, so the ones seen are roughly the ones done.
+      return Math.min(1.0f, (float) vBucketsSeen.cardinality() / split.getLength());
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (tapClient != null) {
+        LOGGER.info("Closing the TAP stream...");
+        tapClient.shutdown();
+        tapClient = null;
+      }
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseBucketInputFormat.class);
+
+  @Override
+  public List<InputSplit> getSplits(JobContext jobContext) throws IOException, InterruptedException {
+    ImportBucketArgs importBucketArgs;
+    try {
+      importBucketArgs = new ImportBucketArgs(jobContext.getConfiguration());
+    } catch (ArgsException e) {
+      throw new RuntimeException("ImportBucketArgs can't load settings from Hadoop Configuration");
+    }
+
+    int numVBuckets;
+    CouchbaseClient couchbaseClient = CouchbaseViewInputFormat.connect(importBucketArgs.getUrls(),
+        importBucketArgs.getBucket(), importBucketArgs.getPassword(), false);
+    try {
+      numVBuckets = couchbaseClient.getNumVBuckets();
+    } finally {
+      couchbaseClient.shutdown();
+    }
+
+    return splitVBuckets(numVBuckets, importBucketArgs.getNumMappers());
+  }
+
+  /**
+   * Divides the vBuckets into contiguous ranges whose sizes differ by at most one.
+   */
+  static List<InputSplit> splitVBuckets(int numVBuckets, int numSplits) {
+    numSplits = Math.max(1, Math.min(numSplits, numVBuckets));
+    List<InputSplit> inputSplits = new ArrayList<>(numSplits);
+
+    int firstVBucket = 0;
+    for (int i = 0; i < numSplits; i++) {
+      int endVBucket = (int) ((long) numVBuckets * (i + 1) / numSplits);
+      inputSplits.add(new CouchbaseBucketInputSplit(firstVBucket, endVBucket));
+      firstVBucket = endVBucket;
+    }
+
+    LOGGER.info("Divided {} vBuckets into {} splits.", numVBuckets, numSplits);
+    return inputSplits;
+  }
+
+  @Override
+  public RecordReader<Text, ViewRow> createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
+      throws IOException, InterruptedException {
+    return new CouchbaseBucketRecordReader();
+  }
+}
@@ -21,13 +21,16 @@ package com.avira.couchdoop.imp;
 
 import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.CouchbaseArgs;
+import com.avira.couchdoop.RawBytesTranscoder;
 import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.CouchbaseConnectionFactoryBuilder;
 import com.couchbase.client.protocol.views.*;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.ArrayWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,29 +40,185 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
- * This input format reads documents from a Couchbase view queried by a list of view keys.
+ * This input format reads documents from a Couchbase view queried by a list of view keys or by a key range.
  * <p/>
  * Instances emit document IDs as key and the corresponding Couchbase {@link com.couchbase.client.protocol.views.ViewRow}
  * as value.
  * <p/>
- * The view keys passed as input are distributed evenly across a configurable number of Mapper tasks.
+ * The view keys passed as input are distributed evenly across a configurable number of Mapper tasks. A key range is
+ * cut into sub-ranges with roughly the same number of rows, one for each Mapper task, by sampling the view.
+ * <p/>
+ * If {@value #CONF_RAW_DOCUMENTS} is true, the documents of the view rows are the UTF-8 bytes stored in Couchbase,
+ * as byte arrays, instead of strings.
+ * <p/>
+ * Each task fetches the next {@value #CONF_PREFETCH_PAGES} view pages in a background thread while the mapper
+ * processes the current page.
+ * <p/>
+ * If {@value #CONF_STREAMING} is true, view rows are parsed one at a time from the HTTP responses of the view and
+ * their documents are fetched a few rows ahead, so a task holds only a few rows in memory instead of whole pages.
+ * <p/>
+ * If {@value #CONF_TARGET_PAGE_BYTES} or {@value #CONF_TARGET_PAGE_LATENCY} is set, each task adjusts the number of
+ * documents per page to the size and latency of the pages it fetched, with a {@link PageSizeController}.
+ * <p/>
+ * If {@value #CONF_LOOKUP_AND_FETCH} is true, the view is queried without documents and the documents are fetched
+ * from the data service with pipelined bulk gets, by a {@link DocumentFetchingIterator}.
+ * <p/>
+ * If {@value #CONF_CHECKPOINT_DIR} is set, each value is a {@link PagedViewRow} and a retried task continues from the
+ * last {@link ImportCheckpoint} saved by a previous attempt, instead of starting its split from the beginning.
+ * <p/>
+ * Task progress is the fraction of the estimated rows of the split which were read. A split of a single key without an
+ * estimate is counted with {@value #CONF_COUNT_VIEW} by the task when it starts, if that view is set. The rows, bytes,
+ * page latencies and reading time of each task are reported as cumulative counters while it runs.
  */
 public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
 
+  /**
+   * Whether the documents of the view rows are byte arrays with the bytes stored in Couchbase, instead of strings.
+   * This avoids decoding documents which are going to be written as bytes anyway.
+   */
+  public final static String CONF_RAW_DOCUMENTS = "couchdoop.import.rawDocuments";
+
+  /**
+   * How many view pages each task fetches in the background, ahead of the page being processed by the mapper.
+   * 0 fetches each page only after the previous one was processed.
+   */
+  public final static String CONF_PREFETCH_PAGES = "couchdoop.import.prefetchPages";
+  protected final static int PREFETCH_PAGES = 1;
+
+  /**
+   * How the pages of a view key are queried, KEYSET or PAGINATOR. See {@link Pagination}.
+   */
+  public final static String CONF_PAGINATION = "couchdoop.import.pagination";
+  protected final static Pagination PAGINATION = Pagination.KEYSET;
+
+  /**
+   * Name of a view in the same design document which emits the same keys as the imported view and has a
+   * {@code _count} reduce; it may be the imported view itself. If set, the rows of each view key are counted and
+   * the keys are packed into splits with roughly the same number of rows, instead of the same number of keys.
+   */
+  public final static String CONF_COUNT_VIEW = "couchdoop.import.countView";
+
+  /**
+   * How many view keys of a split are queried at once ({@code keys=[...]}). Keys with many rows are continued
+   * separately, so the rows are the same as when querying each key separately. Requires KEYSET pagination.
+   */
+  public final static String CONF_KEYS_PER_QUERY = "couchdoop.import.keysPerQuery";
+  protected final static int KEYS_PER_QUERY = 1;
+
+  /**
+   * Whether view rows are streamed from the view REST API, instead of reading whole pages with the Couchbase client.
+   * Streamed pages are queried only after the previous one was read, with KEYSET pagination and one key at a time.
+   */
+  public final static String CONF_STREAMING = "couchdoop.import.streaming";
+
+  /**
+   * Port of the view REST API of the Couchbase nodes, used for streaming.
+   */
+  public final static String CONF_VIEW_PORT = "couchdoop.import.viewPort";
+  protected final static int VIEW_PORT = StreamingViewClient.VIEW_PORT;
+
+  /**
+   * How many documents are fetched ahead of the row being processed when streaming.
+   */
+  public final static String CONF_DOCUMENTS_AHEAD = "couchdoop.import.documentsAhead";
+  protected final static int DOCUMENTS_AHEAD = 16;
+
+  /**
+   * Whether view pages are queried without documents, which are then fetched from the data service with bulk gets,
+   * instead of being fetched by the Couchbase client for each whole page.
+   */
+  public final static String CONF_LOOKUP_AND_FETCH = "couchdoop.import.lookupAndFetch";
+
+  /**
+   * Maximum number of documents of a bulk get, in lookup-and-fetch mode.
+   */
+  public final static String CONF_FETCH_BATCH_SIZE = "couchdoop.import.fetchBatchSize";
+  protected final static int FETCH_BATCH_SIZE = 128;
+
+  /**
+   * How many bulk gets are in flight ahead of the rows being processed, in lookup-and-fetch mode.
+   */
+  public final static String CONF_FETCH_OUTSTANDING_BATCHES = "couchdoop.import.fetchOutstandingBatches";
+  protected final static int FETCH_OUTSTANDING_BATCHES = 4;
+
+  /**
+   * Target size of a view page in bytes, documents included. If set, the number of documents per page is adjusted
+   * at run time, starting from the configured one. Requires KEYSET pagination of one key at a time.
+   */
+  public final static String CONF_TARGET_PAGE_BYTES = "couchdoop.import.targetPageBytes";
+
+  /**
+   * Target latency of a view page query in milliseconds, documents included. If set, the number of documents per
+   * page is adjusted at run time, starting from the configured one. Requires KEYSET pagination of one key at a time.
+   */
+  public final static String CONF_TARGET_PAGE_LATENCY = "couchdoop.import.targetPageLatency";
+
+  /**
+   * Minimum number of documents per page when the page size is adjusted at run time.
+   */
+  public final static String CONF_MIN_DOCS_PER_PAGE = "couchdoop.import.minDocsPerPage";
+  protected final static int MIN_DOCS_PER_PAGE = 16;
+
+  /**
+   * Maximum number of documents per page when the page size is adjusted at run time.
+   */
+  public final static String CONF_MAX_DOCS_PER_PAGE = "couchdoop.import.maxDocsPerPage";
+  protected final static int MAX_DOCS_PER_PAGE = 16384;
+
+  /**
+   * HDFS directory where tasks save the position of the last page they wrote, so that a retried task continues from
+   * there. Requires KEYSET pagination of one key at a time, not streamed.
+   */
+  public final static String CONF_CHECKPOINT_DIR = "couchdoop.import.checkpointDir";
+
+  /**
+   * Number of pages after which a task which saves checkpoints completes its file and saves a checkpoint.
+   */
+  public final static String CONF_CHECKPOINT_PAGES = "couchdoop.import.checkpointPages";
+  protected final static int CHECKPOINT_PAGES = 100;
+
+  /**
+   * Number of bytes written to a file after which a task which saves checkpoints completes the file and saves a
+   * checkpoint, at the end of the current page.
+   */
+  public final static String CONF_CHECKPOINT_BYTES = "couchdoop.import.checkpointBytes";
+  protected final static long CHECKPOINT_BYTES = 128L * 1024 * 1024;
+
+  public enum Pagination {
+    /** Each page starts from the last document ID seen, by using {@link KeysetPaginator}. */
+    KEYSET,
+    /** Pages are queried by the {@link com.couchbase.client.protocol.views.Paginator} of the Couchbase client. */
+    PAGINATOR
+  }
+
   public static class CouchbaseViewInputSplit extends InputSplit implements Writable {
 
     private List<String> viewKeys = new ArrayList<>();
 
+    /** Range of view rows, used instead of the keys. */
+    private ViewKeyRange range;
+    private long estimatedRows = -1;
+
     /**
      * Default constructor (necessary because this is a Writable)
      */
     public CouchbaseViewInputSplit() {
     }
 
+    public CouchbaseViewInputSplit(ViewKeyRange range, long estimatedRows) {
+      this.range = range;
+      this.estimatedRows = estimatedRows;
+    }
+
     @Override
     public long getLength() throws IOException, InterruptedException {
+      if (estimatedRows >= 0) {
+        return estimatedRows;
+      }
+
       // The split size is calculated only roughly from the number of keys
       // out of performance considerations
       return viewKeys.size();
@@ -82,6 +241,12 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
 
       ArrayWritable viewKeysWritable = new ArrayWritable(Text.class, viewKeysTexts);
       viewKeysWritable.write(out);
+
+      out.writeBoolean(range != null);
+      if (range != null) {
+        range.write(out);
+      }
+      WritableUtils.writeVLong(out, estimatedRows);
     }
 
     @Override
@@ -90,6 +255,12 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
       viewKeysWritable.readFields(in);
 
       Collections.addAll(viewKeys, viewKeysWritable.toStrings());
+
+      if (in.readBoolean()) {
+        range = new ViewKeyRange();
+        range.readFields(in);
+      }
+      estimatedRows = WritableUtils.readVLong(in);
     }
 
     public void addKey(String key) {
@@ -99,6 +270,42 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
     public List<String> getKeys() {
       return viewKeys;
     }
+
+    /**
+     * @param estimatedRows estimated number of view rows of the split, reported as its length
+     */
+    public void setEstimatedRows(long estimatedRows) {
+      this.estimatedRows = estimatedRows;
+    }
+
+    /**
+     * @return estimated number of view rows of the split or -1 if it wasn't estimated
+     */
+    public long getEstimatedRows() {
+      return estimatedRows;
+    }
+
+    /**
+     * @return the range of view rows of the split or null if the split has a list of keys
+     */
+    public ViewKeyRange getRange() {
+      return range;
+    }
+
+    /**
+     * @return the ranges of view rows to read, one for each key if the split has a list of keys
+     */
+    public List<ViewKeyRange> getRanges() {
+      if (range != null) {
+        return Collections.singletonList(range);
+      }
+
+      List<ViewKeyRange> ranges = new ArrayList<>(viewKeys.size());
+      for (String viewKey : viewKeys) {
+        ranges.add(ViewKeyRange.forKey(viewKey));
+      }
+      return ranges;
+    }
   }
 
   public static class CouchbaseViewRecordReader extends RecordReader<Text, ViewRow> {
@@ -109,69 +316,290 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
     private String couchbaseDesignDocName;
     private String couchbaseViewName;
     private int couchbaseDocsPerPage;
-
-    private Queue<String> keyQueue = new LinkedList<>();
+    private boolean rawDocuments;
+
+    private int prefetchPages;
+    private Pagination pagination;
+    private int keysPerQuery;
+    private boolean streaming;
+    private int viewPort;
+    private int documentsAhead;
+    private boolean lookupAndFetch;
+    private int fetchBatchSize;
+    private int fetchOutstandingBatches;
+    private String checkpointDir;
+    private String countViewName;
+
+    private Queue<ViewKeyRange> keyQueue = new LinkedList<>();
     private int totalNumKeys;
+    private int fetchedKeys = 0;
+    private int consumedKeys = 0;
+
+    private long estimatedRows = -1;
+    private long lastReportTime;
+    private long rowsRead = 0;
+    private long bytesRead = 0;
+    private Counter rowsCounter;
+    private Counter bytesCounter;
+    private Counter pagesCounter;
+    private Counter pageLatencyCounter;
+    private Counter readTimeCounter;
 
     private CouchbaseClient couchbaseClient;
     private View view;
-    private Paginator paginator;
+    private ViewQuerier querier;
+    private Iterator<ViewResponse> paginator;
+    private PagePrefetcher<Page> prefetcher;
+    private StreamingViewClient streamingClient;
+    private StreamingKeysetRows streamingRows;
+    private PageSizeController pageSizeController;
+    private TaskAttemptContext context;
     private Iterator<ViewRow> rowIterator;
+    private Page currentPage;
 
     private Text key = new Text();
     private ViewRow value;
 
     private boolean finished = false;
 
+    /** How often, in rows, the reading time counter is updated within a page. */
+    private static final int THROUGHPUT_REPORT_ROWS = 1024;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseViewRecordReader.class);
 
+    /**
+     * Rows of a view page, together with the number of keys of the split which were queried until it was fetched.
+     * When checkpoints are saved, the page also has the checkpoint after it.
+     */
+    private static class Page {
+      private final Iterator<ViewRow> rows;
+      private final int fetchedKeys;
+      private long latency = -1; // ms, unknown for streamed pages
+      private ImportCheckpoint checkpoint;
+
+      private Page(Iterator<ViewRow> rows, int fetchedKeys) {
+        this.rows = rows;
+        this.fetchedKeys = fetchedKeys;
+      }
+    }
+
+    public CouchbaseViewRecordReader() {
+    }
+
+    /**
+     * Creates a reader which queries the view with the given querier instead of connecting to Couchbase. Only KEYSET
+     * pagination, not streamed and without looking up the documents, is supported.
+     */
+    CouchbaseViewRecordReader(ViewQuerier querier) {
+      this.querier = querier;
+    }
+
     @Override
     public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException, InterruptedException {
+      this.context = context;
       initCouchbaseArgs(context);
 
       //Add all keys to a queue
       CouchbaseViewInputSplit couchbaseViewInputSplit = (CouchbaseViewInputSplit) inputSplit;
-      keyQueue.addAll(couchbaseViewInputSplit.getKeys());
+      keyQueue.addAll(couchbaseViewInputSplit.getRanges());
       totalNumKeys = keyQueue.size();
+      estimatedRows = couchbaseViewInputSplit.getEstimatedRows();
+      initCounters();
 
       if (0 == keyQueue.size()) {
         //No keys
         return;
       }
 
-      initCouchbaseClient();
-      initCouchbaseView();
-      initNextRowIterator();
+      if (querier == null) {
+        initCouchbaseClient();
+        initCouchbaseView();
+        querier = ViewQuerier.of(couchbaseClient, view);
+      }
+
+      if (estimatedRows < 0 && totalNumKeys == 1 && keyQueue.peek().isSingleKey() && countViewName != null
+          && couchbaseClient != null) {
+        // Progress would otherwise jump from 0 to 1 when the only key is done.
+        View countView = couchbaseClient.getView(couchbaseDesignDocName, countViewName);
+        estimatedRows = new ViewKeyCounter(couchbaseClient, countView)
+            .count(new String[]{keyQueue.peek().getStartKey()})[0];
+      }
+
+      if (checkpointDir != null) {
+        resumeFromCheckpoint();
+      }
+
+      if (streaming) {
+        // Streamed pages are read as they arrive, so they are not prefetched.
+        streamingClient = new StreamingViewClient(couchbaseUrls, viewPort, couchbaseBucket, couchbasePassword);
+      } else if (prefetchPages > 0) {
+        // Query the next pages in the background while the mapper processes the current one.
+        prefetcher = new PagePrefetcher<>(new Callable<Page>() {
+          @Override
+          public Page call() {
+            return fetchPage();
+          }
+        }, prefetchPages);
+      }
     }
 
+    /**
+     * Skips the keys and the rows of the split which were written by a previous attempt of the task, according to its
+     * last checkpoint.
+     */
+    private void resumeFromCheckpoint() throws IOException {
+      ImportCheckpoint checkpoint = ImportCheckpoint.load(context.getConfiguration(), checkpointDir,
+          context.getTaskAttemptID().getTaskID());
+      if (checkpoint == null) {
+        return;
+      }
+      LOGGER.info("Resuming from {}.", checkpoint);
 
-    private boolean initNextRowIterator() {
-      if ( (paginator != null) && paginator.hasNext() ) {
-        //We have a next page, get the row iterator from there
-        rowIterator = paginator.next().iterator();
-        return true;
+      for (int i = 0; i < checkpoint.getKeyIndex() && keyQueue.poll() != null; i++) {
+        fetchedKeys++;
+      }
+      consumedKeys = fetchedKeys;
+
+      ViewKeyRange nextKey = keyQueue.peek();
+      if (checkpoint.getLastDocId() != null && nextKey != null) {
+        keyQueue.poll();
+        fetchedKeys++;
+        KeysetPaginator keysetPaginator = newKeysetPaginator(nextKey);
+        keysetPaginator.resumeFrom(checkpoint.getLastKey(), checkpoint.getLastDocId(), checkpoint.getSkip());
+        paginator = keysetPaginator;
       }
+    }
 
-      String nextKey = keyQueue.poll();
-      if(nextKey == null) {
-        //No more keys, no more row iterators, return false
+    /**
+     * Makes the rows of the next page current, waiting for the prefetcher if there is one.
+     *
+     * @return false if there are no more pages
+     */
+    private boolean nextPage() throws IOException, InterruptedException {
+      Page page = (prefetcher != null ? prefetcher.take() : fetchPage());
+      if (page == null) {
         return false;
       }
 
-      Query query = getQueryForKey(nextKey);
-      paginator = couchbaseClient.paginatedQuery(view, query, couchbaseDocsPerPage);
+      rowIterator = page.rows;
+      consumedKeys = page.fetchedKeys;
+      currentPage = page;
 
-      //Loaded a new Paginator, start over
-      return initNextRowIterator();
+      if (page.latency >= 0) {
+        pagesCounter.increment(1);
+        pageLatencyCounter.increment(page.latency);
+      }
+      reportReadTime();
+      return true;
     }
 
-    private Query getQueryForKey(String key) {
-      Query query = new Query();
-      query.setKey(key);
-      query.setIncludeDocs(true);
-      return query;
+    /**
+     * Queries the next page, moving on to the next key when the pages of the current one are exhausted.
+     *
+     * @return the next page or null if there are no more keys
+     */
+    private Page fetchPage() {
+      if (streamingClient != null) {
+        return fetchStreamingPage();
+      }
+
+      while (paginator == null || !paginator.hasNext()) {
+        ViewKeyRange nextKey = keyQueue.poll();
+        if (nextKey == null) {
+          //No more keys, no more pages
+          return null;
+        }
+        fetchedKeys++;
+
+        if (keysPerQuery > 1 && pagination == Pagination.KEYSET && nextKey.isSingleKey()) {
+          MultiKeyPaginator multiKeyPaginator = new MultiKeyPaginator(querier, pollKeyBatch(nextKey),
+              couchbaseDocsPerPage);
+          multiKeyPaginator.setIncludeDocs(!lookupAndFetch);
+          paginator = multiKeyPaginator;
+        } else if (pagination == Pagination.KEYSET) {
+          paginator = newKeysetPaginator(nextKey);
+        } else {
+          paginator = paginatedQuery(couchbaseClient, view, nextKey, couchbaseDocsPerPage, pagination,
+              !lookupAndFetch, pageSizeController);
+        }
+      }
+
+      long start = System.currentTimeMillis();
+      ViewResponse response = paginator.next();
+      long latency = System.currentTimeMillis() - start;
+
+      Iterator<ViewRow> rows = response.iterator();
+      if (lookupAndFetch) {
+        rows = new DocumentFetchingIterator(rows, couchbaseClient, fetchBatchSize, fetchOutstandingBatches);
+      }
+      Page page = new Page(rows, fetchedKeys);
+      page.latency = latency;
+
+      if (checkpointDir != null && response.size() > 0) {
+        page.checkpoint = getCheckpointAfterPage();
+      }
+      return page;
+    }
+
+    private KeysetPaginator newKeysetPaginator(ViewKeyRange range) {
+      KeysetPaginator keysetPaginator = new KeysetPaginator(querier, range, couchbaseDocsPerPage);
+      keysetPaginator.setIncludeDocs(!lookupAndFetch);
+      keysetPaginator.setPageSizeController(pageSizeController);
+      return keysetPaginator;
+    }
+
+    /**
+     * Returns the position after the last page fetched, which is the start of the next key if its key is exhausted.
+     * The number of files is set by the mapper which writes them.
+     */
+    private ImportCheckpoint getCheckpointAfterPage() {
+      KeysetPaginator keysetPaginator = (KeysetPaginator) paginator;
+      if (!keysetPaginator.hasNext()) {
+        return new ImportCheckpoint(fetchedKeys, null, null, 0, 0);
+      }
+      return new ImportCheckpoint(fetchedKeys - 1, keysetPaginator.getLastKey(), keysetPaginator.getLastDocId(),
+          keysetPaginator.getSkip(), 0);
     }
 
+    /**
+     * Starts streaming the rows of the next key, which are returned as a single page.
+     *
+     * @return the rows of the next key or null if there are no more keys
+     */
+    private Page fetchStreamingPage() {
+      ViewKeyRange nextKey = keyQueue.poll();
+      if (nextKey == null) {
+        return null;
+      }
+      fetchedKeys++;
+
+      if (streamingRows != null) {
+        streamingRows.close();
+      }
+      streamingRows = new StreamingKeysetRows(streamingClient, couchbaseDesignDocName, couchbaseViewName, nextKey,
+          couchbaseDocsPerPage);
+      return new Page(new DocumentFetchingIterator(streamingRows, couchbaseClient, 1, documentsAhead), fetchedKeys);
+    }
+
+    /**
+     * Takes the next distinct keys from the queue, up to the number of keys queried at once.
+     */
+    private List<String> pollKeyBatch(ViewKeyRange firstKey) {
+      List<String> batch = new ArrayList<>(keysPerQuery);
+      Set<String> canonicalKeys = new HashSet<>();
+      batch.add(firstKey.getStartKey());
+      canonicalKeys.add(ViewKeys.canonical(firstKey.getStartKey()));
+
+      while (batch.size() < keysPerQuery && keyQueue.peek() != null && keyQueue.peek().isSingleKey() &&
+          !canonicalKeys.contains(ViewKeys.canonical(keyQueue.peek().getStartKey()))) {
+        String key = keyQueue.poll().getStartKey();
+        batch.add(key);
+        canonicalKeys.add(ViewKeys.canonical(key));
+        fetchedKeys++;
+      }
+
+      return batch;
+    }
 
     private void initCouchbaseView() throws IOException {
       // Prepare for querying the Couchbase view.
@@ -201,6 +629,33 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
       couchbaseDesignDocName = importViewArgs.getDesignDocumentName();
       couchbaseViewName = importViewArgs.getViewName();
       couchbaseDocsPerPage = importViewArgs.getDocumentsPerPage();
+      rawDocuments = conf.getBoolean(CONF_RAW_DOCUMENTS, false);
+      prefetchPages = conf.getInt(CONF_PREFETCH_PAGES, PREFETCH_PAGES);
+      pagination = conf.getEnum(CONF_PAGINATION, PAGINATION);
+      keysPerQuery = conf.getInt(CONF_KEYS_PER_QUERY, KEYS_PER_QUERY);
+      streaming = conf.getBoolean(CONF_STREAMING, false);
+      viewPort = conf.getInt(CONF_VIEW_PORT, VIEW_PORT);
+      documentsAhead = conf.getInt(CONF_DOCUMENTS_AHEAD, DOCUMENTS_AHEAD);
+      lookupAndFetch = conf.getBoolean(CONF_LOOKUP_AND_FETCH, false);
+      fetchBatchSize = conf.getInt(CONF_FETCH_BATCH_SIZE, FETCH_BATCH_SIZE);
+      fetchOutstandingBatches = conf.getInt(CONF_FETCH_OUTSTANDING_BATCHES, FETCH_OUTSTANDING_BATCHES);
+      pageSizeController = createPageSizeController(conf, couchbaseDocsPerPage);
+      checkpointDir = conf.get(CONF_CHECKPOINT_DIR);
+      countViewName = conf.get(CONF_COUNT_VIEW);
+      if (checkpointDir != null && (streaming || pagination != Pagination.KEYSET || keysPerQuery > 1)) {
+        LOGGER.warn("Checkpoints require KEYSET pagination of one key at a time, not streamed.");
+        streaming = false;
+        pagination = Pagination.KEYSET;
+        keysPerQuery = 1;
+      }
+      if (streaming && (pagination != Pagination.KEYSET || keysPerQuery > 1)) {
+        LOGGER.warn("Streamed view rows are always paginated with KEYSET, one key at a time.");
+      } else if (keysPerQuery > 1 && pagination != Pagination.KEYSET) {
+        LOGGER.warn("Querying many keys at once requires KEYSET pagination, so each key is queried separately.");
+      }
+      if (pageSizeController != null && (streaming || pagination != Pagination.KEYSET || keysPerQuery > 1)) {
+        LOGGER.warn("Page sizes are adjusted at run time only for KEYSET pages of one key at a time, not streamed.");
+      }
     }
 
 
@@ -210,7 +665,7 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
 
       LOGGER.info("Connecting to Couchbase...");
       try {
-        couchbaseClient = new CouchbaseClient(couchbaseUrls, couchbaseBucket, couchbasePassword);
+        couchbaseClient = connect(couchbaseUrls, couchbaseBucket, couchbasePassword, rawDocuments);
         LOGGER.info("Connected to Couchbase.");
       } catch (IOException e) {
         LOGGER.error(ExceptionUtils.getStackTrace(e));
@@ -228,19 +683,15 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
 
     @Override
     public boolean nextKeyValue() throws IOException, InterruptedException {
-      //If we can get a new row, we're fine
-      if (nextRow()) {
-        return true;
-      }
-
-      //Try to get a new rowIterator and make another attempt
-      while(initNextRowIterator()) {
-        if (nextRow()) {
-          return true;
+      //If the current page is exhausted, try the next ones
+      while (!nextRow()) {
+        if (!nextPage()) {
+          finished = true;
+          return false;
         }
       }
 
-      return false;
+      return true;
     }
 
     private boolean nextRow() {
@@ -248,6 +699,18 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
         return false;
       }
       value = rowIterator.next();
+      rowsRead++;
+      long bytes = PageSizeController.sizeOf(value);
+      bytesRead += bytes;
+      rowsCounter.increment(1);
+      bytesCounter.increment(bytes);
+      if (rowsRead % THROUGHPUT_REPORT_ROWS == 0) {
+        reportReadTime();
+      }
+
+      if (checkpointDir != null) {
+        value = new PagedViewRow(value, rowIterator.hasNext() ? null : currentPage.checkpoint);
+      }
       key.set(value.getId());
       return true;
     }
@@ -264,17 +727,214 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-      return  (float)(totalNumKeys - keyQueue.size()) / totalNumKeys ;
+      if (finished || totalNumKeys == 0) {
+        return 1.0f;
+      }
+      if (estimatedRows > 0) {
+        // The estimate may be a bit low, so the task never reports being done before it is.
+        return Math.min(0.99f, (float) rowsRead / estimatedRows);
+      }
+      return (float) consumedKeys / totalNumKeys;
+    }
+
+    private void initCounters() {
+      String group = CouchbaseViewInputFormat.class.getName();
+      rowsCounter = context.getCounter(group, "ROWS_READ");
+      bytesCounter = context.getCounter(group, "BYTES_READ");
+      pagesCounter = context.getCounter(group, "PAGES_READ");
+      pageLatencyCounter = context.getCounter(group, "PAGE_LATENCY_TOTAL");
+      readTimeCounter = context.getCounter(group, "READ_TIME");
+      lastReportTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the milliseconds since the last update to the reading time counter. Like the other counters, it adds up
+     * over tasks, so throughputs are derived from the sums instead of being reported by each task.
+     */
+    private void reportReadTime() {
+      long now = System.currentTimeMillis();
+      readTimeCounter.increment(now - lastReportTime);
+      lastReportTime = now;
+    }
+
+    /**
+     * Reports the page sizes chosen by the controller as task counters.
+     */
+    private void reportPageSizes() {
+      String group = CouchbaseViewInputFormat.class.getName();
+      context.getCounter(group, "PAGES").setValue(pageSizeController.getPages());
+      context.getCounter(group, "PAGE_SIZE_TOTAL").setValue(pageSizeController.getPageSizeTotal());
+      context.getCounter(group, "PAGE_SIZE_MIN").setValue(pageSizeController.getMinChosenPageSize());
+      context.getCounter(group, "PAGE_SIZE_MAX").setValue(pageSizeController.getMaxChosenPageSize());
+      context.getCounter(group, "PAGE_SIZE_LAST").setValue(pageSizeController.getPageSize());
+      LOGGER.info("Page sizes: {}", pageSizeController);
     }
 
     @Override
     public void close() throws IOException {
+      if (readTimeCounter != null) {
+        reportReadTime();
+      }
+      if (prefetcher != null) {
+        prefetcher.close();
+      }
+      if (streamingRows != null) {
+        streamingRows.close();
+      }
+      if (pageSizeController != null) {
+        reportPageSizes();
+      }
       disconnectFromCouchbase();
     }
   }
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseViewInputFormat.class);
 
+  /**
+   * Creates the controller of the page size from the job configuration.
+   *
+   * @param docsPerPage configured number of documents per page, used for the first page
+   * @return the controller or null if the page size is fixed
+   */
+  public static PageSizeController createPageSizeController(Configuration conf, int docsPerPage) {
+    long targetBytes = conf.getLong(CONF_TARGET_PAGE_BYTES, 0);
+    long targetLatency = conf.getLong(CONF_TARGET_PAGE_LATENCY, 0);
+    if (targetBytes <= 0 && targetLatency <= 0) {
+      return null;
+    }
+
+    return new PageSizeController(docsPerPage, conf.getInt(CONF_MIN_DOCS_PER_PAGE, MIN_DOCS_PER_PAGE),
+        conf.getInt(CONF_MAX_DOCS_PER_PAGE, MAX_DOCS_PER_PAGE), targetBytes, targetLatency);
+  }
+
+  /**
+   * Adds their documents to view rows queried without them, with pipelined bulk gets configured by
+   * {@value #CONF_FETCH_BATCH_SIZE} and {@value #CONF_FETCH_OUTSTANDING_BATCHES}.
+   */
+  public static Iterator<ViewRow> fetchDocuments(Iterator<ViewRow> rows, CouchbaseClient couchbaseClient,
+                                                 Configuration conf) {
+    return new DocumentFetchingIterator(rows, couchbaseClient, conf.getInt(CONF_FETCH_BATCH_SIZE, FETCH_BATCH_SIZE),
+        conf.getInt(CONF_FETCH_OUTSTANDING_BATCHES, FETCH_OUTSTANDING_BATCHES));
+  }
+
+  /**
+   * Queries the rows emitted for a view key, together with their documents, page by page.
+   *
+   * @param viewKey view key in JSON format
+   */
+  public static Iterator<ViewResponse> paginatedQuery(CouchbaseClient couchbaseClient, View view, String viewKey,
+                                                      int docsPerPage, Pagination pagination) {
+    return paginatedQuery(couchbaseClient, view, ViewKeyRange.forKey(viewKey), docsPerPage, pagination);
+  }
+
+  /**
+   * Queries a range of view rows, together with their documents, page by page.
+   */
+  public static Iterator<ViewResponse> paginatedQuery(CouchbaseClient couchbaseClient, View view, ViewKeyRange range,
+                                                      int docsPerPage, Pagination pagination) {
+    return paginatedQuery(couchbaseClient, view, range, docsPerPage, pagination, true, null);
+  }
+
+  /**
+   * Queries a range of view rows page by page.
+   *
+   * @param includeDocs whether the rows include their documents
+   * @param pageSizeController chooses the size of each page with KEYSET pagination; null for fixed size pages
+   */
+  public static Iterator<ViewResponse> paginatedQuery(CouchbaseClient couchbaseClient, View view, ViewKeyRange range,
+                                                      int docsPerPage, Pagination pagination, boolean includeDocs,
+                                                      PageSizeController pageSizeController) {
+    if (pagination == Pagination.KEYSET) {
+      KeysetPaginator paginator = new KeysetPaginator(couchbaseClient, view, range, docsPerPage);
+      paginator.setIncludeDocs(includeDocs);
+      paginator.setPageSizeController(pageSizeController);
+      return paginator;
+    }
+
+    Query query = new Query();
+    if (range.isSingleKey()) {
+      query.setKey(range.getStartKey());
+    } else {
+      range.applyTo(query);
+    }
+    query.setReduce(false);
+    query.setIncludeDocs(includeDocs);
+    return couchbaseClient.paginatedQuery(view, query, docsPerPage);
+  }
+
+  /**
+   * Connects to a Couchbase bucket.
+   *
+   * @param rawDocuments whether documents read through the client, including view documents, are byte arrays
+   */
+  public static CouchbaseClient connect(List<URI> urls, String bucket, String password, boolean rawDocuments)
+      throws IOException {
+    if (!rawDocuments) {
+      return new CouchbaseClient(urls, bucket, password);
+    }
+
+    CouchbaseConnectionFactoryBuilder builder = new CouchbaseConnectionFactoryBuilder();
+    builder.setTranscoder(new RawBytesTranscoder(RawBytesTranscoder.STRING_FLAGS, true));
+    return new CouchbaseClient(builder.buildCouchbaseConnection(urls, bucket, password));
+  }
+
+  /**
+   * Connects to a Couchbase bucket with a number of view connections to each node, so that as many threads can query
+   * views at the same time.
+   *
+   * @param rawDocuments whether documents read through the client, including view documents, are byte arrays
+   */
+  public static CouchbaseClient connect(List<URI> urls, String bucket, String password, boolean rawDocuments,
+                                        int viewConnsPerNode) throws IOException {
+    CouchbaseConnectionFactoryBuilder builder = new CouchbaseConnectionFactoryBuilder();
+    if (rawDocuments) {
+      builder.setTranscoder(new RawBytesTranscoder(RawBytesTranscoder.STRING_FLAGS, true));
+    }
+    builder.setViewConnsPerNode(viewConnsPerNode);
+    return new CouchbaseClient(builder.buildCouchbaseConnection(urls, bucket, password));
+  }
+
+  /**
+   * Cuts a range of view rows into sub-ranges with roughly the same number of rows, by sampling the view. Fewer
+   * sub-ranges are returned if the range has too few rows.
+   */
+  public static List<ViewKeyRange> splitRange(CouchbaseClient couchbaseClient, View view, ViewKeyRange range,
+                                              int numSplits) {
+    if (numSplits <= 1) {
+      return Collections.singletonList(range);
+    }
+
+    ViewRangeSampler sampler = new ViewRangeSampler(couchbaseClient, view, range);
+    return sampler.split(sampler.estimateRows(numSplits), numSplits);
+  }
+
+  /**
+   * Makes the ranges of view rows of some view keys, at least {@code numRanges} of them if the keys have enough rows.
+   * If there are fewer keys than ranges, the rows of each key are cut into sub-ranges by sampling the view, so that
+   * a few keys with many rows can be read concurrently. Otherwise each key is a range.
+   */
+  public static List<ViewKeyRange> splitKeys(CouchbaseClient couchbaseClient, View view, List<String> keys,
+                                             int numRanges) {
+    return splitKeys(ViewQuerier.of(couchbaseClient, view), keys, numRanges);
+  }
+
+  static List<ViewKeyRange> splitKeys(ViewQuerier querier, List<String> keys, int numRanges) {
+    List<ViewKeyRange> ranges = new ArrayList<>(Math.max(keys.size(), numRanges));
+    int rangesPerKey = keys.isEmpty() ? 1 : (numRanges + keys.size() - 1) / keys.size();
+    for (String key : keys) {
+      ViewKeyRange range = ViewKeyRange.forKey(key);
+      if (rangesPerKey <= 1) {
+        ranges.add(range);
+        continue;
+      }
+
+      ViewRangeSampler sampler = new ViewRangeSampler(querier, range);
+      ranges.addAll(sampler.split(sampler.estimateRows(rangesPerKey), rangesPerKey));
+    }
+
+    return ranges;
+  }
+
   @Override
   public List<InputSplit> getSplits(JobContext jobContext) throws IOException, InterruptedException {
     List<InputSplit> inputSplits = new ArrayList<InputSplit>();
@@ -285,6 +945,15 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
     } catch (ArgsException e) {
       throw new RuntimeException("ImportViewArgs can't load settings from Hadoop Configuration");
     }
+    if (importViewArgs.hasKeyRange()) {
+      return getRangeSplits(importViewArgs);
+    }
+
+    String countViewName = jobContext.getConfiguration().get(CONF_COUNT_VIEW);
+    if (countViewName != null) {
+      return getBalancedSplits(importViewArgs, countViewName);
+    }
+
     String[] viewKeys = importViewArgs.getViewKeys();
     int viewKeysPerMapTask = (int) Math.ceil((double)viewKeys.length / importViewArgs.getNumMappers());
 
@@ -311,6 +980,121 @@ public class CouchbaseViewInputFormat extends InputFormat<Text, ViewRow> {
     return inputSplits;
   }
 
+  /**
+   * Packs the view keys of the job into splits with roughly the same number of rows, by counting the rows of each
+   * key with a reduce view.
+   */
+  private List<InputSplit> getBalancedSplits(ImportViewArgs importViewArgs, String countViewName)
+      throws IOException {
+    String[] viewKeys = importViewArgs.getViewKeys();
+
+    LOGGER.info("Counting the rows of {} keys with view {}...", viewKeys.length, countViewName);
+    long[] rows;
+    CouchbaseClient couchbaseClient = connect(importViewArgs.getUrls(), importViewArgs.getBucket(),
+        importViewArgs.getPassword(), false);
+    try {
+      View countView = couchbaseClient.getView(importViewArgs.getDesignDocumentName(), countViewName);
+      rows = new ViewKeyCounter(couchbaseClient, countView).count(viewKeys);
+    } finally {
+      couchbaseClient.shutdown();
+    }
+
+    List<InputSplit> inputSplits = new ArrayList<>();
+    inputSplits.addAll(packKeys(viewKeys, rows, importViewArgs.getNumMappers()));
+    return inputSplits;
+  }
+
+  /**
+   * Packs keys into splits with roughly the same number of rows, by greedily adding the keys, from the largest to
+   * the smallest, to the split with the fewest rows (longest-processing-time-first scheduling).
+   *
+   * @param keys view keys
+   * @param rows number of rows of each key
+   * @param numSplits maximum number of splits; fewer are returned if there are fewer keys
+   */
+  static List<CouchbaseViewInputSplit> packKeys(String[] keys, final long[] rows, int numSplits) {
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(rows[b], rows[a]);
+      }
+    });
+
+    int numBins = Math.max(1, Math.min(numSplits, keys.length));
+    long[] binRows = new long[numBins];
+    List<List<Integer>> binKeys = new ArrayList<>(numBins);
+    for (int bin = 0; bin < numBins; bin++) {
+      binKeys.add(new ArrayList<Integer>());
+    }
+
+    for (int key : order) {
+      int lightest = 0;
+      for (int bin = 1; bin < numBins; bin++) {
+        if (binRows[bin] < binRows[lightest]) {
+          lightest = bin;
+        }
+      }
+      binKeys.get(lightest).add(key);
+      binRows[lightest] += rows[key];
+    }
+
+    List<CouchbaseViewInputSplit> inputSplits = new ArrayList<>(numBins);
+    for (int bin = 0; bin < numBins; bin++) {
+      // Keep the keys of a split in the order they were given.
+      List<Integer> splitKeys = binKeys.get(bin);
+      Collections.sort(splitKeys);
+
+      CouchbaseViewInputSplit inputSplit = new CouchbaseViewInputSplit();
+      for (int key : splitKeys) {
+        inputSplit.addKey(keys[key]);
+      }
+      inputSplit.setEstimatedRows(binRows[bin]);
+      inputSplits.add(inputSplit);
+      LOGGER.debug("Split {} has {} keys and {} rows.", bin, splitKeys.size(), binRows[bin]);
+    }
+
+    LOGGER.info("Packed {} keys into {} splits.", keys.length, numBins);
+    return inputSplits;
+  }
+
+  /**
+   * Cuts the key range of the job into sub-ranges with roughly the same number of rows, one for each mapper, by
+   * sampling the view.
+   */
+  private List<InputSplit> getRangeSplits(ImportViewArgs importViewArgs) throws IOException {
+    ViewKeyRange range = new ViewKeyRange(importViewArgs.getStartKey(), null, importViewArgs.getEndKey(), null, true);
+    int numSplits = importViewArgs.getNumMappers();
+    List<InputSplit> inputSplits = new ArrayList<>(numSplits);
+
+    if (numSplits <= 1) {
+      inputSplits.add(new CouchbaseViewInputSplit(range, -1));
+      return inputSplits;
+    }
+
+    LOGGER.info("Sampling view {} in order to cut range {} into {} splits...",
+        importViewArgs.getViewName(), range, numSplits);
+    CouchbaseClient couchbaseClient = connect(importViewArgs.getUrls(), importViewArgs.getBucket(),
+        importViewArgs.getPassword(), false);
+    try {
+      View view = couchbaseClient.getView(importViewArgs.getDesignDocumentName(), importViewArgs.getViewName());
+      ViewRangeSampler sampler = new ViewRangeSampler(couchbaseClient, view, range);
+
+      long rows = sampler.estimateRows(numSplits);
+      List<ViewKeyRange> subRanges = sampler.split(rows, numSplits);
+      for (ViewKeyRange subRange : subRanges) {
+        inputSplits.add(new CouchbaseViewInputSplit(subRange, rows / subRanges.size()));
+      }
+    } finally {
+      couchbaseClient.shutdown();
+    }
+
+    return inputSplits;
+  }
+
   @Override
   public RecordReader<Text, ViewRow> createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
     throws IOException, InterruptedException {
@@ -31,10 +31,31 @@ import java.io.IOException;
  */
 public class CouchbaseViewToFileMapper extends Mapper<Text, ViewRow, Text, Text> {
 
+  private final Text document = new Text();
+  private JsonProjection projection;
+
+  @Override
+  protected void setup(Context context) throws IOException, InterruptedException {
+    projection = JsonProjection.fromConfiguration(context.getConfiguration());
+  }
+
   @Override
   protected void map(Text key, ViewRow value, Context context) throws IOException, InterruptedException {
     if (value != null) {
-      context.write(key, new Text(value.getDocument().toString()));
+      Object doc = value.getDocument();
+      if (doc != null && projection != null) {
+        doc = projection.apply(doc, context);
+        if (doc == null) {
+          return;
+        }
+      }
+
+      if (doc instanceof byte[]) {
+        document.set((byte[]) doc);
+      } else {
+        document.set(doc.toString());
+      }
+      context.write(key, document);
     }
   }
 }
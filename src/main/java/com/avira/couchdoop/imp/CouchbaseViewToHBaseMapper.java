@@ -30,12 +30,15 @@ import org.apache.hadoop.mapreduce.Mapper;
 import java.io.IOException;
 
 /**
- * Mapper class which maps each document retrieved from a Couchbase view key to text key-values.
+ * Mapper class which maps each document retrieved from a Couchbase view key to an HBase put, with the whole document
+ * in one column and/or its fields in the columns of a {@link JsonColumnMapping}.
  */
 public class CouchbaseViewToHBaseMapper extends Mapper<Text, ViewRow, ImmutableBytesWritable, Put> {
 
   private String columnFamily;
   private String columnQualifier;
+  private JsonProjection projection;
+  private JsonColumnMapping columnMapping;
 
   @Override
   protected void setup(Context context) throws IOException, InterruptedException {
@@ -43,24 +46,55 @@ public class CouchbaseViewToHBaseMapper extends Mapper<Text, ViewRow, ImmutableB
       ImportViewToHBaseArgs importViewToHBaseArgs = new ImportViewToHBaseArgs(context.getConfiguration());
       columnFamily = importViewToHBaseArgs.getColumnFamily();
       columnQualifier = importViewToHBaseArgs.getColumnQualifier();
-      if (columnFamily == null || columnQualifier == null) {
+      if (importViewToHBaseArgs.getColumns() != null) {
+        columnMapping = new JsonColumnMapping(importViewToHBaseArgs.getColumns());
+      } else if (columnFamily == null || columnQualifier == null) {
         throw new IllegalArgumentException("Column is null.");
       }
     } catch (ArgsException e) {
       throw new IOException(e);
     }
+    projection = JsonProjection.fromConfiguration(context.getConfiguration());
   }
 
   @Override
   protected void map(Text cbKey, ViewRow cbViewRow, Context context) throws IOException, InterruptedException {
     if (cbKey != null && cbViewRow != null && cbViewRow.getDocument() != null) {
-      byte[] hRowKey = Bytes.toBytes(cbKey.toString());
+      Object doc = cbViewRow.getDocument();
+      if (projection != null) {
+        doc = projection.apply(doc, context);
+        if (doc == null) {
+          return;
+        }
+      }
 
+      byte[] hRowKey = Bytes.toBytes(cbKey.toString());
+      byte[] docBytes = doc instanceof byte[] ? (byte[]) doc : Bytes.toBytes(doc.toString());
       Put put = new Put(hRowKey);
-      put.add(Bytes.toBytes(columnFamily), Bytes.toBytes(columnQualifier),
-          Bytes.toBytes(cbViewRow.getDocument().toString()));
+      if (columnFamily != null) {
+        put.add(Bytes.toBytes(columnFamily), Bytes.toBytes(columnQualifier), docBytes);
+      }
+      if (columnMapping != null) {
+        try {
+          columnMapping.addTo(put, docBytes);
+        } catch (IOException e) {
+          context.getCounter(JsonColumnMapping.class.getName(), "INVALID_DOCUMENTS").increment(1);
+          return;
+        }
+        if (put.isEmpty()) {
+          return;
+        }
+      }
 
       context.write(new ImmutableBytesWritable(hRowKey), put);
     }
   }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    if (columnMapping != null) {
+      context.getCounter(JsonColumnMapping.class.getName(), "UNENCODABLE_VALUES")
+          .increment(columnMapping.getUnencodableValues());
+    }
+  }
 }
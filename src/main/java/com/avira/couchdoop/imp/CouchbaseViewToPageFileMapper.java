@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Mapper class which writes the documents of the view pages read with checkpoints to files, with a
+ * {@link PageFileWriter}, and saves a checkpoint each time a file is complete.
+ *
+ * <p>Files are written in the work directory of the task attempt. A file is complete after
+ * {@value CouchbaseViewInputFormat#CONF_CHECKPOINT_PAGES} pages or, at the end of a page, after
+ * {@value CouchbaseViewInputFormat#CONF_CHECKPOINT_BYTES} bytes. It is then moved to a directory of the task next to
+ * the checkpoints, where it is kept for the next attempts, and a checkpoint is saved. A retried task continues from
+ * the last checkpoint and deletes the files moved there after it. When all the rows were written, the files of the
+ * task are moved back to the work directory, so that they are committed to the output directory together. The files
+ * of a failed task never reach the output directory. Speculative execution must be disabled.</p>
+ */
+public class CouchbaseViewToPageFileMapper extends Mapper<Text, ViewRow, Text, Text> {
+
+  private Configuration conf;
+  private String checkpointDir;
+  private TaskID taskId;
+  private String baseName;
+  private Path workDir;
+  private Path filesDir;
+  private FileSystem fileSystem;
+  private JsonProjection projection;
+  private int checkpointPages;
+  private long checkpointBytes;
+
+  private PageFileWriter writer;
+  private int writerPages;
+  private int files;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseViewToPageFileMapper.class);
+
+  @Override
+  public void run(Context context) throws IOException, InterruptedException {
+    setup(context);
+    try {
+      while (context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+      commitFiles();
+    } finally {
+      cleanup(context);
+    }
+  }
+
+  @Override
+  protected void setup(Context context) throws IOException, InterruptedException {
+    conf = context.getConfiguration();
+    checkpointDir = conf.get(CouchbaseViewInputFormat.CONF_CHECKPOINT_DIR);
+    taskId = context.getTaskAttemptID().getTaskID();
+    baseName = String.format("part-m-%05d", taskId.getId());
+    workDir = FileOutputFormat.getWorkOutputPath(context);
+    filesDir = ImportCheckpoint.getFilesDir(checkpointDir, taskId);
+    fileSystem = filesDir.getFileSystem(conf);
+    projection = JsonProjection.fromConfiguration(conf);
+    checkpointPages = conf.getInt(CouchbaseViewInputFormat.CONF_CHECKPOINT_PAGES,
+        CouchbaseViewInputFormat.CHECKPOINT_PAGES);
+    checkpointBytes = conf.getLong(CouchbaseViewInputFormat.CONF_CHECKPOINT_BYTES,
+        CouchbaseViewInputFormat.CHECKPOINT_BYTES);
+
+    ImportCheckpoint checkpoint = ImportCheckpoint.load(conf, checkpointDir, taskId);
+    files = (checkpoint == null ? 0 : checkpoint.getFiles());
+    deleteStaleFiles();
+  }
+
+  @Override
+  protected void map(Text key, ViewRow value, Context context) throws IOException, InterruptedException {
+    PagedViewRow row = (PagedViewRow) value;
+    if (writer == null) {
+      writer = new PageFileWriter(conf, workDir.toString(), baseName, files);
+      writerPages = 0;
+    }
+
+    Object doc = row.getDocument();
+    if (doc != null && projection != null) {
+      doc = projection.apply(doc, context);
+    }
+    if (doc instanceof byte[]) {
+      writer.write(key.toString(), (byte[]) doc);
+    } else if (doc != null) {
+      writer.write(key.toString(), doc.toString());
+    }
+
+    if (row.getCheckpoint() != null) {
+      writerPages++;
+      if (writerPages >= checkpointPages || writer.getBytes() >= checkpointBytes) {
+        // The file is complete, so a retried attempt may continue after it.
+        closeWriter();
+        move(new Path(workDir, getFileName(files)), new Path(filesDir, getFileName(files)));
+        files++;
+        row.getCheckpoint().withFiles(files).save(conf, checkpointDir, taskId);
+      }
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    // The file of a failed attempt is discarded with its work directory.
+    closeWriter();
+  }
+
+  /**
+   * Removes the files moved after the last checkpoint by a failed attempt which didn't get to save it.
+   */
+  private void deleteStaleFiles() throws IOException {
+    FileStatus[] completeFiles = fileSystem.globStatus(new Path(filesDir, baseName + "-*"));
+    if (completeFiles == null) {
+      return;
+    }
+    for (FileStatus completeFile : completeFiles) {
+      String name = completeFile.getPath().getName();
+      int number = Integer.parseInt(name.substring(baseName.length() + 1));
+      if (number >= files) {
+        LOGGER.info("Deleting stale file '{}'...", completeFile.getPath());
+        fileSystem.delete(completeFile.getPath(), false);
+      }
+    }
+  }
+
+  /**
+   * Moves the complete files of all the attempts of the task to the work directory of this attempt, after the last
+   * one it wrote.
+   */
+  private void commitFiles() throws IOException {
+    closeWriter();
+    for (int i = 0; i < files; i++) {
+      move(new Path(filesDir, getFileName(i)), new Path(workDir, getFileName(i)));
+    }
+  }
+
+  private void move(Path source, Path destination) throws IOException {
+    fileSystem.mkdirs(destination.getParent());
+    if (!fileSystem.rename(source, destination)) {
+      throw new IOException("Unable to move '" + source + "' to '" + destination + "'.");
+    }
+  }
+
+  private String getFileName(int number) {
+    return baseName + "-" + String.format("%05d", number);
+  }
+
+  private void closeWriter() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+}
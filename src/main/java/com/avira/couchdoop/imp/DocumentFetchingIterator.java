@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowWithDocs;
+import net.spy.memcached.internal.BulkFuture;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adds documents to view rows read without them, by getting the documents of the next rows from the data service
+ * with asynchronous bulk gets, while the current rows are processed. Each bulk get is split by the Couchbase client
+ * into one request for each node holding some of its documents.
+ *
+ * <p>Only the documents of a bounded number of batches are held in memory. Rows of documents deleted in the meantime
+ * get a null document, like when the view is queried with its documents.</p>
+ */
+public class DocumentFetchingIterator implements Iterator<ViewRow> {
+
+  private static final long FETCH_TIMEOUT = 60000; // ms
+
+  private final Iterator<ViewRow> rows;
+  private final CouchbaseClient client;
+  private final int batchSize;
+  private final int outstandingBatches;
+
+  private final Queue<Batch> batches = new LinkedList<>();
+  private Iterator<ViewRow> currentRows;
+  private Map<String, Object> currentDocuments;
+
+  /**
+   * Rows whose documents are fetched with the same bulk get.
+   */
+  private static class Batch {
+    private final List<ViewRow> rows;
+    private final BulkFuture<Map<String, Object>> documents;
+
+    private Batch(List<ViewRow> rows, BulkFuture<Map<String, Object>> documents) {
+      this.rows = rows;
+      this.documents = documents;
+    }
+  }
+
+  /**
+   * @param rows view rows without documents
+   * @param batchSize maximum number of documents of a bulk get
+   * @param outstandingBatches how many bulk gets are in flight ahead of the rows being returned
+   */
+  public DocumentFetchingIterator(Iterator<ViewRow> rows, CouchbaseClient client, int batchSize,
+                                  int outstandingBatches) {
+    if (batchSize < 1 || outstandingBatches < 1) {
+      throw new IllegalArgumentException("Batch size and outstanding batches must be positive.");
+    }
+
+    this.rows = rows;
+    this.client = client;
+    this.batchSize = batchSize;
+    this.outstandingBatches = outstandingBatches;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (batches.size() < outstandingBatches && rows.hasNext()) {
+      List<ViewRow> batchRows = new ArrayList<>(batchSize);
+      Set<String> ids = new LinkedHashSet<>();
+      while (batchRows.size() < batchSize && rows.hasNext()) {
+        ViewRow row = rows.next();
+        batchRows.add(row);
+        ids.add(row.getId());
+      }
+      batches.add(new Batch(batchRows, client.asyncGetBulk(ids)));
+    }
+
+    return (currentRows != null && currentRows.hasNext()) || !batches.isEmpty();
+  }
+
+  @Override
+  public ViewRow next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    if (currentRows == null || !currentRows.hasNext()) {
+      Batch batch = batches.poll();
+      currentDocuments = getDocuments(batch);
+      currentRows = batch.rows.iterator();
+    }
+
+    ViewRow row = currentRows.next();
+    return new ViewRowWithDocs(row.getId(), row.getKey(), row.getValue(), currentDocuments.get(row.getId()));
+  }
+
+  private static Map<String, Object> getDocuments(Batch batch) {
+    try {
+      return batch.documents.get(FETCH_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while getting documents.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Unable to get " + batch.rows.size() + " documents.", e.getCause());
+    } catch (TimeoutException e) {
+      throw new IllegalStateException("Timed out getting " + batch.rows.size() + " documents.", e);
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("View rows can't be removed.");
+  }
+}
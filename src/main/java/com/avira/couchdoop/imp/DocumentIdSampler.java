@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewRow;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Samples the IDs of the documents of view keys or ranges and computes split points which divide them into regions
+ * with roughly the same number of documents, for pre-splitting the HBase table they are imported into.
+ *
+ * <p>Within a key, view rows are sorted by document ID, so the IDs are sampled at equally spaced positions of each
+ * range, with a {@link ViewRangeSampler}, instead of taking the first rows. When there are many keys, only some of
+ * them, evenly spread through the list, are sampled. The samples are divided between the sampled keys in proportion
+ * to their rows, which are counted with a count view if there is one, or otherwise estimated by the sampler.</p>
+ */
+public class DocumentIdSampler {
+
+  private final ViewQuerier querier;
+  private final ViewKeyCounter counter;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentIdSampler.class);
+
+  public DocumentIdSampler(CouchbaseClient client, View view) {
+    this(client, view, null);
+  }
+
+  /**
+   * @param countView view which emits the same keys as the sampled view and has a {@code _count} reduce, or null
+   */
+  public DocumentIdSampler(CouchbaseClient client, View view, View countView) {
+    this(ViewQuerier.of(client, view), countView == null ? null : new ViewKeyCounter(client, countView));
+  }
+
+  DocumentIdSampler(ViewQuerier querier, ViewKeyCounter counter) {
+    this.querier = querier;
+    this.counter = counter;
+  }
+
+  /**
+   * @param ranges view keys or ranges which are imported
+   * @param samples approximate number of document IDs to sample
+   * @return the sampled document IDs
+   */
+  public List<String> sample(List<ViewKeyRange> ranges, int samples) {
+    int sampledRanges = Math.min(ranges.size(), samples);
+    List<ViewRangeSampler> samplers = new ArrayList<>(sampledRanges);
+    List<ViewKeyRange> sampled = new ArrayList<>(sampledRanges);
+    for (int i = 0; i < sampledRanges; i++) {
+      ViewKeyRange range = ranges.get((int) ((long) i * ranges.size() / sampledRanges));
+      sampled.add(range);
+      samplers.add(new ViewRangeSampler(querier, range));
+    }
+
+    long[] rows = countRows(sampled, samplers);
+    long totalRows = 0;
+    for (long rangeRows : rows) {
+      totalRows += rangeRows;
+    }
+
+    List<String> ids = new ArrayList<>(samples);
+    long rowsBefore = 0;
+    for (int i = 0; i < sampledRanges; i++) {
+      // Each range gets the samples of its share of all the rows.
+      long rangeSamples = (long) ((double) samples * (rowsBefore + rows[i]) / Math.max(1, totalRows)) -
+          (long) ((double) samples * rowsBefore / Math.max(1, totalRows));
+      rowsBefore += rows[i];
+
+      // Take the middle rows of equal parts of the range.
+      for (long j = 0; j < rangeSamples && j < rows[i]; j++) {
+        ViewRow row = samplers.get(i).rowAt(rows[i] * (2 * j + 1) / (2 * rangeSamples));
+        if (row != null) {
+          ids.add(row.getId());
+        }
+      }
+    }
+
+    LOGGER.info("Sampled {} document IDs from {} of {} view keys.", ids.size(), sampledRanges, ranges.size());
+    return ids;
+  }
+
+  /**
+   * Counts the rows of the sampled ranges with the count view if they are all single keys, otherwise estimates them.
+   */
+  private long[] countRows(List<ViewKeyRange> ranges, List<ViewRangeSampler> samplers) {
+    boolean singleKeys = counter != null;
+    String[] keys = new String[ranges.size()];
+    for (int i = 0; i < keys.length && singleKeys; i++) {
+      singleKeys = ranges.get(i).isSingleKey();
+      keys[i] = ranges.get(i).getStartKey();
+    }
+    if (singleKeys) {
+      return counter.count(keys);
+    }
+
+    long[] rows = new long[ranges.size()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = samplers.get(i).estimateRows(1);
+    }
+    return rows;
+  }
+
+  /**
+   * Computes the start keys of all the regions but the first one, which divide the sampled document IDs evenly.
+   * Fewer split points are returned if there are too few distinct IDs.
+   *
+   * @param ids sampled document IDs, which are HBase row keys
+   * @param regions number of regions
+   */
+  public static byte[][] splitPoints(List<String> ids, int regions) {
+    TreeSet<byte[]> sortedIds = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    for (String id : ids) {
+      sortedIds.add(Bytes.toBytes(id));
+    }
+    List<byte[]> sorted = new ArrayList<>(sortedIds);
+
+    TreeSet<byte[]> points = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    for (int i = 1; i < regions && !sorted.isEmpty(); i++) {
+      byte[] point = sorted.get((int) ((long) i * sorted.size() / regions));
+      // The first ID would leave an empty first region.
+      if (Bytes.compareTo(point, sorted.get(0)) > 0) {
+        points.add(point);
+      }
+    }
+
+    return points.toArray(new byte[points.size()][]);
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.ArgsException;
+import com.avira.couchdoop.CouchbaseArgs;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link com.avira.couchdoop.CouchbaseArgs} implementation which holds Couchbase bucket import feature settings.
+ */
+public class ImportBucketArgs extends CouchbaseArgs {
+
+  private String output;
+
+  private int numMappers;
+
+  public static final ArgDef ARG_NUM_MAPPERS = new ArgDef('m', "hadoop.mappers", true, false,
+    "number of mappers to be used by Hadoop, each one scanning a range of vBuckets; defaults to 64");
+
+  public static final List<ArgDef> ARGS_LIST = new ArrayList<>(4);
+
+  static {
+    ARGS_LIST.add(ImportViewArgs.ARG_OUTPUT);
+    ARGS_LIST.add(ImportViewArgs.ARG_OUTPUT_FORMAT);
+    ARGS_LIST.add(ImportViewArgs.ARG_COMPRESSION);
+    ARGS_LIST.add(ImportViewArgs.ARG_FIELDS);
+    ARGS_LIST.add(ImportViewArgs.ARG_FILTER);
+    ARGS_LIST.add(ARG_NUM_MAPPERS);
+
+    ARGS_LIST.addAll(CouchbaseArgs.ARGS_LIST);
+  }
+
+  public ImportBucketArgs(Configuration conf) throws ArgsException {
+    super(conf);
+  }
+
+  @Override
+  public List<ArgDef> getArgsList() {
+    return ImportBucketArgs.ARGS_LIST;
+  }
+
+  @Override
+  public void loadFromHadoopConfiguration(Configuration conf) throws ArgsException {
+    super.loadFromHadoopConfiguration(conf);
+
+    output = conf.get(ImportViewArgs.ARG_OUTPUT.getPropertyName());
+    numMappers = conf.getInt(ARG_NUM_MAPPERS.getPropertyName(), 64);
+    // Fail early on an unknown output format or codec.
+    ImportViewArgs.getCompression(conf);
+    ImportViewArgs.checkProjection(conf);
+    if (numMappers < 1) {
+      throw new ArgsException("The number of mappers must be positive.");
+    }
+  }
+
+  public String getOutput() {
+    return output;
+  }
+
+  public int getNumMappers() {
+    return numMappers;
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskID;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Position of an import task after a view page whose rows were written, from which a retried attempt of the task
+ * continues: the index of the key of the split, the position within the rows of that key and the number of complete
+ * files written. Checkpoints are saved in HDFS, in a file named after the task, next to the directory which keeps the
+ * complete files of the task until it succeeds.
+ */
+public class ImportCheckpoint implements Writable {
+
+  private int keyIndex;
+  private String lastKey;
+  private String lastDocId;
+  private int skip;
+  private int files;
+
+  /**
+   * Default constructor (necessary because this is a Writable)
+   */
+  public ImportCheckpoint() {
+  }
+
+  /**
+   * @param keyIndex index of the key (or range) of the split which is continued
+   * @param lastKey view key of the last row read from that key, as returned by the Couchbase client, or null if
+   *                the key is started from the beginning
+   * @param lastDocId document ID of the last row read from that key or null
+   * @param skip number of rows read at the last position
+   * @param files number of complete files written
+   */
+  public ImportCheckpoint(int keyIndex, String lastKey, String lastDocId, int skip, int files) {
+    this.keyIndex = keyIndex;
+    this.lastKey = lastKey;
+    this.lastDocId = lastDocId;
+    this.skip = skip;
+    this.files = files;
+  }
+
+  /**
+   * @return the same position with another number of complete files
+   */
+  public ImportCheckpoint withFiles(int files) {
+    return new ImportCheckpoint(keyIndex, lastKey, lastDocId, skip, files);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, keyIndex);
+    out.writeBoolean(lastDocId != null);
+    if (lastDocId != null) {
+      Text.writeString(out, lastKey);
+      Text.writeString(out, lastDocId);
+    }
+    WritableUtils.writeVInt(out, skip);
+    WritableUtils.writeVInt(out, files);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    keyIndex = WritableUtils.readVInt(in);
+    if (in.readBoolean()) {
+      lastKey = Text.readString(in);
+      lastDocId = Text.readString(in);
+    } else {
+      lastKey = null;
+      lastDocId = null;
+    }
+    skip = WritableUtils.readVInt(in);
+    files = WritableUtils.readVInt(in);
+  }
+
+  /**
+   * Loads the last checkpoint of a task.
+   *
+   * @return the checkpoint or null if the task has none
+   */
+  public static ImportCheckpoint load(Configuration conf, String checkpointDir, TaskID taskId) throws IOException {
+    Path path = getPath(checkpointDir, taskId);
+    FileSystem fileSystem = FileSystem.get(URI.create(checkpointDir), conf);
+    if (!fileSystem.exists(path)) {
+      return null;
+    }
+
+    ImportCheckpoint checkpoint = new ImportCheckpoint();
+    try (FSDataInputStream in = fileSystem.open(path)) {
+      checkpoint.readFields(in);
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Saves the checkpoint of a task, replacing the previous one only after the new one was written.
+   */
+  public void save(Configuration conf, String checkpointDir, TaskID taskId) throws IOException {
+    Path path = getPath(checkpointDir, taskId);
+    Path tmpPath = new Path(path.getParent(), "." + path.getName() + ".tmp");
+    FileSystem fileSystem = FileSystem.get(URI.create(checkpointDir), conf);
+
+    try (FSDataOutputStream out = fileSystem.create(tmpPath, true)) {
+      write(out);
+    }
+    if (fileSystem.exists(path) && !fileSystem.delete(path, false)) {
+      throw new IOException("Unable to replace checkpoint '" + path + "'.");
+    }
+    if (!fileSystem.rename(tmpPath, path)) {
+      throw new IOException("Unable to rename '" + tmpPath + "' to '" + path + "'.");
+    }
+  }
+
+  private static Path getPath(String checkpointDir, TaskID taskId) {
+    return new Path(checkpointDir, taskId.toString());
+  }
+
+  /**
+   * @return the directory which keeps the complete files of a task until it succeeds
+   */
+  public static Path getFilesDir(String checkpointDir, TaskID taskId) {
+    return new Path(checkpointDir, taskId + "-files");
+  }
+
+  public int getKeyIndex() {
+    return keyIndex;
+  }
+
+  public String getLastKey() {
+    return lastKey;
+  }
+
+  public String getLastDocId() {
+    return lastDocId;
+  }
+
+  public int getSkip() {
+    return skip;
+  }
+
+  public int getFiles() {
+    return files;
+  }
+
+  @Override
+  public String toString() {
+    return "ImportCheckpoint{" +
+        "keyIndex=" + keyIndex +
+        ", lastKey='" + lastKey + '\'' +
+        ", lastDocId='" + lastDocId + '\'' +
+        ", skip=" + skip +
+        ", files=" + files +
+        '}';
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+/**
+ * Configures the output of the import jobs, whose mappers write document IDs and documents as {@link Text}, in one of
+ * the {@link ImportViewArgs.OutputFormat}s.
+ */
+public class ImportOutputFormats {
+
+  private ImportOutputFormats() {
+  }
+
+  /**
+   * Sets the output format, the compression and the output directory of an import job.
+   *
+   * @param compression name of the compression codec, as accepted by {@link ImportViewArgs#getCompression}
+   * @throws IllegalArgumentException if the codec is unknown or not supported by the output format
+   */
+  public static void configure(Job job, ImportViewArgs.OutputFormat outputFormat, String compression, String output) {
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(Text.class);
+    FileOutputFormat.setOutputPath(job, new Path(output));
+
+    Configuration conf = job.getConfiguration();
+    boolean compressed = !compression.equals(ImportViewArgs.COMPRESSION_NONE);
+    switch (outputFormat) {
+      case SEQUENCE_FILE:
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        if (compressed) {
+          SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        }
+        break;
+      case AVRO:
+        // Avro data files are compressed by blocks with their own codecs.
+        job.setOutputFormatClass(AvroDocumentOutputFormat.class);
+        // Fail before the job runs rather than in each task.
+        AvroDocumentOutputFormat.getCodecFactory(compression);
+        conf.set(ImportViewArgs.ARG_COMPRESSION.getPropertyName(), compression);
+        return;
+      default:
+        job.setOutputFormatClass(TextOutputFormat.class);
+    }
+
+    FileOutputFormat.setCompressOutput(job, compressed);
+    if (compressed) {
+      Class<? extends CompressionCodec> codecClass =
+          new CompressionCodecFactory(conf).getCodecClassByName(compression);
+      if (codecClass == null) {
+        throw new IllegalArgumentException("Unrecognized compression codec '" + compression + "'.");
+      }
+      FileOutputFormat.setOutputCompressorClass(job, codecClass);
+    }
+  }
+}
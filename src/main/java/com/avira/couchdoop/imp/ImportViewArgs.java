@@ -22,9 +22,12 @@ package com.avira.couchdoop.imp;
 import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.CouchbaseArgs;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,34 +36,76 @@ import java.util.regex.Pattern;
  */
 public class ImportViewArgs extends CouchbaseArgs {
 
+  /**
+   * Formats of the import output.
+   */
+  public enum OutputFormat {
+    /** Text files with a document ID and a document on each line, separated by a tab. */
+    TEXT,
+    /** SequenceFiles of document IDs and documents, as Text; block-compressed if a compression codec is set. */
+    SEQUENCE_FILE,
+    /** Avro data files of records with an {@code id} and a {@code document}, see {@link AvroDocumentOutputFormat}. */
+    AVRO
+  }
+
+  /** Compression value which disables compression. */
+  public static final String COMPRESSION_NONE = "none";
+
   private String designDocumentName;
 
   private String viewName;
 
   private String[] viewKeys;
 
+  private String startKey;
+
+  private String endKey;
+
   private String output;
 
   private int documentsPerPage;
 
   private int numMappers;
 
+  private String watermarkFile;
+
+  private OutputFormat outputFormat;
+
+  private String compression;
+
   public static final ArgDef ARG_DESIGNDOC_NAME = new ArgDef('d', "couchbase.designdoc.name", true, true,
     "(required) name of the design document");
   public static final ArgDef ARG_VIEW_NAME = new ArgDef('v', "couchbase.view.name", true, true,
     "(required) name of the view");
-  public static final ArgDef ARG_VIEW_KEYS = new ArgDef('k', "couchbase.view.keys", true, true,
-    "(required) semicolon separated list of view keys (in JSON format) which are going to be distributed to mappers");
+  public static final ArgDef ARG_VIEW_KEYS = new ArgDef('k', "couchbase.view.keys", true, false,
+    "(required unless a key range is given) semicolon separated list of view keys (in JSON format) which are going to be distributed to mappers");
+  public static final ArgDef ARG_VIEW_STARTKEY = new ArgDef('s', "couchbase.view.startkey", true, false,
+    "start view key (in JSON format) of a key range to import instead of a list of keys; the range is split between mappers by sampling the view");
+  public static final ArgDef ARG_VIEW_ENDKEY = new ArgDef('e', "couchbase.view.endkey", true, false,
+    "end view key (in JSON format, inclusive) of a key range to import instead of a list of keys");
   public static final ArgDef ARG_OUTPUT = new ArgDef('o', "output", true, true,
     "(required) HDFS output directory");
   public static final ArgDef ARG_DOCS_PER_PAGE = new ArgDef('P', "couchbase.view.docsPerPage", true, false,
     "buffer of documents which are going to be retrieved at once at a mapper; defaults to 1024");
   public static final ArgDef ARG_NUM_MAPPERS = new ArgDef('m', "hadoop.mappers", true, false,
     "number of mappers to be used by Hadoop; by default it will be equal to the number of couchbase view keys passed to the job");
+  public static final ArgDef ARG_OUTPUT_FORMAT = new ArgDef('f', "output.format", true, false,
+    "format of the output files: TEXT, SEQUENCE_FILE or AVRO; defaults to TEXT");
+  public static final ArgDef ARG_COMPRESSION = new ArgDef('c', "output.compression", true, false,
+    "compression codec of the output files, like gzip, snappy, bzip2, lz4 or deflate (snappy, deflate or bzip2 for AVRO); defaults to none");
+  public static final ArgDef ARG_FIELDS = new ArgDef('F', "fields", true, false,
+    "comma separated JSON paths, like user.name, of the document fields to import; by default whole documents are imported");
+  public static final ArgDef ARG_FILTER = new ArgDef('q', "filter", true, false,
+    "semicolon separated conditions like type=\"click\" or user.age!=30 which imported documents must match");
+  public static final ArgDef ARG_WATERMARK_FILE = new ArgDef('w', "watermark.file", true, false,
+    "HDFS file with the last numbers imported from each ((a-b)) view key range; only keys after them are imported and the file is updated after a successful import");
 
 
   private static final char KEYS_STRING_SEPARATOR = ';';
   private static final String[] KEY_RANGE_ESCAPE_SEQUENCE = new String[]{"\\(\\(", "\\)\\)"};
+  private static final Pattern KEY_RANGE_PATTERN = Pattern.compile(
+    "(.*)" + KEY_RANGE_ESCAPE_SEQUENCE[0] + "(\\d+)-(\\d+)" + KEY_RANGE_ESCAPE_SEQUENCE[1] + "(.*)"
+  );
 
   public static final List<ArgDef> ARGS_LIST = new ArrayList<>(5);
 
@@ -68,9 +113,16 @@ public class ImportViewArgs extends CouchbaseArgs {
     ARGS_LIST.add(ARG_DESIGNDOC_NAME);
     ARGS_LIST.add(ARG_VIEW_NAME);
     ARGS_LIST.add(ARG_VIEW_KEYS);
+    ARGS_LIST.add(ARG_VIEW_STARTKEY);
+    ARGS_LIST.add(ARG_VIEW_ENDKEY);
     ARGS_LIST.add(ARG_OUTPUT);
+    ARGS_LIST.add(ARG_OUTPUT_FORMAT);
+    ARGS_LIST.add(ARG_COMPRESSION);
+    ARGS_LIST.add(ARG_FIELDS);
+    ARGS_LIST.add(ARG_FILTER);
     ARGS_LIST.add(ARG_DOCS_PER_PAGE);
     ARGS_LIST.add(ARG_NUM_MAPPERS);
+    ARGS_LIST.add(ARG_WATERMARK_FILE);
 
     ARGS_LIST.addAll(CouchbaseArgs.ARGS_LIST);
   }
@@ -91,10 +143,26 @@ public class ImportViewArgs extends CouchbaseArgs {
     designDocumentName = conf.get(ARG_DESIGNDOC_NAME.getPropertyName());
     viewName = conf.get(ARG_VIEW_NAME.getPropertyName());
     viewKeys = parseViewKeys(conf);
+    startKey = conf.get(ARG_VIEW_STARTKEY.getPropertyName());
+    endKey = conf.get(ARG_VIEW_ENDKEY.getPropertyName());
     output = conf.get(ARG_OUTPUT.getPropertyName());
     documentsPerPage = conf.getInt(ARG_DOCS_PER_PAGE.getPropertyName(), 1024);
-    //numMappers default to the number of viewKeys
-    numMappers = conf.getInt(ARG_NUM_MAPPERS.getPropertyName(), viewKeys.length);
+    //numMappers default to the number of viewKeys or to 1 for a key range
+    numMappers = conf.getInt(ARG_NUM_MAPPERS.getPropertyName(), hasKeyRange() ? 1 : viewKeys.length);
+    watermarkFile = conf.get(ARG_WATERMARK_FILE.getPropertyName());
+    outputFormat = getOutputFormat(conf);
+    compression = getCompression(conf);
+    checkProjection(conf);
+
+    if (viewKeys.length == 0 && !hasKeyRange()) {
+      throw new ArgsException("Either view keys or a view key range must be provided.");
+    }
+    if (viewKeys.length > 0 && hasKeyRange()) {
+      throw new ArgsException("View keys and a view key range can't be provided together.");
+    }
+    if (watermarkFile != null && hasKeyRange()) {
+      throw new ArgsException("A watermark file can only be used with view keys.");
+    }
   }
 
   public String getDesignDocumentName() {
@@ -109,12 +177,97 @@ public class ImportViewArgs extends CouchbaseArgs {
     return viewKeys;
   }
 
+  public String getStartKey() {
+    return startKey;
+  }
+
+  public String getEndKey() {
+    return endKey;
+  }
+
+  /**
+   * @return whether a key range is imported instead of a list of keys
+   */
+  public boolean hasKeyRange() {
+    return startKey != null || endKey != null;
+  }
+
   public int getNumMappers() {
     return numMappers;
   }
 
+  /**
+   * Reads the output format from the Hadoop configuration.
+   * @return format of the import output
+   */
+  public static OutputFormat getOutputFormat(Configuration hadoopConfiguration) throws ArgsException {
+    String strOutputFormat = hadoopConfiguration.get(ARG_OUTPUT_FORMAT.getPropertyName());
+
+    // Default value
+    if (strOutputFormat == null) {
+      return OutputFormat.TEXT;
+    }
+
+    try {
+      return OutputFormat.valueOf(strOutputFormat);
+    } catch (IllegalArgumentException e) {
+      throw new ArgsException("Unrecognized output format '" + strOutputFormat +
+        "'. Please provide one of the following: TEXT, SEQUENCE_FILE and AVRO.", e);
+    }
+  }
+
+  /**
+   * Reads the compression codec from the Hadoop configuration and checks that it is available for the output
+   * format.
+   * @return name of the compression codec or {@link #COMPRESSION_NONE}
+   */
+  public static String getCompression(Configuration hadoopConfiguration) throws ArgsException {
+    String compression = hadoopConfiguration.get(ARG_COMPRESSION.getPropertyName(), COMPRESSION_NONE);
+    if (compression.equals(COMPRESSION_NONE)) {
+      return compression;
+    }
+
+    if (getOutputFormat(hadoopConfiguration) == OutputFormat.AVRO) {
+      try {
+        AvroDocumentOutputFormat.getCodecFactory(compression);
+      } catch (IllegalArgumentException e) {
+        throw new ArgsException(e.getMessage(), e);
+      }
+    } else if (new CompressionCodecFactory(hadoopConfiguration).getCodecClassByName(compression) == null) {
+      throw new ArgsException("Unrecognized compression codec '" + compression + "'. Please provide one of the " +
+        "codecs configured in io.compression.codecs, like gzip, snappy, bzip2, lz4 or deflate.");
+    }
+    return compression;
+  }
+
+  /**
+   * Checks the {@link #ARG_FIELDS} and {@link #ARG_FILTER} options by creating their {@link JsonProjection}.
+   */
+  public static void checkProjection(Configuration hadoopConfiguration) throws ArgsException {
+    try {
+      JsonProjection.fromConfiguration(hadoopConfiguration);
+    } catch (IllegalArgumentException e) {
+      throw new ArgsException(e.getMessage(), e);
+    }
+  }
+
+  public OutputFormat getOutputFormat() {
+    return outputFormat;
+  }
+
+  /**
+   * @return name of the compression codec of the output files or {@link #COMPRESSION_NONE}
+   */
+  public String getCompression() {
+    return compression;
+  }
+
   protected static String[] parseViewKeys(Configuration hadoopConf) {
-    return parseViewKeys(hadoopConf.get(ARG_VIEW_KEYS.getPropertyName()));
+    String viewKeysString = hadoopConf.get(ARG_VIEW_KEYS.getPropertyName());
+    if (viewKeysString == null) {
+      return new String[0];
+    }
+    return parseViewKeys(viewKeysString);
   }
 
 
@@ -123,11 +276,8 @@ public class ImportViewArgs extends CouchbaseArgs {
     List<String> keys = new ArrayList<>(splits.size());
 
     //Look for KEY_RANGE_ESCAPE_SEQUENCE in each split
-    Pattern multiKeyPattern = Pattern.compile(
-      "(.*)" + KEY_RANGE_ESCAPE_SEQUENCE[0] + "(\\d+)-(\\d+)" + KEY_RANGE_ESCAPE_SEQUENCE[1] + "(.*)"
-    );
     for (String split : splits) {
-      Matcher kMatch = multiKeyPattern.matcher(split);
+      Matcher kMatch = KEY_RANGE_PATTERN.matcher(split);
       if (kMatch.matches()) {
         keys.addAll(getKeysByRange(kMatch.group(1), kMatch.group(2), kMatch.group(3), kMatch.group(4)));
       } else {
@@ -140,6 +290,76 @@ public class ImportViewArgs extends CouchbaseArgs {
   }
 
 
+  /**
+   * Clips the numeric ranges of a string of view keys, like {@code ((01-31))}, to the numbers after the last ones
+   * already imported. Ranges which were imported entirely are removed and keys without a range are kept as they are.
+   *
+   * @param viewKeysString view keys separated by {@code KEYS_STRING_SEPARATOR}
+   * @param lastImported last number imported for each range, by {@link #getKeyRangeId}
+   * @return the view keys which were not imported yet, separated by {@code KEYS_STRING_SEPARATOR}
+   */
+  protected static String clipViewKeys(String viewKeysString, Map<String, Integer> lastImported) {
+    StringBuilder clipped = new StringBuilder();
+
+    for (String split : splitViewKeys(viewKeysString)) {
+      Matcher kMatch = KEY_RANGE_PATTERN.matcher(split);
+      if (kMatch.matches()) {
+        String prefix = kMatch.group(1);
+        String rangeStart = kMatch.group(2);
+        String rangeEnd = kMatch.group(3);
+        String suffix = kMatch.group(4);
+
+        Integer last = lastImported.get(getKeyRangeId(prefix, suffix));
+        if (last != null) {
+          if (last >= Integer.parseInt(rangeEnd)) {
+            continue;
+          }
+          if (last >= Integer.parseInt(rangeStart)) {
+            // Keep the padding of the range.
+            String numberFormat = rangeStart.length() == rangeEnd.length() ? "%0" + rangeEnd.length() + "d" : "%d";
+            split = prefix + "((" + String.format(numberFormat, last + 1) + "-" + rangeEnd + "))" + suffix;
+          }
+        }
+      }
+
+      if (clipped.length() > 0) {
+        clipped.append(KEYS_STRING_SEPARATOR);
+      }
+      clipped.append(split);
+    }
+
+    return clipped.toString();
+  }
+
+  /**
+   * @param viewKeysString view keys separated by {@code KEYS_STRING_SEPARATOR}
+   * @return the last number of each numeric range of the view keys, by {@link #getKeyRangeId}
+   */
+  protected static Map<String, Integer> getKeyRangeEnds(String viewKeysString) {
+    Map<String, Integer> rangeEnds = new HashMap<>();
+
+    for (String split : splitViewKeys(viewKeysString)) {
+      Matcher kMatch = KEY_RANGE_PATTERN.matcher(split);
+      if (kMatch.matches()) {
+        String rangeId = getKeyRangeId(kMatch.group(1), kMatch.group(4));
+        int rangeEnd = Integer.parseInt(kMatch.group(3));
+        Integer previousEnd = rangeEnds.get(rangeId);
+        if (previousEnd == null || previousEnd < rangeEnd) {
+          rangeEnds.put(rangeId, rangeEnd);
+        }
+      }
+    }
+
+    return rangeEnds;
+  }
+
+  /**
+   * @return identifier of a numeric key range, which is the same for all the ranges of the same keys
+   */
+  protected static String getKeyRangeId(String prefix, String suffix) {
+    return prefix + "((*))" + suffix;
+  }
+
   /**
    * Correctly split a string containing Couchbase view keys. Uses {@code KEYS_STRING_SEPARATOR} to split the
    * string, but not if the separator is found between double-quotes or square braces.
@@ -219,4 +439,11 @@ public class ImportViewArgs extends CouchbaseArgs {
   public int getDocumentsPerPage() {
     return documentsPerPage;
   }
+
+  /**
+   * @return HDFS file with the last numbers imported from each view key range or null for a full import
+   */
+  public String getWatermarkFile() {
+    return watermarkFile;
+  }
 }
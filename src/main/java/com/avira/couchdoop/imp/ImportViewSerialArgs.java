@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.ArgsException;
+import com.avira.couchdoop.CouchbaseArgs;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link com.avira.couchdoop.CouchbaseArgs} implementation which holds the settings of the serial view import, which
+ * runs without MapReduce, in a pool of threads.
+ */
+public class ImportViewSerialArgs extends ImportViewArgs {
+
+  private int threads;
+
+  private long fileBytes;
+
+  public static final ArgDef ARG_THREADS = new ArgDef('t', "serial.threads", true, false,
+    "number of threads which query view keys and write documents concurrently, each one to its own files; a key range is cut into this many sub-ranges; defaults to 4");
+  public static final ArgDef ARG_FILE_BYTES = new ArgDef('S', "output.file.bytes", true, false,
+    "size in bytes, before compression, after which each thread starts a new output file; defaults to 268435456 (256 MB)");
+
+  public static final List<ArgDef> ARGS_LIST = new ArrayList<>(5);
+
+  static {
+    ARGS_LIST.add(ImportViewArgs.ARG_DESIGNDOC_NAME);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_NAME);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_KEYS);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_STARTKEY);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_ENDKEY);
+    ARGS_LIST.add(ImportViewArgs.ARG_OUTPUT);
+    ARGS_LIST.add(ImportViewArgs.ARG_COMPRESSION);
+    ARGS_LIST.add(ImportViewArgs.ARG_FIELDS);
+    ARGS_LIST.add(ImportViewArgs.ARG_FILTER);
+    ARGS_LIST.add(ImportViewArgs.ARG_DOCS_PER_PAGE);
+    ARGS_LIST.add(ARG_THREADS);
+    ARGS_LIST.add(ARG_FILE_BYTES);
+
+    ARGS_LIST.addAll(CouchbaseArgs.ARGS_LIST);
+  }
+
+  public ImportViewSerialArgs(Configuration conf) throws ArgsException {
+    super(conf);
+  }
+
+  @Override
+  public List<ArgDef> getArgsList() {
+    return ImportViewSerialArgs.ARGS_LIST;
+  }
+
+  @Override
+  public void loadFromHadoopConfiguration(Configuration conf) throws ArgsException {
+    super.loadFromHadoopConfiguration(conf);
+
+    threads = conf.getInt(ARG_THREADS.getPropertyName(), 4);
+    fileBytes = conf.getLong(ARG_FILE_BYTES.getPropertyName(), 256L * 1024 * 1024);
+    if (threads < 1) {
+      throw new ArgsException("The number of threads must be positive.");
+    }
+    if (fileBytes < 1) {
+      throw new ArgsException("The output file size must be positive.");
+    }
+  }
+
+  /**
+   * @return number of threads of the import
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return size in bytes, before compression, after which a thread starts a new output file
+   */
+  public long getFileBytes() {
+    return fileBytes;
+  }
+}
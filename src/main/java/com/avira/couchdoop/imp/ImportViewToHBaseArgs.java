@@ -26,6 +26,8 @@ import org.apache.hadoop.conf.Configuration;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * {@link com.avira.couchdoop.CouchbaseArgs} implementation which holds Couchbase view to HBase
@@ -39,17 +41,38 @@ public class ImportViewToHBaseArgs extends ImportViewArgs {
 
   private String columnQualifier;
 
+  private String bulkLoadDir;
+
+  private String columns;
+
+  private int regions;
+
   public static final ArgDef ARG_OUTPUT = new ArgDef('o', "output", true, true,
-      "(required) HBase table name, column family and column qualifier separated by commas");
+      "(required) HBase table name, column family and column qualifier separated by commas; only the table name if --hbase-columns is given and whole documents are not stored");
+  public static final ArgDef ARG_COLUMNS = new ArgDef('C', "hbase.columns", true, false,
+      "comma separated path=family:qualifier[:encoding] entries which store JSON fields, like user.age=d:age:long, in their own columns; encodings are string (default), long, double and bytes");
+  public static final ArgDef ARG_BULK_LOAD_DIR = new ArgDef('B', "hbase.bulkload.dir", true, false,
+      "HDFS directory, which must not exist, where HFiles are written and then bulk loaded into the table, instead of sending each document to the region servers");
+
+  public static final ArgDef ARG_REGIONS = new ArgDef('R', "hbase.regions", true, false,
+      "number of regions to pre-split the table into before importing, at document IDs sampled from the view; the table is created if it doesn't exist; tables with more than one region are left as they are");
 
   public static final List<ArgDef> ARGS_LIST = new ArrayList<>(5);
   static {
     ARGS_LIST.add(ARG_OUTPUT);
+    ARGS_LIST.add(ARG_BULK_LOAD_DIR);
+    ARGS_LIST.add(ARG_COLUMNS);
+    ARGS_LIST.add(ARG_REGIONS);
 
     ARGS_LIST.add(ImportViewArgs.ARG_DESIGNDOC_NAME);
     ARGS_LIST.add(ImportViewArgs.ARG_VIEW_NAME);
     ARGS_LIST.add(ImportViewArgs.ARG_VIEW_KEYS);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_STARTKEY);
+    ARGS_LIST.add(ImportViewArgs.ARG_VIEW_ENDKEY);
     ARGS_LIST.add(ImportViewArgs.ARG_DOCS_PER_PAGE);
+    ARGS_LIST.add(ImportViewArgs.ARG_NUM_MAPPERS);
+    ARGS_LIST.add(ImportViewArgs.ARG_FIELDS);
+    ARGS_LIST.add(ImportViewArgs.ARG_FILTER);
 
     ARGS_LIST.addAll(CouchbaseArgs.ARGS_LIST);
   }
@@ -66,11 +89,25 @@ public class ImportViewToHBaseArgs extends ImportViewArgs {
   @Override
   public void loadFromHadoopConfiguration(Configuration conf) throws ArgsException {
     super.loadFromHadoopConfiguration(conf);
+    bulkLoadDir = conf.get(ARG_BULK_LOAD_DIR.getPropertyName());
+    columns = conf.get(ARG_COLUMNS.getPropertyName());
+    regions = conf.getInt(ARG_REGIONS.getPropertyName(), 0);
+    if (columns != null) {
+      try {
+        new JsonColumnMapping(columns);
+      } catch (IllegalArgumentException e) {
+        throw new ArgsException(e.getMessage(), e);
+      }
+    }
     if (getOutput() == null) {
       return;
     }
 
     String[] splits = getOutput().split(",");
+    if (splits.length == 1 && columns != null) {
+      table = splits[0];
+      return;
+    }
     if (splits.length != 3) {
       throw new ArgsException(
           "You must provide all of table and column family and column qualifier separated by commas as --output.");
@@ -91,4 +128,39 @@ public class ImportViewToHBaseArgs extends ImportViewArgs {
   public String getColumnQualifier() {
     return columnQualifier;
   }
+
+  /**
+   * @return mapping of JSON fields to HBase columns, as accepted by {@link JsonColumnMapping}, or null
+   */
+  public String getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return number of regions to pre-split the table into or 0 to leave it as it is
+   */
+  public int getRegions() {
+    return regions;
+  }
+
+  /**
+   * @return HBase column families written by the import
+   */
+  public Set<String> getFamilies() {
+    Set<String> families = new TreeSet<>();
+    if (columnFamily != null) {
+      families.add(columnFamily);
+    }
+    if (columns != null) {
+      families.addAll(new JsonColumnMapping(columns).getFamilies());
+    }
+    return families;
+  }
+
+  /**
+   * @return HDFS directory of the HFiles to bulk load or null if documents are written through the region servers
+   */
+  public String getBulkLoadDir() {
+    return bulkLoadDir;
+  }
 }
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Maps fields of JSON documents to HBase columns, with typed encodings, in a single pass of a streaming parser.
+ *
+ * <p>The mapping is a comma separated list of {@code path=family:qualifier[:encoding]} entries, where the path goes
+ * through nested objects with dots, like {@code user.age}. Encodings are:</p>
+ * <ul>
+ *   <li>{@code string} (default): the text of strings, without quotes, and the JSON of other values;</li>
+ *   <li>{@code long}: integer numbers as 8 bytes, like {@link Bytes#toBytes(long)};</li>
+ *   <li>{@code double}: numbers as 8 bytes, like {@link Bytes#toBytes(double)};</li>
+ *   <li>{@code bytes}: the JSON of the value, as UTF-8 bytes.</li>
+ * </ul>
+ *
+ * <p>Missing fields, null values and values which can't be encoded don't produce cells. Instances are not thread
+ * safe.</p>
+ */
+public class JsonColumnMapping {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final String ENTRIES_SEPARATOR = ",";
+
+  public enum Encoding {
+    STRING, LONG, DOUBLE, BYTES
+  }
+
+  private static class Column {
+    private final byte[] family;
+    private final byte[] qualifier;
+    private final Encoding encoding;
+
+    private Column(byte[] family, byte[] qualifier, Encoding encoding) {
+      this.family = family;
+      this.qualifier = qualifier;
+      this.encoding = encoding;
+    }
+  }
+
+  private static class PathNode {
+    private final Map<String, PathNode> children = new HashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+  }
+
+  private final PathNode root = new PathNode();
+  private final Set<String> families = new TreeSet<>();
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private long unencodableValues = 0;
+
+  /**
+   * @param mapping comma separated {@code path=family:qualifier[:encoding]} entries
+   * @throws IllegalArgumentException if the mapping is invalid
+   */
+  public JsonColumnMapping(String mapping) {
+    for (String entry : mapping.split(ENTRIES_SEPARATOR)) {
+      int eq = entry.indexOf('=');
+      String[] column = eq < 0 ? new String[0] : entry.substring(eq + 1).trim().split(":");
+      if (eq <= 0 || column.length < 2 || column.length > 3 || column[0].isEmpty() || column[1].isEmpty()) {
+        throw new IllegalArgumentException("Invalid HBase column mapping '" + entry +
+            "'. Please provide path=family:qualifier[:encoding].");
+      }
+
+      Encoding encoding = Encoding.STRING;
+      if (column.length == 3) {
+        try {
+          encoding = Encoding.valueOf(column[2].toUpperCase());
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Unrecognized encoding '" + column[2] + "' of HBase column mapping '" +
+              entry + "'. Please provide one of the following: string, long, double and bytes.", e);
+        }
+      }
+
+      PathNode node = root;
+      for (String name : entry.substring(0, eq).trim().split("\\.", -1)) {
+        if (name.isEmpty()) {
+          throw new IllegalArgumentException("Invalid JSON field path in HBase column mapping '" + entry + "'.");
+        }
+        PathNode child = node.children.get(name);
+        if (child == null) {
+          child = new PathNode();
+          node.children.put(name, child);
+        }
+        node = child;
+      }
+      families.add(column[0]);
+      node.columns.add(new Column(Bytes.toBytes(column[0]), Bytes.toBytes(column[1]), encoding));
+    }
+  }
+
+  /**
+   * Adds a cell to a put for each mapped field of a document.
+   *
+   * @param document UTF-8 bytes of the document
+   * @throws IOException if the document is not a valid JSON object
+   */
+  public void addTo(Put put, byte[] document) throws IOException {
+    JsonParser parser = JSON_FACTORY.createJsonParser(document);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("The document is not a JSON object.");
+      }
+      addFields(parser, root, put);
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Goes through the fields of an object. The current token is the start of the object.
+   */
+  private void addFields(JsonParser parser, PathNode node, Put put) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      PathNode child = node.children.get(parser.getCurrentName());
+      JsonToken token = parser.nextToken();
+
+      if (child == null) {
+        parser.skipChildren();
+      } else if (!child.columns.isEmpty()) {
+        addCells(parser, child, put);
+      } else if (token == JsonToken.START_OBJECT) {
+        addFields(parser, child, put);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Adds the cells of a mapped value, skipping it. The current token is the start of the value.
+   */
+  private void addCells(JsonParser parser, PathNode node, Put put) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return;
+    }
+
+    byte[] json = null;
+    if (!token.isScalarValue()) {
+      json = copyValue(parser);
+      if (token == JsonToken.START_OBJECT && !node.children.isEmpty()) {
+        // Fields of the object are mapped too, so go through its copy again.
+        JsonParser objectParser = JSON_FACTORY.createJsonParser(json);
+        objectParser.nextToken();
+        addFields(objectParser, node, put);
+        objectParser.close();
+      }
+    }
+
+    for (Column column : node.columns) {
+      byte[] value = null;
+      switch (column.encoding) {
+        case STRING:
+          value = (json != null ? json : Bytes.toBytes(parser.getText()));
+          break;
+        case LONG:
+          if (token == JsonToken.VALUE_NUMBER_INT) {
+            value = Bytes.toBytes(parser.getLongValue());
+          }
+          break;
+        case DOUBLE:
+          if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            value = Bytes.toBytes(parser.getDoubleValue());
+          }
+          break;
+        case BYTES:
+          value = (json != null ? json : scalarJson(parser));
+          break;
+      }
+
+      if (value == null) {
+        unencodableValues++;
+      } else {
+        put.add(column.family, column.qualifier, value);
+      }
+    }
+  }
+
+  private byte[] copyValue(JsonParser parser) throws IOException {
+    buffer.reset();
+    JsonGenerator generator = JSON_FACTORY.createJsonGenerator(buffer, JsonEncoding.UTF8);
+    generator.copyCurrentStructure(parser);
+    generator.close();
+    return buffer.toByteArray();
+  }
+
+  private byte[] scalarJson(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+      return Bytes.toBytes(parser.getText());
+    }
+    return copyValue(parser);
+  }
+
+  /**
+   * @return the column families of the mapping
+   */
+  public Set<String> getFamilies() {
+    return families;
+  }
+
+  /**
+   * @return number of mapped values which could not be encoded, like strings mapped to long columns
+   */
+  public long getUnencodableValues() {
+    return unencodableValues;
+  }
+}
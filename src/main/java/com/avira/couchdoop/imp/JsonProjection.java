@@ -0,0 +1,356 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projects JSON documents to some of their fields and filters them by the values of their fields, in a single pass of
+ * a streaming parser, without building a tree of the document.
+ *
+ * <p>Fields are dot separated paths through nested objects, like {@code user.name}, given as a comma separated list.
+ * The projected document keeps the nesting of the fields and their order in the original document. A field which
+ * is an object or an array is copied whole. Documents without any of the fields are projected to {@code {}}.</p>
+ *
+ * <p>The filter is a semicolon separated list of conditions which all have to hold, of the form {@code path=value} or
+ * {@code path!=value}. Values are JSON literals ({@code "text"}, {@code 12}, {@code true}, {@code null}); a value
+ * which is not a valid literal is taken as a string. Numbers are compared by value. Paths only match scalar fields;
+ * a missing field doesn't equal any value.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class JsonProjection {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final String FIELDS_SEPARATOR = ",";
+  private static final String CONDITIONS_SEPARATOR = ";";
+
+  /**
+   * Node of the tree of the paths of the projected fields and of the fields of the conditions.
+   */
+  private static class PathNode {
+    private final Map<String, PathNode> children = new HashMap<>();
+    private final List<Condition> conditions = new ArrayList<>();
+    private boolean projected = false;
+
+    private PathNode child(String name) {
+      PathNode child = children.get(name);
+      if (child == null) {
+        child = new PathNode();
+        children.put(name, child);
+      }
+      return child;
+    }
+  }
+
+  /**
+   * Condition of the filter on the value of a field.
+   */
+  private static class Condition {
+    private final JsonToken valueType;
+    private final String value;
+    private final boolean negated;
+    private boolean equal;
+
+    private Condition(String literal, boolean negated) {
+      this.negated = negated;
+
+      JsonToken type;
+      String text;
+      try {
+        JsonParser parser = JSON_FACTORY.createJsonParser(literal);
+        type = parser.nextToken();
+        text = parser.getText();
+        if (type == null || !type.isScalarValue() || parser.nextToken() != null) {
+          type = JsonToken.VALUE_STRING;
+          text = literal;
+        }
+      } catch (IOException e) {
+        type = JsonToken.VALUE_STRING;
+        text = literal;
+      }
+      this.valueType = (type == JsonToken.VALUE_NUMBER_FLOAT ? JsonToken.VALUE_NUMBER_INT : type);
+      this.value = text;
+    }
+
+    /**
+     * Compares the value with the scalar field at the current token of the parser.
+     */
+    private void test(JsonParser parser) throws IOException {
+      JsonToken type = parser.getCurrentToken();
+      if (type == JsonToken.VALUE_NUMBER_INT || type == JsonToken.VALUE_NUMBER_FLOAT) {
+        equal = valueType == JsonToken.VALUE_NUMBER_INT &&
+            new BigDecimal(parser.getText()).compareTo(new BigDecimal(value)) == 0;
+      } else {
+        equal = type == valueType && parser.getText().equals(value);
+      }
+    }
+
+    private boolean holds() {
+      return equal != negated;
+    }
+  }
+
+  private final PathNode root = new PathNode();
+  private final boolean projecting;
+  private final List<Condition> conditions = new ArrayList<>();
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private final Deque<PendingObject> pendingObjects = new ArrayDeque<>();
+
+  /**
+   * Object of the output whose start is written only if one of its fields is projected.
+   */
+  private static class PendingObject {
+    private final String name;
+    private boolean started = false;
+
+    private PendingObject(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * @param fields comma separated paths of the projected fields or null to keep whole documents
+   * @param filter semicolon separated conditions or null to keep all documents
+   * @throws IllegalArgumentException if a field or a condition is invalid
+   */
+  public JsonProjection(String fields, String filter) {
+    projecting = fields != null;
+    if (fields != null) {
+      for (String field : fields.split(FIELDS_SEPARATOR)) {
+        getNode(field).projected = true;
+      }
+    }
+
+    if (filter != null) {
+      for (String condition : filter.split(CONDITIONS_SEPARATOR)) {
+        int eq = condition.indexOf('=');
+        if (eq <= 0) {
+          throw new IllegalArgumentException("Invalid filter condition '" + condition + "'.");
+        }
+        boolean negated = condition.charAt(eq - 1) == '!';
+        String path = condition.substring(0, negated ? eq - 1 : eq);
+        Condition c = new Condition(condition.substring(eq + 1).trim(), negated);
+        getNode(path).conditions.add(c);
+        conditions.add(c);
+      }
+    }
+  }
+
+  private PathNode getNode(String path) {
+    PathNode node = root;
+    for (String name : path.trim().split("\\.", -1)) {
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException("Invalid JSON field path '" + path + "'.");
+      }
+      node = node.child(name);
+    }
+    return node;
+  }
+
+  /**
+   * Creates the projection of the {@link ImportViewArgs#ARG_FIELDS} and {@link ImportViewArgs#ARG_FILTER} options.
+   *
+   * @return the projection or null if neither is set
+   */
+  public static JsonProjection fromConfiguration(Configuration conf) {
+    String fields = conf.get(ImportViewArgs.ARG_FIELDS.getPropertyName());
+    String filter = conf.get(ImportViewArgs.ARG_FILTER.getPropertyName());
+    if (fields == null && filter == null) {
+      return null;
+    }
+    return new JsonProjection(fields, filter);
+  }
+
+  /**
+   * Projects and filters a view document, either UTF-8 bytes or a string. Documents which are filtered out or which
+   * are not JSON objects are counted in the {@code FILTERED_DOCUMENTS} and {@code INVALID_DOCUMENTS} task counters.
+   *
+   * @return UTF-8 bytes of the projected document or null if it was dropped
+   */
+  public byte[] apply(Object document, TaskAttemptContext context) {
+    byte[] projected;
+    try {
+      projected = document instanceof byte[] ? apply((byte[]) document) : apply(document.toString());
+    } catch (IOException e) {
+      context.getCounter(JsonProjection.class.getName(), "INVALID_DOCUMENTS").increment(1);
+      return null;
+    }
+
+    if (projected == null) {
+      context.getCounter(JsonProjection.class.getName(), "FILTERED_DOCUMENTS").increment(1);
+    }
+    return projected;
+  }
+
+  /**
+   * Projects and filters a document given as a string.
+   *
+   * @throws IOException if the document is not a valid JSON object
+   *
+   * @return UTF-8 bytes of the projected document or null if it was filtered out
+   */
+  public byte[] apply(String document) throws IOException {
+    return apply(document.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Projects and filters a document given as UTF-8 bytes. Documents which are only filtered are returned as they
+   * are.
+   *
+   * @return UTF-8 bytes of the projected document or null if it was filtered out
+   * @throws IOException if the document is not a valid JSON object
+   */
+  public byte[] apply(byte[] document) throws IOException {
+    JsonParser parser = JSON_FACTORY.createJsonParser(document);
+    for (Condition condition : conditions) {
+      condition.equal = false;
+    }
+
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("The document is not a JSON object.");
+      }
+
+      buffer.reset();
+      pendingObjects.clear();
+      JsonGenerator generator = projecting ? JSON_FACTORY.createJsonGenerator(buffer, JsonEncoding.UTF8) : null;
+      if (generator != null) {
+        generator.writeStartObject();
+      }
+      searchObject(parser, root, generator);
+      if (generator != null) {
+        generator.writeEndObject();
+        generator.close();
+      }
+    } finally {
+      parser.close();
+    }
+
+    for (Condition condition : conditions) {
+      if (!condition.holds()) {
+        return null;
+      }
+    }
+    return projecting ? buffer.toByteArray() : document;
+  }
+
+  /**
+   * Goes through the fields of an object which is not projected, projecting and testing the fields on the paths.
+   * The current token is the start of the object.
+   */
+  private void searchObject(JsonParser parser, PathNode node, JsonGenerator generator) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      PathNode child = node.children.get(name);
+
+      if (child == null) {
+        parser.skipChildren();
+      } else if (child.projected) {
+        startPendingObjects(generator);
+        generator.writeFieldName(name);
+        copy(parser, child, generator);
+      } else if (token == JsonToken.START_OBJECT) {
+        PendingObject object = new PendingObject(name);
+        pendingObjects.addLast(object);
+        searchObject(parser, child, generator);
+        pendingObjects.removeLast();
+        if (object.started) {
+          generator.writeEndObject();
+        }
+      } else if (token.isScalarValue()) {
+        test(parser, child);
+      } else {
+        // Paths don't go through arrays.
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Copies a projected value, testing the fields of the conditions inside it. The current token is the start of the
+   * value.
+   */
+  private void copy(JsonParser parser, PathNode node, JsonGenerator generator) throws IOException {
+    if (node == null || node.children.isEmpty()) {
+      if (node != null && parser.getCurrentToken().isScalarValue()) {
+        test(parser, node);
+      }
+      generator.copyCurrentStructure(parser);
+      return;
+    }
+
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+      generator.writeStartObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        generator.writeFieldName(name);
+        parser.nextToken();
+        copy(parser, node.children.get(name), generator);
+      }
+      generator.writeEndObject();
+    } else {
+      if (token.isScalarValue()) {
+        test(parser, node);
+      }
+      generator.copyCurrentStructure(parser);
+    }
+  }
+
+  private void test(JsonParser parser, PathNode node) throws IOException {
+    for (Condition condition : node.conditions) {
+      condition.test(parser);
+    }
+  }
+
+  /**
+   * Writes the starts of the enclosing objects of a projected field which were not written yet.
+   */
+  private void startPendingObjects(JsonGenerator generator) throws IOException {
+    for (PendingObject object : pendingObjects) {
+      if (!object.started) {
+        generator.writeFieldName(object.name);
+        generator.writeStartObject();
+        object.started = true;
+      }
+    }
+  }
+}
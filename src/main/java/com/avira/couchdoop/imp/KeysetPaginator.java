@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the pages of the rows of a view key, or of a range of view rows, by restarting each page from the last
+ * position seen ({@code startkey} and {@code startkey_docid}), instead of skipping the rows of the previous pages,
+ * so the cost of a page doesn't depend on how deep into the rows it is.
+ *
+ * <p>Rows emitted more than once with the same key for the same document are skipped by counting them, so no row is
+ * lost or repeated at page boundaries. See {@link KeysetPosition}.</p>
+ */
+public class KeysetPaginator implements Iterator<ViewResponse> {
+
+  private final ViewQuerier querier;
+  private final KeysetPosition position;
+  private PageSizeController pageSizeController;
+  private boolean includeDocs = true;
+
+  /**
+   * @param viewKey view key in JSON format, as passed to {@link com.couchbase.client.protocol.views.Query#setKey}
+   * @param docsPerPage maximum number of rows of a page
+   */
+  public KeysetPaginator(CouchbaseClient client, View view, String viewKey, int docsPerPage) {
+    this(client, view, ViewKeyRange.forKey(viewKey), docsPerPage);
+  }
+
+  /**
+   * @param range rows to iterate
+   * @param docsPerPage maximum number of rows of a page
+   */
+  public KeysetPaginator(CouchbaseClient client, View view, ViewKeyRange range, int docsPerPage) {
+    this(ViewQuerier.of(client, view), range, docsPerPage);
+  }
+
+  KeysetPaginator(ViewQuerier querier, ViewKeyRange range, int docsPerPage) {
+    this.querier = querier;
+    this.position = new KeysetPosition(range, docsPerPage);
+  }
+
+  /**
+   * Continues the iteration after a position, skipping the first rows at that position.
+   *
+   * @param key key of the position, as returned by the Couchbase client
+   * @param docId document ID of the position
+   * @param skip number of rows at the position which were already seen
+   */
+  void resumeFrom(String key, String docId, int skip) {
+    position.resumeFrom(key, docId, skip);
+  }
+
+  /**
+   * Lets a controller choose the size of each page, instead of the fixed number of documents per page.
+   */
+  public void setPageSizeController(PageSizeController pageSizeController) {
+    this.pageSizeController = pageSizeController;
+  }
+
+  /**
+   * @param includeDocs whether pages include the documents of the rows, true by default
+   */
+  public void setIncludeDocs(boolean includeDocs) {
+    this.includeDocs = includeDocs;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !position.isFinished();
+  }
+
+  @Override
+  public ViewResponse next() {
+    if (position.isFinished()) {
+      throw new NoSuchElementException();
+    }
+
+    if (pageSizeController != null) {
+      position.setDocsPerPage(pageSizeController.getPageSize());
+    }
+
+    long start = System.currentTimeMillis();
+    ViewResponse response = querier.query(getPageQuery());
+    long latency = System.currentTimeMillis() - start;
+
+    long bytes = 0;
+    for (ViewRow row : response) {
+      position.observe(row);
+      if (pageSizeController != null) {
+        bytes += PageSizeController.sizeOf(row);
+      }
+    }
+    position.endPage(response.size());
+
+    if (pageSizeController != null) {
+      pageSizeController.update(response.size(), bytes, latency);
+    }
+
+    return response;
+  }
+
+  Query getPageQuery() {
+    Query query = position.getPageQuery();
+    query.setIncludeDocs(includeDocs);
+    return query;
+  }
+
+  /**
+   * @return key of the last row returned, as returned by the Couchbase client, or null if no page was returned yet
+   */
+  public String getLastKey() {
+    return position.getLastKey();
+  }
+
+  /**
+   * @return ID of the last document returned or null if no page was returned yet
+   */
+  public String getLastDocId() {
+    return position.getLastDocId();
+  }
+
+  /**
+   * @return number of rows returned at the last position, which {@link #resumeFrom(String, String, int)} expects
+   */
+  int getSkip() {
+    return position.getSkip();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Pages can't be removed.");
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.ViewRow;
+
+/**
+ * Position of a keyset pagination over a range of view rows: the key and document ID of the last row seen and the
+ * number of rows seen at that position, which the next page skips.
+ *
+ * <p>Rows emitted more than once with the same key for the same document are adjacent, because rows are sorted by
+ * key and then by document ID, so counting them is enough for not losing or repeating any at page boundaries.</p>
+ */
+class KeysetPosition {
+
+  private final ViewKeyRange range;
+  private int docsPerPage;
+  private int pageLimit;
+
+  private String lastKey;
+  private String lastDocId;
+  private int skip = 0;
+  private boolean finished = false;
+
+  /**
+   * @param range rows to iterate
+   * @param docsPerPage maximum number of rows of a page
+   */
+  KeysetPosition(ViewKeyRange range, int docsPerPage) {
+    if (docsPerPage < 1) {
+      throw new IllegalArgumentException("The number of documents per page must be positive.");
+    }
+
+    this.range = range;
+    this.docsPerPage = docsPerPage;
+  }
+
+  /**
+   * @param docsPerPage maximum number of rows of the next pages
+   */
+  void setDocsPerPage(int docsPerPage) {
+    if (docsPerPage < 1) {
+      throw new IllegalArgumentException("The number of documents per page must be positive.");
+    }
+    this.docsPerPage = docsPerPage;
+  }
+
+  /**
+   * Continues after a position, skipping the first rows at that position.
+   *
+   * @param key key of the position, as returned by the Couchbase client
+   * @param docId document ID of the position
+   * @param skip number of rows at the position which were already seen
+   */
+  void resumeFrom(String key, String docId, int skip) {
+    this.lastKey = key;
+    this.lastDocId = docId;
+    this.skip = skip;
+  }
+
+  /**
+   * @return query of the page which starts after the current position, without documents
+   */
+  Query getPageQuery() {
+    Query query = range.applyTo(new Query());
+    // The rows are needed even if the view has a reduce, like a count view.
+    query.setReduce(false);
+    query.setLimit(docsPerPage);
+    pageLimit = docsPerPage;
+    if (lastDocId != null) {
+      // The key doesn't change if the range has a single one.
+      query.setRangeStart(range.isSingleKey() ? range.getStartKey() : range.toJsonKey(lastKey));
+      query.setStartkeyDocID(lastDocId);
+      query.setSkip(skip);
+    }
+    return query;
+  }
+
+  /**
+   * Moves the position to a row of the current page. The rows of a page are observed in order.
+   */
+  void observe(ViewRow row) {
+    if (row.getId().equals(lastDocId) && row.getKey().equals(lastKey)) {
+      // Another row at the same position, possibly right after the ones skipped by the page.
+      skip++;
+    } else {
+      lastKey = row.getKey();
+      lastDocId = row.getId();
+      skip = 1;
+    }
+  }
+
+  /**
+   * Ends the current page. A page which is not full is the last one.
+   *
+   * @param rows number of rows of the page
+   */
+  void endPage(int rows) {
+    if (rows < pageLimit) {
+      finished = true;
+    }
+  }
+
+  boolean isFinished() {
+    return finished;
+  }
+
+  String getLastKey() {
+    return lastKey;
+  }
+
+  String getLastDocId() {
+    return lastDocId;
+  }
+
+  int getSkip() {
+    return skip;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the pages of the rows of several view keys by querying many keys at once ({@code keys=[...]}), which
+ * saves a request for each key when keys have few rows.
+ *
+ * <p>The view returns the rows of the keys in the order the keys were given, so the rows are the same, in the same
+ * order, as when querying each key separately. If a page is full, the keys before the key of its last row are
+ * complete. That key is continued with a {@link KeysetPaginator} and then the remaining keys are queried at once
+ * again.</p>
+ *
+ * <p>The keys must be distinct, otherwise the rows of a key can't be told apart from those of its duplicate.</p>
+ */
+class MultiKeyPaginator implements Iterator<ViewResponse> {
+
+  private final ViewQuerier querier;
+  private final int docsPerPage;
+  private boolean includeDocs = true;
+
+  private List<String> remainingKeys;
+  private KeysetPaginator continuation;
+
+  /**
+   * @param keys view keys in JSON format
+   * @param docsPerPage maximum number of rows of a page
+   */
+  MultiKeyPaginator(CouchbaseClient client, View view, List<String> keys, int docsPerPage) {
+    this(ViewQuerier.of(client, view), keys, docsPerPage);
+  }
+
+  MultiKeyPaginator(ViewQuerier querier, List<String> keys, int docsPerPage) {
+    this.querier = querier;
+    this.remainingKeys = new ArrayList<>(keys);
+    this.docsPerPage = docsPerPage;
+  }
+
+  /**
+   * @param includeDocs whether pages include the documents of the rows, true by default
+   */
+  void setIncludeDocs(boolean includeDocs) {
+    this.includeDocs = includeDocs;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return continuation != null || !remainingKeys.isEmpty();
+  }
+
+  @Override
+  public ViewResponse next() {
+    if (continuation != null) {
+      ViewResponse response = continuation.next();
+      if (!continuation.hasNext()) {
+        continuation = null;
+      }
+      return response;
+    }
+    if (remainingKeys.isEmpty()) {
+      throw new NoSuchElementException();
+    }
+
+    Query query = new Query();
+    query.setKeys(ViewKeys.toJsonArray(remainingKeys));
+    query.setReduce(false);
+    query.setIncludeDocs(includeDocs);
+    query.setLimit(docsPerPage);
+    ViewResponse response = querier.query(query);
+
+    if (response.size() < docsPerPage) {
+      // All rows of all keys were returned.
+      remainingKeys = new ArrayList<>();
+    } else {
+      continueAfter(response);
+    }
+
+    return response;
+  }
+
+  /**
+   * Prepares to continue the key of the last row of a full page, followed by the keys after it.
+   */
+  private void continueAfter(ViewResponse response) {
+    int keyIndex = 0;
+    String lastKey = null;
+    String lastDocId = null;
+    int lastRows = 0;
+
+    for (ViewRow row : response) {
+      // Keys without rows are skipped.
+      String rowKey = ViewKeys.canonical(row.getKey());
+      while (!rowKey.equals(ViewKeys.canonical(remainingKeys.get(keyIndex)))) {
+        keyIndex++;
+        lastRows = 0;
+        if (keyIndex == remainingKeys.size()) {
+          throw new IllegalStateException("View returned unexpected key " + row.getKey() + ".");
+        }
+      }
+
+      if (lastRows > 0 && row.getId().equals(lastDocId)) {
+        lastRows++;
+      } else {
+        lastKey = row.getKey();
+        lastDocId = row.getId();
+        lastRows = 1;
+      }
+    }
+
+    continuation = new KeysetPaginator(querier, ViewKeyRange.forKey(remainingKeys.get(keyIndex)), docsPerPage);
+    continuation.setIncludeDocs(includeDocs);
+    continuation.resumeFrom(lastKey, lastDocId, lastRows);
+    remainingKeys = new ArrayList<>(remainingKeys.subList(keyIndex + 1, remainingKeys.size()));
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Pages can't be removed.");
+  }
+}
@@ -22,30 +22,65 @@ package com.avira.couchdoop.imp;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * An instance of this class is responsible of writing a page read from Couchbase in an HDFS file by using Hadoop HDFS
  * API.
+ *
+ * <p>Rows are encoded to UTF-8 straight into a buffer which is written to the file in large chunks. Keys and string
+ * documents go through the same {@link java.nio.charset.CharsetEncoder} and character buffer, and the delimiters are
+ * encoded once, so writing a row allocates nothing. Instances are not thread safe.</p>
  */
 public class PageFileWriter implements Closeable {
 
-  private OutputStream outputStream;
+  private static final int BUFFER_SIZE = 128 * 1024;
 
-  private String keyDocumentDelimiter = "\t";
-  private String rowDelimiter = "\n";
+  private final OutputStream outputStream;
+
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private CharBuffer chars = CharBuffer.allocate(1024);
+
+  private String keyDocumentDelimiter;
+  private String rowDelimiter;
+  private byte[] keyDocumentDelimiterBytes;
+  private byte[] rowDelimiterBytes;
+
+  private long bytes = 0;
+  private long rows = 0;
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PageFileWriter.class);
 
   public PageFileWriter(Configuration conf, String dirName, String baseName, int page) throws IOException {
+    this(create(conf, dirName, baseName, page));
+  }
+
+  /**
+   * Creates a writer of an already opened stream, which is closed together with the writer.
+   */
+  public PageFileWriter(OutputStream outputStream) {
+    this.outputStream = outputStream;
+    setKeyDocumentDelimiter("\t");
+    setRowDelimiter("\n");
+  }
+
+  private static OutputStream create(Configuration conf, String dirName, String baseName, int page)
+      throws IOException {
     String destinationPath;
     if (dirName.isEmpty()) {
       // If no dirName is provided write the file in current directory.
@@ -60,7 +95,7 @@ public class PageFileWriter implements Closeable {
     // Get an OutputStream for the output file.
     Path path = new Path(destinationPath);
     LOGGER.info("Creating file '" + path + "'...");
-    outputStream = fileSystem.create(path);
+    return fileSystem.create(path);
   }
 
   /**
@@ -70,24 +105,90 @@ public class PageFileWriter implements Closeable {
    * @throws IOException
    */
   public void write(String key, String document) throws IOException {
-    try {
-      // Write the key.
-      outputStream.write(key.getBytes("UTF-8"));
+    encode(key);
+    put(keyDocumentDelimiterBytes);
+    encode(document);
+    put(rowDelimiterBytes);
+    rows++;
+  }
+
+  /**
+   * Write a Couchbase document given as UTF-8 bytes, without decoding it
+   * @param key Couchbase document ID
+   * @param document Couchbase document value
+   * @throws IOException
+   */
+  public void write(String key, byte[] document) throws IOException {
+    encode(key);
+    put(keyDocumentDelimiterBytes);
+    put(document);
+    put(rowDelimiterBytes);
+    rows++;
+  }
 
-      // Write the key-document keyDocumentDelimiter.
-      outputStream.write(keyDocumentDelimiter.getBytes("UTF-8"));
+  /**
+   * Encodes a string to UTF-8 into the buffer, flushing the buffer whenever it fills up.
+   */
+  private void encode(String string) throws IOException {
+    int length = string.length();
+    if (chars.capacity() < length) {
+      chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+    }
+    chars.clear();
+    string.getChars(0, length, chars.array(), 0);
+    chars.limit(length);
+
+    encoder.reset();
+    CoderResult result = encoder.encode(chars, buffer, true);
+    while (result.isOverflow()) {
+      flushBuffer();
+      result = encoder.encode(chars, buffer, true);
+    }
+    while (encoder.flush(buffer).isOverflow()) {
+      flushBuffer();
+    }
+  }
 
-      // Write the document.
-      outputStream.write(document.getBytes("UTF-8"));
+  private void put(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.remaining()) {
+      flushBuffer();
+      if (bytes.length > buffer.capacity()) {
+        // Larger than the whole buffer, so there is nothing to gain from copying it.
+        outputStream.write(bytes);
+        this.bytes += bytes.length;
+        return;
+      }
+    }
+    buffer.put(bytes);
+  }
 
-      // Write the row keyDocumentDelimiter.
-      outputStream.write(rowDelimiter.getBytes("UTF-8"));
-    } catch (UnsupportedEncodingException e) { LOGGER.error("Shouldn't happen."); }
+  private void flushBuffer() throws IOException {
+    outputStream.write(buffer.array(), 0, buffer.position());
+    bytes += buffer.position();
+    buffer.clear();
   }
 
   @Override
   public void close() throws IOException {
-    IOUtils.closeStream(outputStream);
+    try {
+      flushBuffer();
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * @return number of bytes written, including those still buffered
+   */
+  public long getBytes() {
+    return bytes + buffer.position();
+  }
+
+  /**
+   * @return number of documents written
+   */
+  public long getRows() {
+    return rows;
   }
 
   public String getKeyDocumentDelimiter() {
@@ -96,6 +197,7 @@ public class PageFileWriter implements Closeable {
 
   public void setKeyDocumentDelimiter(String keyDocumentDelimiter) {
     this.keyDocumentDelimiter = keyDocumentDelimiter;
+    keyDocumentDelimiterBytes = keyDocumentDelimiter.getBytes(StandardCharsets.UTF_8);
   }
 
   public String getRowDelimiter() {
@@ -104,5 +206,6 @@ public class PageFileWriter implements Closeable {
 
   public void setRowDelimiter(String rowDelimiter) {
     this.rowDelimiter = rowDelimiter;
+    rowDelimiterBytes = rowDelimiter.getBytes(StandardCharsets.UTF_8);
   }
 }
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches pages in a background thread, ahead of their consumer, so that querying Couchbase overlaps with
+ * processing the pages already fetched.
+ *
+ * <p>The pages are produced by calling a {@link java.util.concurrent.Callable} until it returns null. At most
+ * {@code depth} pages wait to be consumed, on top of the page being fetched.</p>
+ */
+public class PagePrefetcher<T> implements Closeable {
+
+  /** Marks the end of the pages or a failure in the queue. */
+  private final Object END = new Object();
+
+  private final Callable<T> source;
+  private final BlockingQueue<Object> pages;
+  private final Thread thread;
+
+  private volatile Throwable failure;
+  private volatile boolean closed = false;
+  private boolean finished = false;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PagePrefetcher.class);
+
+  /**
+   * Starts fetching pages.
+   *
+   * @param source called from the background thread for each page; returns null when there are no more pages
+   * @param depth how many fetched pages may wait to be consumed; at least 1
+   */
+  public PagePrefetcher(Callable<T> source, int depth) {
+    this.source = source;
+    this.pages = new ArrayBlockingQueue<>(Math.max(1, depth));
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        fetch();
+      }
+    }, "couchdoop-page-prefetcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void fetch() {
+    try {
+      T page;
+      while ((page = source.call()) != null) {
+        pages.put(page);
+      }
+    } catch (InterruptedException e) {
+      // Closed by the consumer.
+    } catch (Throwable e) {
+      if (!closed) {
+        LOGGER.error("Failed to fetch page.", e);
+        failure = e;
+      }
+    } finally {
+      // The consumer would otherwise wait forever, whatever stopped this thread.
+      if (!closed) {
+        try {
+          pages.put(END);
+        } catch (InterruptedException e) {
+          // Closed by the consumer.
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for the next page.
+   *
+   * @return the next page or null if there are no more pages
+   * @throws IOException if fetching a page failed with an exception; errors are rethrown as they are
+   */
+  @SuppressWarnings("unchecked")
+  public T take() throws IOException, InterruptedException {
+    if (finished) {
+      return null;
+    }
+
+    Object page = pages.take();
+    if (page == END) {
+      finished = true;
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new IOException("Failed to fetch page.", failure);
+      }
+      return null;
+    }
+
+    return (T) page;
+  }
+
+  /**
+   * Stops fetching pages.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    thread.interrupt();
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowNoDocs;
+
+/**
+ * Chooses the number of rows of the next view page from the size and latency of the pages fetched so far, so that
+ * pages get close to a target number of bytes and a target latency, within bounds.
+ *
+ * <p>The page size changes at most by a factor of two from a page to the next one, so that a single unusual page
+ * can't change it too much. The latency is only taken into account for full pages, because the latency of the few
+ * rows at the end of a key is mostly the fixed cost of a request.</p>
+ */
+public class PageSizeController {
+
+  private static final double MAX_CHANGE = 2.0;
+
+  private final int minPageSize;
+  private final int maxPageSize;
+  private final long targetBytes;
+  private final long targetLatency; // ms
+
+  private int pageSize;
+
+  private long pages = 0;
+  private long pageSizeTotal = 0;
+  private int minChosenPageSize = Integer.MAX_VALUE;
+  private int maxChosenPageSize = 0;
+
+  /**
+   * @param initialPageSize number of rows of the first page
+   * @param minPageSize minimum number of rows of a page
+   * @param maxPageSize maximum number of rows of a page
+   * @param targetBytes target size of a page in bytes; 0 for no target
+   * @param targetLatency target latency of a page in milliseconds; 0 for no target
+   */
+  public PageSizeController(int initialPageSize, int minPageSize, int maxPageSize, long targetBytes,
+                            long targetLatency) {
+    if (minPageSize < 1 || maxPageSize < minPageSize) {
+      throw new IllegalArgumentException("Invalid page size bounds [" + minPageSize + ", " + maxPageSize + "].");
+    }
+
+    this.minPageSize = minPageSize;
+    this.maxPageSize = maxPageSize;
+    this.targetBytes = targetBytes;
+    this.targetLatency = targetLatency;
+    this.pageSize = bound(initialPageSize);
+  }
+
+  /**
+   * @return number of rows of the next page
+   */
+  public synchronized int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Adjusts the page size after a page was fetched with the current page size.
+   *
+   * @param rows number of rows of the page
+   * @param bytes size of the page, see {@link #sizeOf(com.couchbase.client.protocol.views.ViewRow)}
+   * @param latency time it took to fetch the page in milliseconds
+   */
+  public synchronized void update(int rows, long bytes, long latency) {
+    pages++;
+    pageSizeTotal += pageSize;
+    minChosenPageSize = Math.min(minChosenPageSize, pageSize);
+    maxChosenPageSize = Math.max(maxChosenPageSize, pageSize);
+
+    if (rows == 0) {
+      return;
+    }
+
+    double desiredPageSize = Double.MAX_VALUE;
+    if (targetBytes > 0 && bytes > 0) {
+      desiredPageSize = (double) rows * targetBytes / bytes;
+    }
+    if (targetLatency > 0 && latency > 0 && rows >= pageSize) {
+      desiredPageSize = Math.min(desiredPageSize, (double) rows * targetLatency / latency);
+    }
+    if (desiredPageSize == Double.MAX_VALUE) {
+      // Nothing was learned from the page.
+      return;
+    }
+
+    double change = Math.max(1 / MAX_CHANGE, Math.min(MAX_CHANGE, desiredPageSize / pageSize));
+    pageSize = bound((int) Math.round(pageSize * change));
+  }
+
+  private int bound(int size) {
+    return Math.max(minPageSize, Math.min(maxPageSize, size));
+  }
+
+  /**
+   * @return number of pages fetched
+   */
+  public synchronized long getPages() {
+    return pages;
+  }
+
+  /**
+   * @return sum of the page sizes of the pages fetched
+   */
+  public synchronized long getPageSizeTotal() {
+    return pageSizeTotal;
+  }
+
+  /**
+   * @return smallest page size used or 0 if no page was fetched
+   */
+  public synchronized int getMinChosenPageSize() {
+    return pages == 0 ? 0 : minChosenPageSize;
+  }
+
+  /**
+   * @return largest page size used
+   */
+  public synchronized int getMaxChosenPageSize() {
+    return maxChosenPageSize;
+  }
+
+  /**
+   * Estimates the number of bytes of a view row, with its document if it has one. String lengths are used instead of their UTF-8
+   * sizes, which is close enough for sizing pages.
+   */
+  public static long sizeOf(ViewRow row) {
+    long size = length(row.getId()) + length(row.getKey()) + length(row.getValue());
+
+    Object document = row instanceof ViewRowNoDocs ? null : row.getDocument();
+    if (document instanceof byte[]) {
+      size += ((byte[]) document).length;
+    } else if (document != null) {
+      size += document.toString().length();
+    }
+    return size;
+  }
+
+  private static int length(String s) {
+    return s == null ? 0 : s.length();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PageSizeController{" +
+        "pageSize=" + pageSize +
+        ", pages=" + pages +
+        ", averagePageSize=" + (pages == 0 ? 0 : pageSizeTotal / pages) +
+        ", minChosenPageSize=" + getMinChosenPageSize() +
+        ", maxChosenPageSize=" + maxChosenPageSize +
+        '}';
+  }
+}
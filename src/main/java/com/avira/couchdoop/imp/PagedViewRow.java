@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+
+/**
+ * View row read by a task which saves checkpoints. The last row of a page carries the checkpoint from which a retried
+ * attempt of the task may continue once the page is written.
+ */
+public class PagedViewRow implements ViewRow {
+
+  private final ViewRow row;
+  private final ImportCheckpoint checkpoint;
+
+  public PagedViewRow(ViewRow row, ImportCheckpoint checkpoint) {
+    this.row = row;
+    this.checkpoint = checkpoint;
+  }
+
+  @Override
+  public String getId() {
+    return row.getId();
+  }
+
+  @Override
+  public String getKey() {
+    return row.getKey();
+  }
+
+  @Override
+  public String getValue() {
+    return row.getValue();
+  }
+
+  @Override
+  public String getBbox() {
+    return row.getBbox();
+  }
+
+  @Override
+  public String getGeometry() {
+    return row.getGeometry();
+  }
+
+  @Override
+  public Object getDocument() {
+    return row.getDocument();
+  }
+
+  /**
+   * @return the checkpoint after the page if this is its last row, otherwise null
+   */
+  public ImportCheckpoint getCheckpoint() {
+    return checkpoint;
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Writes Couchbase documents to a sequence of HDFS files with {@link PageFileWriter}, starting a new file when the
+ * current one reaches a size, so that an import writes a few large files instead of one file for each page. Files are
+ * named {@code baseName-00000}, {@code baseName-00001} etc., followed by the extension of the compression codec if
+ * there is one.
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class RollingFileWriter implements Closeable {
+
+  private final Configuration conf;
+  private final String dirName;
+  private final String baseName;
+  private final long maxFileBytes;
+  private final CompressionCodec codec;
+
+  private PageFileWriter writer;
+  private Compressor compressor;
+  private int files = 0;
+  private long closedBytes = 0;
+  private long closedRows = 0;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RollingFileWriter.class);
+
+  /**
+   * @param maxFileBytes size in bytes, before compression, after which a new file is started
+   * @param codec compression codec of the files or null to write them uncompressed
+   */
+  public RollingFileWriter(Configuration conf, String dirName, String baseName, long maxFileBytes,
+                           CompressionCodec codec) {
+    this.conf = conf;
+    this.dirName = dirName;
+    this.baseName = baseName;
+    this.maxFileBytes = maxFileBytes;
+    this.codec = codec;
+  }
+
+  /**
+   * Write a Couchbase document
+   * @param key Couchbase document ID
+   * @param document Couchbase document value
+   */
+  public void write(String key, String document) throws IOException {
+    rollIfNeeded();
+    writer.write(key, document);
+  }
+
+  /**
+   * Write a Couchbase document given as UTF-8 bytes, without decoding it
+   * @param key Couchbase document ID
+   * @param document Couchbase document value
+   */
+  public void write(String key, byte[] document) throws IOException {
+    rollIfNeeded();
+    writer.write(key, document);
+  }
+
+  /**
+   * Closes the current file if it is full and starts the next one.
+   */
+  private void rollIfNeeded() throws IOException {
+    if (writer != null && writer.getBytes() < maxFileBytes) {
+      return;
+    }
+    close();
+
+    String fileName = baseName + "-" + String.format("%05d", files++) +
+        (codec == null ? "" : codec.getDefaultExtension());
+    Path path = dirName.isEmpty() ? new Path(fileName) : new Path(dirName, fileName);
+    FileSystem fileSystem = FileSystem.get(URI.create(path.toString()), conf);
+
+    LOGGER.info("Creating file '" + path + "'...");
+    OutputStream outputStream = fileSystem.create(path);
+    if (codec != null) {
+      compressor = CodecPool.getCompressor(codec, conf);
+      outputStream = codec.createOutputStream(outputStream, compressor);
+    }
+    writer = new PageFileWriter(outputStream);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (writer != null) {
+      try {
+        writer.close();
+      } finally {
+        closedBytes += writer.getBytes();
+        closedRows += writer.getRows();
+        writer = null;
+        if (compressor != null) {
+          CodecPool.returnCompressor(compressor);
+          compressor = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of files started
+   */
+  public int getFiles() {
+    return files;
+  }
+
+  /**
+   * @return number of bytes written, before compression
+   */
+  public long getBytes() {
+    return closedBytes + (writer == null ? 0 : writer.getBytes());
+  }
+
+  /**
+   * @return number of documents written
+   */
+  public long getRows() {
+    return closedRows + (writer == null ? 0 : writer.getRows());
+  }
+}
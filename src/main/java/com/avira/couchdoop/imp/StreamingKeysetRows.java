@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates the rows of a view key, or of a range of view rows, without their documents, page by page like
+ * {@link KeysetPaginator}, but streaming the rows of each page with a {@link StreamingViewClient}. The next page is
+ * queried only after the rows of the current one were read, so pages can be much larger than when they are read
+ * whole.
+ */
+public class StreamingKeysetRows implements Iterator<ViewRow>, Closeable {
+
+  private final StreamingViewClient client;
+  private final String designDocumentName;
+  private final String viewName;
+  private final KeysetPosition position;
+
+  private StreamingViewRows pageRows;
+  private int pageSize;
+
+  /**
+   * @param range rows to iterate
+   * @param docsPerPage maximum number of rows of a page
+   */
+  public StreamingKeysetRows(StreamingViewClient client, String designDocumentName, String viewName,
+                             ViewKeyRange range, int docsPerPage) {
+    this.client = client;
+    this.designDocumentName = designDocumentName;
+    this.viewName = viewName;
+    this.position = new KeysetPosition(range, docsPerPage);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (pageRows == null || !pageRows.hasNext()) {
+      if (pageRows != null) {
+        pageRows = null;
+        position.endPage(pageSize);
+      }
+      if (position.isFinished()) {
+        return false;
+      }
+
+      try {
+        pageRows = client.query(designDocumentName, viewName, position.getPageQuery());
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to query view " + viewName + ".", e);
+      }
+      pageSize = 0;
+    }
+
+    return true;
+  }
+
+  @Override
+  public ViewRow next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    ViewRow row = pageRows.next();
+    pageSize++;
+    position.observe(row);
+    return row;
+  }
+
+  @Override
+  public void close() {
+    if (pageRows != null) {
+      pageRows.close();
+      pageRows = null;
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("View rows can't be removed.");
+  }
+}
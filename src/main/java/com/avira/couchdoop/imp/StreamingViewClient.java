@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Queries Couchbase views directly through the view REST API and returns the rows one at a time, as they are parsed
+ * from the HTTP response, instead of reading the whole response in memory like the Couchbase client does.
+ *
+ * <p>Rows are returned without documents. Queries are sent to the nodes of the cluster in turns, starting from a
+ * random one, and a node which can't be reached is skipped.</p>
+ */
+public class StreamingViewClient {
+
+  /** Default port of the Couchbase view REST API. */
+  public static final int VIEW_PORT = 8092;
+
+  private static final int CONNECT_TIMEOUT = 10000; // ms
+  private static final int READ_TIMEOUT = 75000; // ms, the view timeout of the Couchbase client
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final List<String> nodes;
+  private final String bucket;
+  private final String authorization;
+  private int nextNode;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingViewClient.class);
+
+  /**
+   * @param urls Couchbase URLs of the cluster, whose hosts are the nodes queried
+   * @param viewPort port of the view REST API
+   */
+  public StreamingViewClient(List<URI> urls, int viewPort, String bucket, String password) {
+    if (urls.isEmpty()) {
+      throw new IllegalArgumentException("At least one Couchbase URL is needed.");
+    }
+
+    this.nodes = new ArrayList<>(urls.size());
+    for (URI url : urls) {
+      nodes.add("http://" + url.getHost() + ":" + viewPort);
+    }
+    this.bucket = bucket;
+    this.authorization = password == null || password.isEmpty() ? null :
+        "Basic " + new String(Base64.encodeBase64((bucket + ":" + password).getBytes(UTF_8)), UTF_8);
+    this.nextNode = new Random().nextInt(nodes.size());
+  }
+
+  /**
+   * Queries a view, without its documents. The rows must be read or closed before querying again.
+   *
+   * @param query view query; documents are never included
+   */
+  public StreamingViewRows query(String designDocumentName, String viewName, Query query) throws IOException {
+    String path = "/" + encode(bucket) + "/_design/" + encode(designDocumentName) + "/_view/" + encode(viewName) +
+        query.toString();
+
+    IOException lastException = null;
+    for (int i = 0; i < nodes.size(); i++) {
+      String node = nodes.get(nextNode);
+      nextNode = (nextNode + 1) % nodes.size();
+
+      HttpURLConnection connection = open(new URL(node + path));
+      int status;
+      try {
+        status = connection.getResponseCode();
+      } catch (IOException e) {
+        LOGGER.warn("Unable to query view {} on node {}: {}", viewName, node, e.getMessage());
+        connection.disconnect();
+        lastException = e;
+        continue;
+      }
+
+      if (status != HttpURLConnection.HTTP_OK) {
+        // Errors of the query itself are the same on all nodes.
+        throw new IOException("View query " + path + " failed with HTTP status " + status + ": " +
+            readError(connection));
+      }
+      return new StreamingViewRows(connection);
+    }
+
+    throw lastException;
+  }
+
+  private HttpURLConnection open(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(READ_TIMEOUT);
+    connection.setRequestProperty("Accept", "application/json");
+    if (authorization != null) {
+      connection.setRequestProperty("Authorization", authorization);
+    }
+    return connection;
+  }
+
+  private static String readError(HttpURLConnection connection) throws IOException {
+    InputStream error = connection.getErrorStream();
+    try {
+      return error == null ? "" : IOUtils.toString(error, "UTF-8");
+    } finally {
+      IOUtils.closeQuietly(error);
+      connection.disconnect();
+    }
+  }
+
+  private static String encode(String pathSegment) throws IOException {
+    // The design document name may have a "dev_" prefix, but never a slash.
+    return URLEncoder.encode(pathSegment, "UTF-8").replace("+", "%20");
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowNoDocs;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows of a view response, parsed one at a time from the response stream, so only the current row is held in
+ * memory. Keys and values are represented as by the Couchbase client: strings as they are and other values in JSON
+ * format.
+ *
+ * <p>Errors reported by the view after the rows, for instance by nodes which could not be reached, are logged.
+ * Failures to read the response are thrown as {@link java.lang.IllegalStateException}s, because iterators can't
+ * throw checked exceptions.</p>
+ */
+public class StreamingViewRows implements Iterator<ViewRow>, Closeable {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final JsonParser parser;
+  private final HttpURLConnection connection;
+
+  private ViewRow nextRow;
+  private boolean finished = false;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StreamingViewRows.class);
+
+  StreamingViewRows(HttpURLConnection connection) throws IOException {
+    this(connection.getInputStream(), connection);
+  }
+
+  /**
+   * @param in view response
+   * @param connection connection the response is read from, if any, which is closed together with the rows
+   */
+  StreamingViewRows(InputStream in, HttpURLConnection connection) throws IOException {
+    this.parser = JSON_FACTORY.createJsonParser(in);
+    this.connection = connection;
+
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("The view response is not a JSON object.");
+      }
+      if (!moveToRows()) {
+        finish();
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Skips the fields before the rows, like the total number of rows.
+   *
+   * @return false if the response has no rows
+   */
+  private boolean moveToRows() throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (field.equals("rows") && token == JsonToken.START_ARRAY) {
+        return true;
+      }
+      readTrailingField(field);
+    }
+    return false;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextRow != null) {
+      return true;
+    }
+    if (finished) {
+      return false;
+    }
+
+    try {
+      nextRow = readRow();
+    } catch (IOException e) {
+      close();
+      throw new IllegalStateException("Unable to read the view response.", e);
+    }
+    return nextRow != null;
+  }
+
+  @Override
+  public ViewRow next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    ViewRow row = nextRow;
+    nextRow = null;
+    return row;
+  }
+
+  /**
+   * @return the next row or null if there are no more rows
+   */
+  private ViewRow readRow() throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.END_ARRAY) {
+      // Read the errors after the rows.
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        readTrailingField(field);
+      }
+      finish();
+      return null;
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new IOException("Unexpected " + token + " instead of a view row.");
+    }
+
+    String id = null;
+    String key = null;
+    String value = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("id")) {
+        id = parser.getText();
+      } else if (field.equals("key")) {
+        key = readValue();
+      } else if (field.equals("value")) {
+        value = readValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    return new ViewRowNoDocs(id, key, value);
+  }
+
+  /**
+   * Reads the current value as the Couchbase client represents keys and values.
+   */
+  private String readValue() throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+      return parser.getText();
+    }
+
+    StringWriter json = new StringWriter();
+    JsonGenerator generator = JSON_FACTORY.createJsonGenerator(json);
+    generator.copyCurrentStructure(parser);
+    generator.close();
+    return json.toString();
+  }
+
+  private void readTrailingField(String field) throws IOException {
+    if (field.equals("errors") && parser.getCurrentToken() == JsonToken.START_ARRAY) {
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        LOGGER.warn("View error: {}", readValue());
+      }
+    } else {
+      parser.skipChildren();
+    }
+  }
+
+  private void finish() {
+    finished = true;
+    close();
+  }
+
+  /**
+   * Closes the response. If it wasn't read until the end, the connection is closed too.
+   */
+  @Override
+  public void close() {
+    try {
+      parser.close();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to close the view response: {}", e.getMessage());
+    }
+    if (!finished && connection != null) {
+      connection.disconnect();
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("View rows can't be removed.");
+  }
+}
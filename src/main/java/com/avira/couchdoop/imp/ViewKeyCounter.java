@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the rows of view keys by querying a view with a {@code _count} reduce, grouped by key, for batches of
+ * keys ({@code keys=[...]}).
+ */
+class ViewKeyCounter {
+
+  /** Number of keys counted by a query, which keeps the query URL short enough. */
+  private static final int KEYS_PER_QUERY = 64;
+
+  private final CouchbaseClient client;
+  private final View countView;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ViewKeyCounter.class);
+
+  /**
+   * @param countView view which emits the same keys as the view being imported and has a {@code _count} reduce
+   */
+  ViewKeyCounter(CouchbaseClient client, View countView) {
+    if (!countView.hasReduce()) {
+      throw new IllegalArgumentException("View " + countView.getViewName() + " doesn't have a reduce function.");
+    }
+
+    this.client = client;
+    this.countView = countView;
+  }
+
+  /**
+   * @param keys view keys in JSON format
+   * @return the number of rows of each key
+   */
+  long[] count(String[] keys) {
+    long[] counts = new long[keys.length];
+
+    for (int from = 0; from < keys.length; from += KEYS_PER_QUERY) {
+      int to = Math.min(keys.length, from + KEYS_PER_QUERY);
+
+      Query query = new Query();
+      query.setKeys(ViewKeys.toJsonArray(Arrays.asList(keys).subList(from, to)));
+      query.setGroup(true);
+      ViewResponse response = client.query(countView, query);
+
+      // Keys without rows are missing from the response.
+      Map<String, Long> keyCounts = new HashMap<>();
+      for (ViewRow row : response) {
+        keyCounts.put(ViewKeys.canonical(row.getKey()), Long.parseLong(row.getValue()));
+      }
+      for (int i = from; i < to; i++) {
+        Long count = keyCounts.get(ViewKeys.canonical(keys[i]));
+        counts[i] = (count == null ? 0 : count);
+      }
+    }
+
+    LOGGER.info("Counted the rows of {} keys in view {}.", keys.length, countView.getViewName());
+    return counts;
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Range of view rows, between a start and an end position. A position is a view key in JSON format, optionally
+ * followed by a document ID, because rows with the same key are sorted by document ID. A null start or end key
+ * leaves the range open on that side.
+ *
+ * <p>The start is inclusive. The end is inclusive unless {@code inclusiveEnd} is false.</p>
+ */
+public class ViewKeyRange implements Writable {
+
+  private String startKey;
+  private String startDocId;
+  private String endKey;
+  private String endDocId;
+  private boolean inclusiveEnd = true;
+
+  /**
+   * Default constructor (necessary because this is a Writable)
+   */
+  public ViewKeyRange() {
+  }
+
+  public ViewKeyRange(String startKey, String startDocId, String endKey, String endDocId, boolean inclusiveEnd) {
+    this.startKey = startKey;
+    this.startDocId = startDocId;
+    this.endKey = endKey;
+    this.endDocId = endDocId;
+    this.inclusiveEnd = inclusiveEnd;
+  }
+
+  /**
+   * @return the range of all rows of a view key
+   */
+  public static ViewKeyRange forKey(String key) {
+    return new ViewKeyRange(key, null, key, null, true);
+  }
+
+  /**
+   * Sets the bounds of the range to a view query.
+   */
+  public Query applyTo(Query query) {
+    if (startKey != null) {
+      query.setRangeStart(startKey);
+    }
+    if (startDocId != null) {
+      query.setStartkeyDocID(startDocId);
+    }
+    if (endKey != null) {
+      query.setRangeEnd(endKey);
+    }
+    if (endDocId != null) {
+      query.setEndkeyDocID(endDocId);
+    }
+    if (!inclusiveEnd) {
+      query.setInclusiveEnd(false);
+    }
+    return query;
+  }
+
+  /**
+   * Converts the key of a row of this range, as returned by the Couchbase client, back to JSON.
+   *
+   * <p>The client returns string keys without quotes, so a string key which looks like a JSON number or literal
+   * can't be told apart from one. It is assumed to be a string if the bounds of the range are strings.</p>
+   */
+  public String toJsonKey(String rowKey) {
+    if (rowKey.startsWith("[") || rowKey.startsWith("{")) {
+      return rowKey;
+    }
+    if (isJsonString(startKey) || isJsonString(endKey)) {
+      return JSONObject.quote(rowKey);
+    }
+    return rowKey;
+  }
+
+  private static boolean isJsonString(String key) {
+    return key != null && key.startsWith("\"");
+  }
+
+  /**
+   * @return whether all rows of the range have the same key
+   */
+  public boolean isSingleKey() {
+    return startKey != null && startKey.equals(endKey) && startDocId == null && endDocId == null;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeString(out, startKey);
+    WritableUtils.writeString(out, startDocId);
+    WritableUtils.writeString(out, endKey);
+    WritableUtils.writeString(out, endDocId);
+    out.writeBoolean(inclusiveEnd);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    startKey = WritableUtils.readString(in);
+    startDocId = WritableUtils.readString(in);
+    endKey = WritableUtils.readString(in);
+    endDocId = WritableUtils.readString(in);
+    inclusiveEnd = in.readBoolean();
+  }
+
+  public String getStartKey() {
+    return startKey;
+  }
+
+  public String getStartDocId() {
+    return startDocId;
+  }
+
+  public String getEndKey() {
+    return endKey;
+  }
+
+  public String getEndDocId() {
+    return endDocId;
+  }
+
+  public boolean isInclusiveEnd() {
+    return inclusiveEnd;
+  }
+
+  @Override
+  public String toString() {
+    return (startKey == null ? "(" : "[" + startKey + (startDocId == null ? "" : " " + startDocId)) + ", " +
+        (endKey == null ? ")" : endKey + (endDocId == null ? "" : " " + endDocId) + (inclusiveEnd ? "]" : ")"));
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * High-watermark of incremental view imports, which holds the last number imported from each numeric view key range
+ * ({@code ((a-b))}) and is persisted in a small HDFS file. Each line of the file has the key range, with
+ * {@code ((*))} instead of the numbers, and the last number imported, separated by a tab.
+ */
+public class ViewKeyWatermark {
+
+  private static final String SEPARATOR = "\t";
+
+  private final FileSystem fileSystem;
+  private final Path path;
+  private final Map<String, Integer> lastImported = new TreeMap<>();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ViewKeyWatermark.class);
+
+  /**
+   * Loads the watermark from a file. If the file doesn't exist, nothing was imported yet.
+   */
+  public ViewKeyWatermark(Configuration conf, String path) throws IOException {
+    this.fileSystem = FileSystem.get(URI.create(path), conf);
+    this.path = new Path(path);
+
+    if (!fileSystem.exists(this.path)) {
+      LOGGER.info("Watermark file '{}' doesn't exist yet.", path);
+      return;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(fileSystem.open(this.path), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        int separator = line.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+          throw new IOException("Invalid line in watermark file '" + path + "': " + line);
+        }
+        lastImported.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1).trim()));
+      }
+    }
+    LOGGER.info("Loaded watermark {} from '{}'.", lastImported, path);
+  }
+
+  /**
+   * @param viewKeysString view keys with numeric ranges
+   * @return the view keys which were not imported yet, or an empty string if all were
+   */
+  public String clip(String viewKeysString) {
+    return ImportViewArgs.clipViewKeys(viewKeysString, lastImported);
+  }
+
+  /**
+   * Raises the watermark to the last numbers of the ranges of some view keys which were imported.
+   */
+  public void advance(String viewKeysString) {
+    for (Map.Entry<String, Integer> rangeEnd : ImportViewArgs.getKeyRangeEnds(viewKeysString).entrySet()) {
+      Integer last = lastImported.get(rangeEnd.getKey());
+      if (last == null || last < rangeEnd.getValue()) {
+        lastImported.put(rangeEnd.getKey(), rangeEnd.getValue());
+      }
+    }
+  }
+
+  /**
+   * Writes the watermark to a temporary file which then replaces the watermark file, so a failure while writing
+   * leaves the previous watermark in place.
+   */
+  public void save() throws IOException {
+    Path tmpPath = new Path(path.getParent(), "." + path.getName() + ".tmp");
+    try (FSDataOutputStream out = fileSystem.create(tmpPath, true);
+         Writer writer = new OutputStreamWriter(out, "UTF-8")) {
+      for (Map.Entry<String, Integer> entry : lastImported.entrySet()) {
+        writer.write(entry.getKey() + SEPARATOR + entry.getValue() + "\n");
+      }
+    }
+
+    if (fileSystem.exists(path) && !fileSystem.delete(path, false)) {
+      throw new IOException("Unable to replace watermark file '" + path + "'.");
+    }
+    if (!fileSystem.rename(tmpPath, path)) {
+      throw new IOException("Unable to rename '" + tmpPath + "' to '" + path + "'.");
+    }
+    LOGGER.info("Saved watermark {} to '{}'.", lastImported, path);
+  }
+
+  Map<String, Integer> getLastImported() {
+    return lastImported;
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Helper methods for view keys given in JSON format, where plain strings without quotes are accepted, like the
+ * Couchbase client does.
+ */
+final class ViewKeys {
+
+  private ViewKeys() {
+  }
+
+  private static Object parse(String key) {
+    try {
+      JSONArray array = new JSONArray("[" + key + "]");
+      if (array.length() == 1) {
+        return array.get(0);
+      }
+    } catch (JSONException e) {
+      // Not JSON, so a plain string.
+    }
+    return key;
+  }
+
+  /**
+   * @return the key as a JSON value
+   */
+  static String toJson(String key) {
+    Object value = parse(key);
+    return value instanceof String ? JSONObject.quote((String) value) : value.toString();
+  }
+
+  /**
+   * @return a JSON array of keys, as expected by {@link com.couchbase.client.protocol.views.Query#setKeys(String)}
+   */
+  static String toJsonArray(List<String> keys) {
+    StringBuilder json = new StringBuilder("[");
+    for (String key : keys) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append(toJson(key));
+    }
+    return json.append(']').toString();
+  }
+
+  /**
+   * @return the key in the form returned by the Couchbase client for view rows, where strings lack quotes
+   */
+  static String canonical(String key) {
+    return parse(key).toString();
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+
+/**
+ * Runs queries on a single view. Paginators and samplers query views through it, so that they can also run against
+ * an in-memory view.
+ */
+abstract class ViewQuerier {
+
+  abstract ViewResponse query(Query query);
+
+  /**
+   * @return querier of a view through the Couchbase client
+   */
+  static ViewQuerier of(final CouchbaseClient client, final View view) {
+    return new ViewQuerier() {
+      @Override
+      ViewResponse query(Query query) {
+        return client.query(view, query);
+      }
+    };
+  }
+}
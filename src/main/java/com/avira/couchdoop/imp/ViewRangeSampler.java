@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Samples a range of view rows in order to cut it into sub-ranges with roughly the same number of rows.
+ *
+ * <p>The view is probed with queries which return a single row at a given index of the range, without documents.
+ * The number of rows is found by doubling the index until it is past the end of the range and then by bisecting,
+ * with a precision which is enough for the requested number of sub-ranges. The sub-ranges are then bounded by the
+ * rows at equally spaced indices.</p>
+ *
+ * <p>The view engine walks all the rows skipped by a query, so a probe doesn't skip from the start of the range but
+ * from the closest row found by an earlier probe ({@code startkey} and {@code startkey_docid}). All the probes then
+ * walk only a few times the rows of the range, instead of about that many for each probe. The index of a row found
+ * this way is off by the number of times its document emitted the same key before it, which is too little to
+ * matter for splitting.</p>
+ */
+class ViewRangeSampler {
+
+  private final ViewQuerier querier;
+  private final ViewKeyRange range;
+
+  private int probes = 0;
+
+  /** Rows found by the probes, by index, which later probes start from. */
+  private final TreeMap<Long, ViewRow> anchors = new TreeMap<>();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ViewRangeSampler.class);
+
+  ViewRangeSampler(CouchbaseClient client, View view, ViewKeyRange range) {
+    this(ViewQuerier.of(client, view), range);
+  }
+
+  ViewRangeSampler(ViewQuerier querier, ViewKeyRange range) {
+    this.querier = querier;
+    this.range = range;
+  }
+
+  /**
+   * Estimates the number of rows of the range.
+   *
+   * @param numSplits number of sub-ranges the estimate is going to be used for; more sub-ranges need more precision
+   */
+  long estimateRows(int numSplits) {
+    if (rowAt(0) == null) {
+      return 0;
+    }
+
+    // The range has more than lo rows and at most hi rows.
+    long lo = 1;
+    long hi = 2;
+    while (rowAt(hi - 1) != null) {
+      lo = hi;
+      hi *= 2;
+    }
+
+    // An error of a small fraction of a sub-range is good enough.
+    long tolerance = Math.max(1, lo / (16L * Math.max(1, numSplits)));
+    while (hi - lo > tolerance) {
+      long mid = lo + (hi - lo) / 2;
+      if (rowAt(mid - 1) != null) {
+        lo = mid;
+      } else {
+        hi = mid;
+      }
+    }
+
+    LOGGER.info("Estimated {} rows in range {} with {} probes.", lo, range, probes);
+    return lo;
+  }
+
+  /**
+   * Cuts the range into sub-ranges with roughly the same number of rows. Fewer sub-ranges are returned if there are
+   * not enough rows.
+   *
+   * @param rows estimated number of rows of the range
+   * @param numSplits number of sub-ranges
+   */
+  List<ViewKeyRange> split(long rows, int numSplits) {
+    List<ViewKeyRange> ranges = new ArrayList<>(numSplits);
+
+    String startKey = range.getStartKey();
+    String startDocId = range.getStartDocId();
+    long startIndex = 0;
+    for (int i = 1; i < numSplits; i++) {
+      long index = rows * i / numSplits;
+      if (index == startIndex) {
+        // Too few rows for this many sub-ranges.
+        continue;
+      }
+
+      ViewRow boundary = rowAt(index);
+      if (boundary == null) {
+        // The range has fewer rows than estimated.
+        break;
+      }
+
+      String boundaryKey = range.toJsonKey(boundary.getKey());
+      if (boundaryKey.equals(startKey) && boundary.getId().equals(startDocId)) {
+        // Too few rows for this many sub-ranges.
+        continue;
+      }
+
+      // Rows at the boundary belong to the next sub-range.
+      ranges.add(new ViewKeyRange(startKey, startDocId, boundaryKey, boundary.getId(), false));
+      startKey = boundaryKey;
+      startDocId = boundary.getId();
+      startIndex = index;
+    }
+    ranges.add(new ViewKeyRange(startKey, startDocId, range.getEndKey(), range.getEndDocId(),
+        range.isInclusiveEnd()));
+
+    LOGGER.info("Cut range {} into {} sub-ranges with {} probes.", range, ranges.size(), probes);
+    return ranges;
+  }
+
+  /**
+   * @return the row at an index of the range or null if the range has fewer rows
+   */
+  ViewRow rowAt(long index) {
+    Map.Entry<Long, ViewRow> anchor = anchors.floorEntry(index);
+    long position = anchor == null ? 0 : anchor.getKey();
+    ViewRow row = anchor == null ? null : anchor.getValue();
+
+    // Skips larger than an int are done in several hops.
+    while (row == null || position < index) {
+      int skip = (int) Math.min(index - position, Integer.MAX_VALUE);
+      Query query = range.applyTo(new Query());
+      if (row != null) {
+        query.setRangeStart(range.isSingleKey() ? range.getStartKey() : range.toJsonKey(row.getKey()));
+        query.setStartkeyDocID(row.getId());
+      }
+      query.setReduce(false);
+      query.setSkip(skip);
+      query.setLimit(1);
+      ViewResponse response = querier.query(query);
+      probes++;
+
+      Iterator<ViewRow> rows = response.iterator();
+      if (!rows.hasNext()) {
+        return null;
+      }
+      row = rows.next();
+      position += skip;
+      anchors.put(position, row);
+    }
+
+    return row;
+  }
+}
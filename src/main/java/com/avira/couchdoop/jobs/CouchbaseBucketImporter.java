@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.jobs;
+
+import com.avira.couchdoop.ArgsException;
+import com.avira.couchdoop.ArgsHelper;
+import com.avira.couchdoop.imp.CouchbaseBucketInputFormat;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat;
+import com.avira.couchdoop.imp.CouchbaseViewToFileMapper;
+import com.avira.couchdoop.imp.ImportBucketArgs;
+import com.avira.couchdoop.imp.ImportOutputFormats;
+import com.avira.couchdoop.imp.ImportViewArgs;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Instances of this class import all the documents of a Couchbase bucket in HDFS files, without a view.
+ */
+public class CouchbaseBucketImporter extends Configured implements Tool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseBucketImporter.class);
+
+  public void start(String[] args) throws ArgsException {
+    int exitCode = 0;
+    try {
+      exitCode = ToolRunner.run(this, args);
+    } catch (ArgsException e) {
+      throw e;
+    } catch (Exception e) {
+      LOGGER.error(ExceptionUtils.getStackTrace(e));
+    }
+
+    System.exit(exitCode);
+  }
+
+  @Override
+  public int run(String[] args) throws ArgsException {
+    Configuration conf = getConf();
+
+    ArgsHelper.loadCliArgsIntoHadoopConf(conf, ImportBucketArgs.ARGS_LIST, args);
+    ImportBucketArgs importBucketArgs = new ImportBucketArgs(conf);
+
+    Job job;
+    boolean exitStatus = true;
+    try {
+      job = configureJob(conf, importBucketArgs.getOutput(), ImportViewArgs.getOutputFormat(conf),
+          ImportViewArgs.getCompression(conf));
+      exitStatus = job.waitForCompletion(true);
+    } catch (Exception e) {
+      LOGGER.error(ExceptionUtils.getStackTrace(e));
+    }
+
+    return exitStatus ? 0 : 2;
+  }
+
+  public Job configureJob(Configuration conf, String output) throws IOException {
+    return configureJob(conf, output, ImportViewArgs.OutputFormat.TEXT, ImportViewArgs.COMPRESSION_NONE);
+  }
+
+  public Job configureJob(Configuration conf, String output, ImportViewArgs.OutputFormat outputFormat,
+                          String compression) throws IOException {
+    // A full dump is incomplete if any of its vBuckets is missing, so no map task may fail.
+    conf.setInt("mapred.max.tracker.failures", 20);
+    // The mapper handles documents as bytes, so there is no need to decode them.
+    conf.setIfUnset(CouchbaseViewInputFormat.CONF_RAW_DOCUMENTS, "true");
+
+    Job job = Job.getInstance(conf);
+    job.setJarByClass(CouchbaseBucketImporter.class);
+
+    // Input
+    job.setInputFormatClass(CouchbaseBucketInputFormat.class);
+
+    // Mapper
+    job.setMapperClass(CouchbaseViewToFileMapper.class);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(Text.class);
+
+    // Reducer
+    job.setNumReduceTasks(0);
+
+    // Output
+    ImportOutputFormats.configure(job, outputFormat, compression, output);
+
+    return job;
+  }
+}
@@ -24,12 +24,16 @@ import com.avira.couchdoop.ArgsHelper;
 import com.avira.couchdoop.exp.CouchbaseAction;
 import com.avira.couchdoop.exp.CouchbaseOutputFormat;
 import com.avira.couchdoop.exp.CsvToCouchbaseMapper;
+import com.avira.couchdoop.exp.DeadLetterToCouchbaseMapper;
 import com.avira.couchdoop.exp.ExportArgs;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
@@ -67,7 +71,7 @@ public class CouchbaseExporter extends Configured implements Tool {
     Job job;
     boolean exitStatus = true;
     try {
-      job = configureJob(conf, exportArgs.getInput());
+      job = configureJob(conf, exportArgs.getInput(), exportArgs.getInputFormat(), exportArgs.getOutput());
       exitStatus = job.waitForCompletion(true);
     } catch (Exception e) {
       LOGGER.error(ExceptionUtils.getStackTrace(e));
@@ -77,6 +81,11 @@ public class CouchbaseExporter extends Configured implements Tool {
   }
 
   public Job configureJob(Configuration conf, String input) throws IOException {
+    return configureJob(conf, input, ExportArgs.InputFormat.CSV, null);
+  }
+
+  public Job configureJob(Configuration conf, String input, ExportArgs.InputFormat inputFormat, String output)
+      throws IOException {
     conf.setInt("mapreduce.map.failures.maxpercent", 5);
     conf.setInt("mapred.max.map.failures.percent", 5);
     conf.setInt("mapred.max.tracker.failures", 20);
@@ -86,9 +95,16 @@ public class CouchbaseExporter extends Configured implements Tool {
 
     // Input
     FileInputFormat.setInputPaths(job, input);
+    if (inputFormat == ExportArgs.InputFormat.DEAD_LETTER) {
+      job.setInputFormatClass(SequenceFileInputFormat.class);
+    }
 
     // Mapper
-    job.setMapperClass(CsvToCouchbaseMapper.class);
+    if (inputFormat == ExportArgs.InputFormat.DEAD_LETTER) {
+      job.setMapperClass(DeadLetterToCouchbaseMapper.class);
+    } else {
+      job.setMapperClass(CsvToCouchbaseMapper.class);
+    }
     job.setMapOutputKeyClass(String.class);
     job.setMapOutputValueClass(CouchbaseAction.class);
 
@@ -99,6 +115,10 @@ public class CouchbaseExporter extends Configured implements Tool {
     job.setOutputFormatClass(CouchbaseOutputFormat.class);
     job.setOutputKeyClass(String.class);
     job.setOutputValueClass(CouchbaseAction.class);
+    if (output != null) {
+      // Operations which could not be stored are written here.
+      FileOutputFormat.setOutputPath(job, new Path(output));
+    }
 
     return job;
   }
@@ -23,20 +23,27 @@ import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.ArgsHelper;
 import com.avira.couchdoop.imp.CouchbaseViewInputFormat;
 import com.avira.couchdoop.imp.CouchbaseViewToFileMapper;
+import com.avira.couchdoop.imp.CouchbaseViewToPageFileMapper;
+import com.avira.couchdoop.imp.ImportOutputFormats;
 import com.avira.couchdoop.imp.ImportViewArgs;
+import com.avira.couchdoop.imp.ViewKeyWatermark;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URI;
 
 /**
  * Instances of this class import documents of Couchbase view keys in HDFS files.
@@ -68,19 +75,53 @@ public class CouchbaseViewImporter extends Configured implements Tool {
     Job job;
     boolean exitStatus = true;
     try {
-      job = configureJob(conf, importViewArgs.getOutput());
+      ViewKeyWatermark watermark = null;
+      String viewKeys = null;
+      if (importViewArgs.getWatermarkFile() != null) {
+        // Import only the keys after the ones imported by the previous runs.
+        watermark = new ViewKeyWatermark(conf, importViewArgs.getWatermarkFile());
+        viewKeys = watermark.clip(conf.get(ImportViewArgs.ARG_VIEW_KEYS.getPropertyName()));
+        if (viewKeys.isEmpty()) {
+          LOGGER.info("All view keys were already imported.");
+          return 0;
+        }
+        LOGGER.info("Importing view keys {} after the watermark.", viewKeys);
+        conf.set(ImportViewArgs.ARG_VIEW_KEYS.getPropertyName(), viewKeys);
+      }
+
+      job = configureJob(conf, importViewArgs.getOutput(), importViewArgs.getOutputFormat(),
+          importViewArgs.getCompression());
       exitStatus = job.waitForCompletion(true);
+
+      if (exitStatus && watermark != null) {
+        watermark.advance(viewKeys);
+        watermark.save();
+      }
+      String checkpointDir = conf.get(CouchbaseViewInputFormat.CONF_CHECKPOINT_DIR);
+      if (exitStatus && checkpointDir != null) {
+        FileSystem.get(URI.create(checkpointDir), conf).delete(new Path(checkpointDir), true);
+      }
     } catch (Exception e) {
       LOGGER.error(ExceptionUtils.getStackTrace(e));
+      exitStatus = false;
     }
 
     return exitStatus ? 0 : 2;
   }
 
   public Job configureJob(Configuration conf, String output) throws IOException {
-    conf.setInt("mapreduce.map.failures.maxpercent", 5);
-    conf.setInt("mapred.max.map.failures.percent", 5);
+    return configureJob(conf, output, ImportViewArgs.OutputFormat.TEXT, ImportViewArgs.COMPRESSION_NONE);
+  }
+
+  public Job configureJob(Configuration conf, String output, ImportViewArgs.OutputFormat outputFormat,
+                          String compression) throws IOException {
+    // The watermark advances past all the keys of the job, so none of its tasks may fail.
+    int maxFailuresPercent = conf.get(ImportViewArgs.ARG_WATERMARK_FILE.getPropertyName()) == null ? 5 : 0;
+    conf.setInt("mapreduce.map.failures.maxpercent", maxFailuresPercent);
+    conf.setInt("mapred.max.map.failures.percent", maxFailuresPercent);
     conf.setInt("mapred.max.tracker.failures", 20);
+    // The mapper handles documents as bytes, so there is no need to decode them.
+    conf.setIfUnset(CouchbaseViewInputFormat.CONF_RAW_DOCUMENTS, "true");
 
     Job job = Job.getInstance(conf);
     job.setJarByClass(CouchbaseViewImporter.class);
@@ -89,7 +130,15 @@ public class CouchbaseViewImporter extends Configured implements Tool {
     job.setInputFormatClass(CouchbaseViewInputFormat.class);
 
     // Mapper
-    job.setMapperClass(CouchbaseViewToFileMapper.class);
+    boolean checkpoints = conf.get(CouchbaseViewInputFormat.CONF_CHECKPOINT_DIR) != null;
+    if (checkpoints) {
+      // Complete files are kept under the same names for all attempts of a task, so two of them can't run at once.
+      job.getConfiguration().setBoolean("mapreduce.map.speculative", false);
+      job.getConfiguration().setBoolean("mapred.map.tasks.speculative.execution", false);
+      job.setMapperClass(CouchbaseViewToPageFileMapper.class);
+    } else {
+      job.setMapperClass(CouchbaseViewToFileMapper.class);
+    }
     job.setMapOutputKeyClass(Text.class);
     job.setMapOutputValueClass(Text.class);
 
@@ -97,9 +146,18 @@ public class CouchbaseViewImporter extends Configured implements Tool {
     job.setNumReduceTasks(0);
 
     // Output
-    job.setOutputKeyClass(Text.class);
-    job.setOutputValueClass(Text.class);
-    FileOutputFormat.setOutputPath(job, new Path(output));
+    if (checkpoints) {
+      // Page files are always text.
+      if (outputFormat != ImportViewArgs.OutputFormat.TEXT || !compression.equals(ImportViewArgs.COMPRESSION_NONE)) {
+        LOGGER.warn("Checkpointed imports write uncompressed text files, ignoring the output format.");
+      }
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(Text.class);
+      FileOutputFormat.setOutputPath(job, new Path(output));
+      LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+    } else {
+      ImportOutputFormats.configure(job, outputFormat, compression, output);
+    }
 
     return job;
   }
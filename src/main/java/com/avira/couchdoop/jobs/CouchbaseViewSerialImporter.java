@@ -21,102 +21,176 @@ package com.avira.couchdoop.jobs;
 
 import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.ArgsHelper;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat;
 import com.avira.couchdoop.imp.ImportViewArgs;
-import com.avira.couchdoop.imp.PageFileWriter;
+import com.avira.couchdoop.imp.ImportViewSerialArgs;
+import com.avira.couchdoop.imp.JsonProjection;
+import com.avira.couchdoop.imp.PageSizeController;
+import com.avira.couchdoop.imp.RollingFileWriter;
+import com.avira.couchdoop.imp.ViewKeyRange;
 import com.couchbase.client.CouchbaseClient;
 import com.couchbase.client.protocol.views.*;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Imports documents emitted by a Couchbase view to HDFS files without MapReduce, from the machine where it runs.
+ *
+ * <p>View keys, or the sub-ranges of a key range, are imported concurrently by a pool of threads which share one
+ * Couchbase client. If there are fewer keys than threads, the keys are cut into sub-ranges too. Each thread writes the documents of the keys it imports to its own sequence of files, which are
+ * rolled over when they reach a size, so that an import writes a few large files.</p>
+ */
 public class CouchbaseViewSerialImporter {
 
   private static final String PAGE_FILE_BASENAME = "part";
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseViewSerialImporter.class);
 
-  public void start(String[] args)
-      throws ArgsException {
+  public void start(String[] args) throws ArgsException {
+    System.exit(run(args));
+  }
+
+  /**
+   * @return exit code, which is not 0 if any view key range or output file failed
+   */
+  public int run(String[] args) throws ArgsException {
     Configuration conf = new Configuration();
 
-    ArgsHelper.loadCliArgsIntoHadoopConf(conf, ImportViewArgs.ARGS_LIST,args);
-    ImportViewArgs iva = new ImportViewArgs(conf);
+    ArgsHelper.loadCliArgsIntoHadoopConf(conf, ImportViewSerialArgs.ARGS_LIST, args);
+    ImportViewSerialArgs iva = new ImportViewSerialArgs(conf);
+
+    CompressionCodec codec = null;
+    if (!iva.getCompression().equals(ImportViewArgs.COMPRESSION_NONE)) {
+      codec = new CompressionCodecFactory(conf).getCodecByName(iva.getCompression());
+    }
 
     // Connect to couchbase and get the view.
     CouchbaseClient couchbaseClient;
     try {
-      couchbaseClient = connectToCouchbase(iva.getUrls(), iva.getBucket(), iva.getPassword());
+      couchbaseClient = connectToCouchbase(iva.getUrls(), iva.getBucket(), iva.getPassword(), iva.getThreads());
     } catch (IOException e) {
       LOGGER.error(ExceptionUtils.getStackTrace(e));
-      return;
+      return 2;
     }
     View view = couchbaseClient.getView(iva.getDesignDocumentName(), iva.getViewName());
 
-    int pageNo = 0;
-    for (String viewKey : iva.getViewKeys()) {
-      LOGGER.info("___________________________________");
-      LOGGER.info("Importing documents for view key " + viewKey + ".");
+    List<ViewKeyRange> ranges = new ArrayList<>();
+    if (iva.hasKeyRange()) {
+      ranges.addAll(CouchbaseViewInputFormat.splitRange(couchbaseClient, view,
+          new ViewKeyRange(iva.getStartKey(), null, iva.getEndKey(), null, true), iva.getThreads()));
+    } else {
+      // Keys with many rows are read by several threads if there are fewer keys than threads.
+      ranges.addAll(CouchbaseViewInputFormat.splitKeys(couchbaseClient, view, Arrays.asList(iva.getViewKeys()),
+          iva.getThreads()));
+    }
 
-      Query query = new Query();
-      query.setKey(viewKey);
-      query.setIncludeDocs(true);
+    // Each thread takes a writer from the queue for each range it imports, so no two threads write to the same file.
+    int threads = Math.max(1, Math.min(iva.getThreads(), ranges.size()));
+    BlockingQueue<RollingFileWriter> writers = new ArrayBlockingQueue<>(threads);
+    for (int i = 0; i < threads; i++) {
+      writers.add(new RollingFileWriter(conf, iva.getOutput(), PAGE_FILE_BASENAME + "-" + String.format("%02d", i),
+          iva.getFileBytes(), codec));
+    }
 
-      Paginator pages = couchbaseClient.paginatedQuery(view, query, iva.getDocumentsPerPage());
-      ViewResponse response;
-      PageFileWriter writer = null;
+    RangeImporter rangeImporter = new RangeImporter(conf, couchbaseClient, view, iva.getDocumentsPerPage(), writers);
+    LOGGER.info("Importing {} view key ranges with {} threads...", ranges.size(), threads);
+    boolean success = true;
+    try {
+      int failedRanges = importRanges(rangeImporter, ranges, threads);
+      if (failedRanges > 0) {
+        LOGGER.error("Failed to import {} of {} view key ranges.", failedRanges, ranges.size());
+        success = false;
+      }
+    } catch (InterruptedException e) {
+      LOGGER.error("Interrupted while importing.");
+      Thread.currentThread().interrupt();
+      success = false;
+    }
 
+    long rows = 0, bytes = 0;
+    int files = 0;
+    for (RollingFileWriter writer : writers) {
       try {
-        while (pages.hasNext()) {
-          LOGGER.info("Writing page " + pageNo + "...");
-
-          // Get page rows.
-          response = pages.next();
+        writer.close();
+      } catch (IOException e) {
+        LOGGER.error(ExceptionUtils.getStackTrace(e));
+        success = false;
+      }
+      rows += writer.getRows();
+      bytes += writer.getBytes();
+      files += writer.getFiles();
+    }
+    LOGGER.info("Wrote {} documents, {} bytes before compression, to {} files.", rows, bytes, files);
 
-          // Prepare the object which writes the page to a file.
-          writer = new PageFileWriter(conf, iva.getOutput(), PAGE_FILE_BASENAME, pageNo);
+    if (rangeImporter.pageSizeController != null) {
+      LOGGER.info("Page sizes: {}", rangeImporter.pageSizeController);
+    }
 
-          // Iterate on each row.
-          for (ViewRow row : response) {
-            String key = row.getId();
-            String doc = row.getDocument().toString();
+    LOGGER.info("Disconnecting from Couchbase...");
+    couchbaseClient.shutdown();
+    return success ? 0 : 2;
+  }
 
-            LOGGER.debug("Writing document with ID " + row.getId() + "...");
-            writer.write(key, doc);
-          }
+  /**
+   * Imports view key ranges with a pool of threads.
+   *
+   * @return number of ranges which failed to be imported
+   */
+  static int importRanges(RangeImporter rangeImporter, List<ViewKeyRange> ranges, int threads)
+      throws InterruptedException {
+    int failedRanges = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>(ranges.size());
+      for (ViewKeyRange range : ranges) {
+        futures.add(executor.submit(rangeImporter.forRange(range)));
+      }
 
-          // Prepare for the next page.
-          writer.close();
-          pageNo++;
-        }
-      } catch (IOException e) {
-        LOGGER.error(ExceptionUtils.getStackTrace(e));
-      } finally {
-        if (writer != null) {
-          try {
-            writer.close();
-          } catch (IOException e) {
-            LOGGER.error(ExceptionUtils.getStackTrace(e));
-          }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          failedRanges++;
+          LOGGER.error("Failed to import view key range " + ranges.get(i) + ". " +
+              ExceptionUtils.getStackTrace(e.getCause()));
         }
       }
+    } finally {
+      executor.shutdownNow();
     }
 
-    LOGGER.info("Disconnecting from Couchbase...");
-    couchbaseClient.shutdown();
+    return failedRanges;
   }
 
-  protected CouchbaseClient connectToCouchbase(List<URI> couchbaseUrls, String couchbaseBucket, String couchbasePassword)
+  protected CouchbaseClient connectToCouchbase(List<URI> couchbaseUrls, String couchbaseBucket, String couchbasePassword,
+                                               int threads)
       throws IOException {
     CouchbaseClient couchbaseClient;
 
     LOGGER.info("Connecting to Couchbase...");
     try {
-      couchbaseClient = new CouchbaseClient(couchbaseUrls, couchbaseBucket, couchbasePassword);
+      // Documents are written to files as they are, so there is no need to decode them. Each thread needs its own
+      // view connection to the nodes in order not to wait for the others.
+      couchbaseClient = CouchbaseViewInputFormat.connect(couchbaseUrls, couchbaseBucket, couchbasePassword, true,
+          Math.max(threads, 10));
       LOGGER.info("Connected to Couchbase.");
     } catch (IOException e) {
       LOGGER.error(ExceptionUtils.getStackTrace(e));
@@ -125,4 +199,102 @@ public class CouchbaseViewSerialImporter {
 
     return couchbaseClient;
   }
+
+  /**
+   * Settings shared by the threads, which import the pages of one view key range at a time.
+   */
+  static class RangeImporter {
+
+    private final Configuration conf;
+    private final CouchbaseClient couchbaseClient;
+    private final View view;
+    private final int docsPerPage;
+    private final BlockingQueue<RollingFileWriter> writers;
+
+    private final CouchbaseViewInputFormat.Pagination pagination;
+    private final PageSizeController pageSizeController;
+    private final boolean lookupAndFetch;
+
+    RangeImporter(Configuration conf, CouchbaseClient couchbaseClient, View view, int docsPerPage,
+                  BlockingQueue<RollingFileWriter> writers) {
+      this.conf = conf;
+      this.couchbaseClient = couchbaseClient;
+      this.view = view;
+      this.docsPerPage = docsPerPage;
+      this.writers = writers;
+
+      pagination = conf.getEnum(CouchbaseViewInputFormat.CONF_PAGINATION, CouchbaseViewInputFormat.Pagination.KEYSET);
+      // The controller is shared by the threads, which all query pages of the same view.
+      pageSizeController = CouchbaseViewInputFormat.createPageSizeController(conf, docsPerPage);
+      lookupAndFetch = conf.getBoolean(CouchbaseViewInputFormat.CONF_LOOKUP_AND_FETCH, false);
+    }
+
+    Callable<Void> forRange(final ViewKeyRange range) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          // A projection reuses its buffers between documents, so each range has its own.
+          JsonProjection projection = JsonProjection.fromConfiguration(conf);
+          RollingFileWriter writer = writers.take();
+          try {
+            importRange(range, writer, projection);
+          } finally {
+            writers.put(writer);
+          }
+          return null;
+        }
+      };
+    }
+
+    /**
+     * Queries the pages of a view key range.
+     */
+    Iterator<ViewResponse> query(ViewKeyRange range) {
+      return CouchbaseViewInputFormat.paginatedQuery(couchbaseClient, view, range, docsPerPage, pagination,
+          !lookupAndFetch, pageSizeController);
+    }
+
+    private void importRange(ViewKeyRange range, RollingFileWriter writer, JsonProjection projection)
+        throws IOException {
+      LOGGER.info("Importing documents for view key range " + range + ".");
+
+      Iterator<ViewResponse> pages = query(range);
+      long rowsBefore = writer.getRows();
+      while (pages.hasNext()) {
+        // Get page rows.
+        ViewResponse response = pages.next();
+
+        // Iterate on each row.
+        Iterator<ViewRow> rows = response.iterator();
+        if (lookupAndFetch) {
+          rows = CouchbaseViewInputFormat.fetchDocuments(rows, couchbaseClient, conf);
+        }
+        while (rows.hasNext()) {
+          ViewRow row = rows.next();
+          String key = row.getId();
+          Object doc = row.getDocument();
+          if (projection != null) {
+            try {
+              doc = doc instanceof byte[] ? projection.apply((byte[]) doc) : projection.apply(doc.toString());
+            } catch (IOException e) {
+              LOGGER.warn("Skipping document with ID " + key + ", which is not a JSON object.");
+              continue;
+            }
+            if (doc == null) {
+              continue;
+            }
+          }
+
+          LOGGER.debug("Writing document with ID " + row.getId() + "...");
+          if (doc instanceof byte[]) {
+            writer.write(key, (byte[]) doc);
+          } else {
+            writer.write(key, doc.toString());
+          }
+        }
+      }
+
+      LOGGER.info("Imported {} documents for view key range {}.", writer.getRows() - rowsBefore, range);
+    }
+  }
 }
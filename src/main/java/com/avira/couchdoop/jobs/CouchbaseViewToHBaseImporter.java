@@ -23,25 +23,49 @@ import com.avira.couchdoop.ArgsException;
 import com.avira.couchdoop.ArgsHelper;
 import com.avira.couchdoop.imp.CouchbaseViewInputFormat;
 import com.avira.couchdoop.imp.CouchbaseViewToHBaseMapper;
+import com.avira.couchdoop.imp.DocumentIdSampler;
 import com.avira.couchdoop.imp.ImportViewToHBaseArgs;
+import com.avira.couchdoop.imp.ViewKeyRange;
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.protocol.views.View;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat2;
 import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Instances of this class import documents of Couchbase view keys in HDFS files.
  */
 public class CouchbaseViewToHBaseImporter extends Configured implements Tool {
 
+  /** Document IDs sampled for each region when pre-splitting the table. */
+  private static final int SAMPLES_PER_REGION = 8;
+  /** How long to wait for each split of an existing table, in milliseconds. */
+  private static final long SPLIT_TIMEOUT = 60000;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseViewToHBaseImporter.class);
 
   public void start(String[] args) throws ArgsException {
@@ -67,10 +91,24 @@ public class CouchbaseViewToHBaseImporter extends Configured implements Tool {
     Job job;
     boolean exitStatus = true;
     try {
-      job = configureJob(conf, importViewToHBaseArgs.getTable());
-      exitStatus = job.waitForCompletion(true);
+      if (importViewToHBaseArgs.getRegions() > 1) {
+        preSplitTable(conf, importViewToHBaseArgs);
+      }
+
+      String bulkLoadDir = importViewToHBaseArgs.getBulkLoadDir();
+      if (bulkLoadDir == null) {
+        job = configureJob(conf, importViewToHBaseArgs.getTable());
+        exitStatus = job.waitForCompletion(true);
+      } else {
+        job = configureBulkLoadJob(conf, importViewToHBaseArgs.getTable(), bulkLoadDir);
+        exitStatus = job.waitForCompletion(true);
+        if (exitStatus) {
+          bulkLoad(conf, importViewToHBaseArgs.getTable(), bulkLoadDir);
+        }
+      }
     } catch (Exception e) {
       LOGGER.error(ExceptionUtils.getStackTrace(e));
+      exitStatus = false;
     }
 
     return exitStatus ? 0 : 2;
@@ -80,6 +118,8 @@ public class CouchbaseViewToHBaseImporter extends Configured implements Tool {
     conf.setInt("mapreduce.map.failures.maxpercent", 5);
     conf.setInt("mapred.max.map.failures.percent", 5);
     conf.setInt("mapred.max.tracker.failures", 20);
+    // The mapper handles documents as bytes, so there is no need to decode them.
+    conf.setIfUnset(CouchbaseViewInputFormat.CONF_RAW_DOCUMENTS, "true");
 
     Job job = Job.getInstance(conf);
     job.setJarByClass(CouchbaseViewToHBaseImporter.class);
@@ -98,4 +138,117 @@ public class CouchbaseViewToHBaseImporter extends Configured implements Tool {
 
     return job;
   }
+
+  /**
+   * Creates the table with regions bounded by document IDs sampled from the imported view keys, or splits it at
+   * those IDs if it has a single region, so that the import writes to all the region servers from the start.
+   */
+  public void preSplitTable(Configuration conf, ImportViewToHBaseArgs args) throws IOException, InterruptedException {
+    List<ViewKeyRange> ranges = new ArrayList<>();
+    if (args.hasKeyRange()) {
+      ranges.add(new ViewKeyRange(args.getStartKey(), null, args.getEndKey(), null, true));
+    } else {
+      for (String viewKey : args.getViewKeys()) {
+        ranges.add(ViewKeyRange.forKey(viewKey));
+      }
+    }
+
+    byte[][] splitPoints;
+    CouchbaseClient couchbaseClient = CouchbaseViewInputFormat.connect(args.getUrls(), args.getBucket(),
+        args.getPassword(), false);
+    try {
+      View view = couchbaseClient.getView(args.getDesignDocumentName(), args.getViewName());
+      String countViewName = conf.get(CouchbaseViewInputFormat.CONF_COUNT_VIEW);
+      View countView = countViewName == null ? null :
+          couchbaseClient.getView(args.getDesignDocumentName(), countViewName);
+      List<String> ids = new DocumentIdSampler(couchbaseClient, view, countView).sample(ranges,
+          args.getRegions() * SAMPLES_PER_REGION);
+      splitPoints = DocumentIdSampler.splitPoints(ids, args.getRegions());
+    } finally {
+      couchbaseClient.shutdown();
+    }
+
+    HBaseAdmin admin = new HBaseAdmin(HBaseConfiguration.create(conf));
+    try {
+      TableName tableName = TableName.valueOf(args.getTable());
+      if (!admin.tableExists(tableName)) {
+        HTableDescriptor descriptor = new HTableDescriptor(tableName);
+        for (String family : args.getFamilies()) {
+          descriptor.addFamily(new HColumnDescriptor(family));
+        }
+        LOGGER.info("Creating table {} with {} regions...", tableName, splitPoints.length + 1);
+        admin.createTable(descriptor, splitPoints);
+        return;
+      }
+
+      if (admin.getTableRegions(tableName).size() > 1) {
+        LOGGER.info("Table {} already has more than one region, so it is not pre-split.", tableName);
+        return;
+      }
+      LOGGER.info("Splitting table {} into {} regions...", tableName, splitPoints.length + 1);
+      for (byte[] splitPoint : splitPoints) {
+        // Splits are asynchronous, and a region can't be split again before its split is done.
+        int regions = admin.getTableRegions(tableName).size();
+        admin.split(tableName.getName(), splitPoint);
+        long deadline = System.currentTimeMillis() + SPLIT_TIMEOUT;
+        while (admin.getTableRegions(tableName).size() <= regions) {
+          if (System.currentTimeMillis() > deadline) {
+            LOGGER.warn("Table {} was not split at {} in time; the remaining splits are skipped.",
+                tableName, Bytes.toStringBinary(splitPoint));
+            return;
+          }
+          Thread.sleep(1000);
+        }
+      }
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Configures a job which writes HFiles partitioned by the current regions of the table, to be bulk loaded with
+   * {@link #bulkLoad} after the job succeeds.
+   */
+  public Job configureBulkLoadJob(Configuration conf, String outputTable, String bulkLoadDir) throws IOException {
+    conf.setInt("mapreduce.map.failures.maxpercent", 5);
+    conf.setInt("mapred.max.map.failures.percent", 5);
+    conf.setInt("mapred.max.tracker.failures", 20);
+    // The mapper handles documents as bytes, so there is no need to decode them.
+    conf.setIfUnset(CouchbaseViewInputFormat.CONF_RAW_DOCUMENTS, "true");
+
+    Job job = Job.getInstance(HBaseConfiguration.create(conf));
+    job.setJarByClass(CouchbaseViewToHBaseImporter.class);
+
+    // Input
+    job.setInputFormatClass(CouchbaseViewInputFormat.class);
+
+    // Mapper
+    job.setMapperClass(CouchbaseViewToHBaseMapper.class);
+    job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+    job.setMapOutputValueClass(Put.class);
+
+    // Reducer and output: puts are sorted by one reducer for each region, which writes its HFiles.
+    try (HTable table = new HTable(job.getConfiguration(), outputTable)) {
+      HFileOutputFormat2.configureIncrementalLoad(job, table);
+    }
+    FileOutputFormat.setOutputPath(job, new Path(bulkLoadDir));
+
+    return job;
+  }
+
+  /**
+   * Moves the HFiles written by a bulk load job into the regions of the table, splitting the files of regions which
+   * were split in the meantime, and deletes the directory.
+   */
+  public void bulkLoad(Configuration conf, String outputTable, String bulkLoadDir) throws Exception {
+    Configuration hbaseConf = HBaseConfiguration.create(conf);
+    Path path = new Path(bulkLoadDir);
+
+    LOGGER.info("Bulk loading HFiles from {} into table {}...", bulkLoadDir, outputTable);
+    try (HTable table = new HTable(hbaseConf, outputTable)) {
+      new LoadIncrementalHFiles(hbaseConf).doBulkLoad(path, table);
+    }
+    path.getFileSystem(hbaseConf).delete(path, true);
+    LOGGER.info("Bulk loaded table {}.", outputTable);
+  }
 }
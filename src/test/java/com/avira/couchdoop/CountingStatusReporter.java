@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+/**
+ * Status reporter which keeps the counters of a task in memory, so that tests can create task contexts and check
+ * their counters.
+ */
+public class CountingStatusReporter extends StatusReporter {
+
+  private final Counters counters = new Counters();
+
+  /**
+   * @return context of the first attempt of a map task, whose counters are kept by this reporter
+   */
+  public TaskAttemptContext newContext(Configuration conf, int task) {
+    return new TaskAttemptContextImpl(conf, new TaskAttemptID("test", 1, TaskType.MAP, task, 0), this);
+  }
+
+  /**
+   * @return value of a counter, which is 0 if it was never incremented
+   */
+  public long getValue(String group, String name) {
+    return counters.findCounter(group, name).getValue();
+  }
+
+  @Override
+  public Counter getCounter(Enum<?> name) {
+    return counters.findCounter(name);
+  }
+
+  @Override
+  public Counter getCounter(String group, String name) {
+    return counters.findCounter(group, name);
+  }
+
+  @Override
+  public void progress() {
+  }
+
+  @Override
+  public float getProgress() {
+    return 0;
+  }
+
+  @Override
+  public void setStatus(String status) {
+  }
+}
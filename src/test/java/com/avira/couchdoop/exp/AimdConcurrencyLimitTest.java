@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AimdConcurrencyLimitTest {
+
+  @Test
+  public void additiveIncreaseTest() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 100, 1.0, 0.5, 0);
+    limit.onSuccess(1);
+    assertEquals(2, limit.getLimit());
+
+    // The limit grows by about one per window, so after n successes it is close to sqrt(2 * n).
+    for (int i = 0; i < 199; i++) {
+      limit.onSuccess(1);
+    }
+    assertTrue("Limit did not grow additively!", limit.getLimit() >= 19 && limit.getLimit() <= 20);
+  }
+
+  @Test
+  public void multiplicativeDecreaseOncePerWindowTest() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 100, 50.0, 0.5, 0);
+    limit.onSuccess(1);
+    assertEquals(51, limit.getLimit());
+
+    // A burst of failures from the same window decreases the limit only once.
+    for (int i = 0; i < 10; i++) {
+      limit.onCongestion();
+    }
+    assertEquals("Limit was decreased more than once per window!", 25, limit.getLimit());
+    assertEquals(1, limit.getDecreases());
+  }
+
+  @Test
+  public void boundsTest() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 4, 100.0, 0.1, 0);
+    limit.onCongestion();
+    assertEquals("Limit went below the minimum!", 2, limit.getLimit());
+
+    limit.onSuccess(1);
+    assertEquals("Limit went above the maximum!", 4, limit.getLimit());
+  }
+
+  @Test
+  public void latencyThresholdTest() {
+    AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1, 100, 10.0, 0.5, 100);
+    limit.onSuccess(10);
+    assertEquals(11, limit.getLimit());
+
+    limit.onSuccess(500);
+    assertEquals("High latency did not decrease the limit!", 5, limit.getLimit());
+  }
+}
@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import com.avira.couchdoop.CountingStatusReporter;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.StatusCode;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CouchbaseOutputFormatTest {
+
+  private static final OperationStatus SUCCESS = new OperationStatus(true, "OK");
+  private static final OperationStatus TEMPORARY_FAILURE = new OperationStatus(false, "Temporary failure");
+
+  /**
+   * Record writer whose operations complete with scripted statuses, only once the writer waits for them. Successful
+   * operations are applied to an in-memory bucket in the order they are sent.
+   */
+  private static class ScriptedRecordWriter extends CouchbaseOutputFormat.CouchbaseRecordWriter {
+
+    private final Map<Object, Deque<Object>> outcomes = new HashMap<>();
+    private final List<String> sent = new ArrayList<>();
+    private final Map<String, Object> bucket = new HashMap<>();
+
+    ScriptedRecordWriter(int maxInFlightOperations) {
+      setMaxInFlightOperations(maxInFlightOperations);
+      setExpBackoffMaxRetryInterval(1);
+      setExpBackoffMaxTotalTimeout(60000);
+    }
+
+    /**
+     * Makes the next sends of a value complete with the given statuses or exceptions. Later sends succeed.
+     */
+    void script(Object value, Object... valueOutcomes) {
+      outcomes.put(value, new ArrayDeque<>(Arrays.asList(valueOutcomes)));
+    }
+
+    @Override
+    protected OperationFuture<Boolean> store(CouchbaseOperation operation, String key, Object value, int expiry) {
+      sent.add(key + "=" + value);
+
+      Deque<Object> valueOutcomes = outcomes.get(value);
+      Object outcome = valueOutcomes == null || valueOutcomes.isEmpty() ? SUCCESS : valueOutcomes.poll();
+      if (outcome == SUCCESS) {
+        bucket.put(key, value);
+      }
+      return new ScriptedFuture(key, outcome);
+    }
+  }
+
+  private static class ScriptedFuture extends OperationFuture<Boolean> {
+
+    private final Object outcome;
+    private boolean done = false;
+
+    ScriptedFuture(String key, Object outcome) {
+      super(key, new CountDownLatch(0), 1000, null);
+      this.outcome = outcome;
+      if (outcome instanceof OperationStatus) {
+        status = (OperationStatus) outcome;
+      } else {
+        status = new OperationStatus(false, String.valueOf(outcome));
+      }
+    }
+
+    @Override
+    public Boolean get() throws ExecutionException {
+      done = true;
+      if (outcome instanceof Exception) {
+        throw new ExecutionException((Exception) outcome);
+      }
+      return status.isSuccess();
+    }
+
+    @Override
+    public Boolean get(long duration, TimeUnit unit) throws ExecutionException {
+      return get();
+    }
+
+    @Override
+    public OperationStatus getStatus() {
+      return status;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done;
+    }
+
+    @Override
+    public OperationFuture<Boolean> addListener(OperationCompletionListener listener) {
+      return this;
+    }
+  }
+
+  private static void write(ScriptedRecordWriter writer, String key, String value)
+      throws IOException, InterruptedException {
+    write(writer, CouchbaseOperation.SET, key, value);
+  }
+
+  private static void write(ScriptedRecordWriter writer, CouchbaseOperation operation, String key, String value)
+      throws IOException, InterruptedException {
+    writer.write(key, new CouchbaseAction(operation, value));
+  }
+
+  private static void close(ScriptedRecordWriter writer) throws IOException, InterruptedException {
+    writer.close(new CountingStatusReporter().newContext(new Configuration(), 0));
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void failedOperationsAreDeadLetteredTest() throws IOException, InterruptedException {
+    Configuration conf = new Configuration();
+    Path deadLetterPath = new Path(folder.getRoot().toURI().toString(), "dead-letter-m-00000");
+    ScriptedRecordWriter writer = new ScriptedRecordWriter(4);
+    writer.setDeadLetterPath(conf, deadLetterPath);
+    writer.script("big", new OperationStatus(false, "Too large", StatusCode.ERR_2BIG));
+    writer.script("nomem", new OperationStatus(false, "Out of memory", StatusCode.ERR_NO_MEM));
+    writer.script("slow", new ExecutionException(new CheckedOperationTimeoutException("Timed out",
+        Collections.<Operation>emptyList())));
+    writer.script("added", new OperationStatus(false, "Data exists for key", StatusCode.ERR_EXISTS));
+    writer.script("replaced", new OperationStatus(false, "Not found", StatusCode.ERR_NOT_FOUND));
+    writer.script("existing", new OperationStatus(false, "Data exists for key", StatusCode.ERR_EXISTS));
+    writer.script("notStored", new OperationStatus(false, "Not stored", StatusCode.ERR_NOT_STORED));
+
+    write(writer, "k1", "big");
+    write(writer, "k2", "nomem");
+    write(writer, "k3", "slow");
+    write(writer, "k4", "ok");
+    // Expected outcomes of operations which depend on whether the key exists.
+    write(writer, CouchbaseOperation.ADD, "k5", "added");
+    write(writer, CouchbaseOperation.REPLACE, "k6", "replaced");
+    // A key which exists is an error for other operations.
+    write(writer, CouchbaseOperation.REPLACE, "k7", "existing");
+    write(writer, CouchbaseOperation.APPEND, "k8", "notStored");
+    close(writer);
+
+    Map<String, DeadLetter> deadLetters = new HashMap<>();
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(deadLetterPath))) {
+      Text key = new Text();
+      DeadLetter deadLetter = new DeadLetter();
+      while (reader.next(key, deadLetter)) {
+        deadLetters.put(key.toString(), deadLetter);
+        deadLetter = new DeadLetter();
+      }
+    }
+
+    assertEquals(new HashSet<>(Arrays.asList("k1", "k2", "k3", "k7", "k8")), deadLetters.keySet());
+    assertEquals("big", deadLetters.get("k1").getAction().getValue());
+    assertEquals("Too large", deadLetters.get("k1").getReason());
+    assertEquals("Out of memory", deadLetters.get("k2").getReason());
+    assertTrue(deadLetters.get("k3").getReason().contains("Timed out"));
+    assertEquals(CouchbaseOperation.APPEND, deadLetters.get("k8").getAction().getOperation());
+  }
+
+  @Test
+  public void retryKeepsOrderOfOperationsOnKeyTest() throws IOException, InterruptedException {
+    ScriptedRecordWriter writer = new ScriptedRecordWriter(4);
+    writer.script("A", TEMPORARY_FAILURE);
+
+    // B is written while A is still in flight, and A then fails temporarily.
+    write(writer, "k", "A");
+    write(writer, "k", "B");
+    write(writer, "other", "C");
+    close(writer);
+
+    assertEquals(Arrays.asList("k=A", "other=C", "k=A", "k=B"), writer.sent);
+    assertEquals("An older value overwrote a newer one!", "B", writer.bucket.get("k"));
+    assertEquals("C", writer.bucket.get("other"));
+  }
+
+  @Test
+  public void followersAreSentOneAtATimeTest() throws IOException, InterruptedException {
+    ScriptedRecordWriter writer = new ScriptedRecordWriter(8);
+    writer.script("A", TEMPORARY_FAILURE, TEMPORARY_FAILURE);
+    writer.script("B", TEMPORARY_FAILURE);
+
+    write(writer, "k", "A");
+    write(writer, "k", "B");
+    write(writer, "k", "C");
+    close(writer);
+
+    assertEquals(Arrays.asList("k=A", "k=A", "k=A", "k=B", "k=B", "k=C"), writer.sent);
+    assertEquals("C", writer.bucket.get("k"));
+  }
+
+  @Test
+  public void waitingOperationsCountAgainstLimitTest() throws IOException, InterruptedException {
+    ScriptedRecordWriter writer = new ScriptedRecordWriter(2);
+    writer.script("A", TEMPORARY_FAILURE, TEMPORARY_FAILURE);
+
+    write(writer, "k", "A");
+    // B waits for A, so the writer is full and C is only accepted once A was stored.
+    write(writer, "k", "B");
+    assertEquals(Collections.singletonList("k=A"), writer.sent);
+    write(writer, "k", "C");
+    assertEquals(Arrays.asList("k=A", "k=A", "k=A"), writer.sent);
+    close(writer);
+
+    assertEquals(Arrays.asList("k=A", "k=A", "k=A", "k=B", "k=C"), writer.sent);
+    assertEquals("C", writer.bucket.get("k"));
+  }
+
+  @Test
+  public void concurrentRetriesAreTimedOnceTest() throws IOException, InterruptedException {
+    ScriptedRecordWriter writer = new ScriptedRecordWriter(100);
+    writer.setExpBackoffMaxRetryInterval(16);
+    writer.setExpBackoffMaxTotalTimeout(500);
+    for (int i = 0; i < 100; i++) {
+      String value = "v" + i;
+      writer.script(value, TEMPORARY_FAILURE, TEMPORARY_FAILURE, TEMPORARY_FAILURE, TEMPORARY_FAILURE);
+      write(writer, "k" + i, value);
+    }
+    // The back-off delays add up to more than 500 ms, but they overlap.
+    close(writer);
+
+    assertEquals(500, writer.sent.size());
+    assertTrue(writer.getTotalTimeout() < 500);
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CsvToCouchbaseMapperTest {
+
+  private static int indexOf(String line, int length, String delimiter) {
+    return CsvToCouchbaseMapper.indexOf(line.getBytes(StandardCharsets.UTF_8), length,
+        delimiter.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void indexOfTest() {
+    assertEquals(3, indexOf("key\t{\"a\":\"\t\"}", 13, "\t"));
+    assertEquals(-1, indexOf("key", 3, "\t"));
+    assertEquals(-1, indexOf("", 0, "\t"));
+
+    // Multi-byte delimiters, which may partially match.
+    assertEquals(3, indexOf("key:::doc", 9, "::"));
+    assertEquals(4, indexOf("keéèdoc", 9, "è"));
+    assertEquals(-1, indexOf("key:", 4, "::"));
+
+    // Only the valid part of the buffer is searched.
+    assertEquals(-1, indexOf("key\tdoc", 3, "\t"));
+  }
+}
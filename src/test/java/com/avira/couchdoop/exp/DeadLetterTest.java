@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.exp;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DeadLetterTest {
+
+  private static DeadLetter roundTrip(DeadLetter deadLetter) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    deadLetter.write(out);
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    DeadLetter result = new DeadLetter();
+    result.readFields(in);
+    assertEquals("Not all bytes were read!", out.getLength(), in.getPosition());
+    return result;
+  }
+
+  @Test
+  public void roundTripTest() throws IOException {
+    DeadLetter deadLetter = roundTrip(new DeadLetter(new CouchbaseAction(CouchbaseOperation.ADD, "{\"a\":\"ă\"}", 60),
+        "Too large"));
+    assertEquals(CouchbaseOperation.ADD, deadLetter.getAction().getOperation());
+    assertEquals("{\"a\":\"ă\"}", deadLetter.getAction().getValue());
+    assertEquals(60, deadLetter.getAction().getExpiry());
+    assertEquals("Too large", deadLetter.getReason());
+
+    byte[] bytes = "{\"b\":1}".getBytes(StandardCharsets.UTF_8);
+    deadLetter = roundTrip(new DeadLetter(new CouchbaseAction(CouchbaseOperation.SET, bytes), null));
+    assertArrayEquals(bytes, (byte[]) deadLetter.getAction().getValue());
+    assertEquals("", deadLetter.getReason());
+
+    // Buffers are read back as the bytes they hold.
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4}, 1, 3);
+    deadLetter = roundTrip(new DeadLetter(new CouchbaseAction(CouchbaseOperation.REPLACE, buffer), "Out of memory"));
+    assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) deadLetter.getAction().getValue());
+
+    deadLetter = roundTrip(new DeadLetter(CouchbaseAction.createDeleteAction(), "Timed out"));
+    assertEquals(CouchbaseOperation.DELETE, deadLetter.getAction().getOperation());
+    assertNull(deadLetter.getAction().getValue());
+
+    deadLetter = roundTrip(new DeadLetter(new CouchbaseAction(CouchbaseOperation.SET, Arrays.asList(1, 2)), "Failed"));
+    assertEquals(Arrays.asList(1, 2), deadLetter.getAction().getValue());
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.CountingStatusReporter;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AvroDocumentOutputFormatTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<File> avroFiles(File dir) {
+    List<File> files = new ArrayList<>();
+    for (File file : dir.listFiles()) {
+      if (file.isDirectory()) {
+        files.addAll(avroFiles(file));
+      } else if (file.getName().endsWith(".avro")) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  @Test
+  public void writeAndReadTest() throws Exception {
+    File output = new File(folder.getRoot(), "output");
+    Job job = Job.getInstance(new Configuration());
+    ImportOutputFormats.configure(job, ImportViewArgs.OutputFormat.AVRO, "deflate", output.toURI().toString());
+    TaskAttemptContext context = new CountingStatusReporter().newContext(job.getConfiguration(), 0);
+
+    RecordWriter<Text, Text> writer = new AvroDocumentOutputFormat().getRecordWriter(context);
+    Text value = new Text();
+    for (int i = 0; i < 1000; i++) {
+      // The value is reused with shorter documents, whose bytes are followed by those of longer ones.
+      value.set("{\"n\":" + (i % 2 == 0 ? i : "\"ünïcode " + i + "\"") + "}");
+      writer.write(new Text("doc" + i), value);
+    }
+    writer.close(context);
+
+    List<File> files = avroFiles(output);
+    assertEquals(1, files.size());
+    List<String> documents = new ArrayList<>();
+    try (DataFileReader<GenericRecord> reader = new DataFileReader<>(files.get(0),
+        new GenericDatumReader<GenericRecord>())) {
+      assertEquals("deflate", reader.getMetaString("avro.codec"));
+      assertEquals(AvroDocumentOutputFormat.SCHEMA, reader.getSchema());
+      for (GenericRecord record : reader) {
+        documents.add(record.get("id") + "\t" + record.get("document"));
+      }
+    }
+
+    assertEquals(1000, documents.size());
+    assertEquals(Arrays.asList("doc0\t{\"n\":0}", "doc1\t{\"n\":\"ünïcode 1\"}", "doc2\t{\"n\":2}"),
+        documents.subList(0, 3));
+    assertEquals("doc999\t{\"n\":\"ünïcode 999\"}", documents.get(999));
+  }
+}
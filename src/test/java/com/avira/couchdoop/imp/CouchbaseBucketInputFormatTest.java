@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CouchbaseBucketInputFormatTest {
+
+  @Test
+  public void splitVBucketsTest() throws Exception {
+    List<InputSplit> splits = CouchbaseBucketInputFormat.splitVBuckets(1024, 10);
+    assertEquals(10, splits.size());
+
+    int nextVBucket = 0;
+    for (InputSplit inputSplit : splits) {
+      CouchbaseBucketInputFormat.CouchbaseBucketInputSplit split =
+          (CouchbaseBucketInputFormat.CouchbaseBucketInputSplit) inputSplit;
+      assertEquals("vBucket ranges are not contiguous!", nextVBucket, split.getFirstVBucket());
+      assertTrue(split.getLength() == 102 || split.getLength() == 103);
+      nextVBucket = split.getEndVBucket();
+    }
+    assertEquals(1024, nextVBucket);
+
+    assertEquals("There can't be more splits than vBuckets!", 64,
+        CouchbaseBucketInputFormat.splitVBuckets(64, 100).size());
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.CountingStatusReporter;
+import com.avira.couchdoop.CouchbaseArgs;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat.CouchbaseViewInputSplit;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat.CouchbaseViewRecordReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CouchbaseViewInputFormatTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Configuration of an import of view keys with checkpoints, whose view is queried through a {@link ViewQuerier}.
+   */
+  static Configuration checkpointConf(String checkpointDir, String... keys) {
+    Configuration conf = new Configuration();
+    conf.set(CouchbaseArgs.ARG_COUCHBASE_URLS.getPropertyName(), "http://localhost:8091/pools");
+    conf.set(CouchbaseArgs.ARG_COUCHBASE_BUCKET.getPropertyName(), "bucket");
+    conf.set(CouchbaseArgs.ARG_COUCHBASE_PASSWORD.getPropertyName(), "");
+    conf.set(ImportViewArgs.ARG_DESIGNDOC_NAME.getPropertyName(), "design");
+    conf.set(ImportViewArgs.ARG_VIEW_NAME.getPropertyName(), "view");
+    StringBuilder viewKeys = new StringBuilder();
+    for (String key : keys) {
+      viewKeys.append(viewKeys.length() == 0 ? "" : ";").append(key);
+    }
+    conf.set(ImportViewArgs.ARG_VIEW_KEYS.getPropertyName(), viewKeys.toString());
+    conf.setInt(ImportViewArgs.ARG_DOCS_PER_PAGE.getPropertyName(), 3);
+    conf.set(CouchbaseViewInputFormat.CONF_CHECKPOINT_DIR, checkpointDir);
+    return conf;
+  }
+
+  static CouchbaseViewInputSplit split(String... keys) {
+    CouchbaseViewInputSplit split = new CouchbaseViewInputSplit();
+    for (String key : keys) {
+      split.addKey(key);
+    }
+    return split;
+  }
+
+  @Test
+  public void packKeysTest() throws Exception {
+    String[] keys = new String[]{"k0", "k1", "k2", "k3", "k4", "k5", "k6"};
+    long[] rows = new long[]{10, 1000000, 20, 400000, 550000, 30, 0};
+
+    List<CouchbaseViewInputSplit> splits = CouchbaseViewInputFormat.packKeys(keys, rows, 2);
+    assertEquals(2, splits.size());
+
+    // The two largest keys go to different splits and the small ones fill the lighter split.
+    assertEquals(Arrays.asList("k1"), splits.get(0).getKeys());
+    assertEquals(1000000, splits.get(0).getLength());
+    assertEquals(Arrays.asList("k0", "k2", "k3", "k4", "k5", "k6"), splits.get(1).getKeys());
+    assertEquals(950060, splits.get(1).getLength());
+
+    // No empty splits if there are more mappers than keys.
+    assertEquals(keys.length, CouchbaseViewInputFormat.packKeys(keys, rows, 100).size());
+  }
+
+  @Test
+  public void resumeFromCheckpointTest() throws Exception {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 7; i++) {
+      view.emit("\"k0\"", "a" + i);
+    }
+    for (int i = 0; i < 5; i++) {
+      // Documents which emit the key several times.
+      view.emit("\"k2\"", "b" + i).emit("\"k2\"", "b" + i);
+    }
+    String[] keys = new String[]{"\"k0\"", "\"k1\"", "\"k2\""};
+    String checkpointDir = folder.getRoot().toURI().toString();
+    Configuration conf = checkpointConf(checkpointDir, keys);
+    TaskAttemptContext context = new CountingStatusReporter().newContext(conf, 0);
+
+    // Read the whole split, with the checkpoint after each page and the number of rows read until then.
+    List<String> rows = new ArrayList<>();
+    List<ImportCheckpoint> checkpoints = new ArrayList<>();
+    List<Integer> rowsBefore = new ArrayList<>();
+    CouchbaseViewRecordReader reader = new CouchbaseViewRecordReader(view);
+    reader.initialize(split(keys), context);
+    while (reader.nextKeyValue()) {
+      PagedViewRow row = (PagedViewRow) reader.getCurrentValue();
+      rows.add(row.getKey() + "/" + row.getId());
+      if (row.getCheckpoint() != null) {
+        checkpoints.add(row.getCheckpoint());
+        rowsBefore.add(rows.size());
+      }
+    }
+    reader.close();
+    assertEquals(17, rows.size());
+    // Pages of 3 rows, the last one of each key possibly shorter.
+    assertEquals(Arrays.asList(3, 6, 7, 10, 13, 16, 17), rowsBefore);
+
+    // A reader resumed from a checkpoint reads the rows after its page.
+    for (int i = 0; i < checkpoints.size(); i++) {
+      checkpoints.get(i).save(conf, checkpointDir, context.getTaskAttemptID().getTaskID());
+      reader = new CouchbaseViewRecordReader(view);
+      reader.initialize(split(keys), context);
+      List<String> resumedRows = new ArrayList<>();
+      while (reader.nextKeyValue()) {
+        resumedRows.add(reader.getCurrentValue().getKey() + "/" + reader.getCurrentValue().getId());
+      }
+      reader.close();
+      assertEquals("Wrong rows after " + checkpoints.get(i), rows.subList(rowsBefore.get(i), rows.size()), resumedRows);
+    }
+  }
+
+  @Test
+  public void singleKeyWithoutEstimateTest() throws Exception {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 100; i++) {
+      view.emit("\"k0\"", String.format("a%03d", i));
+    }
+    Configuration conf = checkpointConf(folder.getRoot().toURI().toString(), "\"k0\"");
+    conf.unset(CouchbaseViewInputFormat.CONF_CHECKPOINT_DIR);
+    // Pages are only queried when they are read.
+    conf.setInt(CouchbaseViewInputFormat.CONF_PREFETCH_PAGES, 0);
+    CountingStatusReporter reporter = new CountingStatusReporter();
+
+    // Without a count view the key is not sampled, so it's only queried for its pages.
+    CouchbaseViewRecordReader reader = new CouchbaseViewRecordReader(view);
+    reader.initialize(split("\"k0\""), reporter.newContext(conf, 0));
+    assertEquals(0, view.getQueries());
+    assertEquals(0.0f, reader.getProgress(), 0.0f);
+    int rows = 0;
+    while (reader.nextKeyValue()) {
+      rows++;
+    }
+    reader.close();
+    assertEquals(100, rows);
+    assertEquals(1.0f, reader.getProgress(), 0.0f);
+
+    String group = CouchbaseViewInputFormat.class.getName();
+    assertEquals(100, reporter.getValue(group, "ROWS_READ"));
+    assertEquals(view.getQueries(), reporter.getValue(group, "PAGES_READ"));
+    assertTrue(reporter.getValue(group, "READ_TIME") >= 0);
+  }
+
+  @Test
+  public void splitKeysTest() throws Exception {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 1000; i++) {
+      view.emit("\"deep\"", String.format("d%04d", i));
+    }
+    for (int i = 0; i < 10; i++) {
+      view.emit("\"shallow\"", "s" + i);
+    }
+
+    // A single key is read by all threads.
+    List<ViewKeyRange> ranges = CouchbaseViewInputFormat.splitKeys(view, Arrays.asList("\"deep\""), 4);
+    assertEquals(4, ranges.size());
+    List<String> rows = new ArrayList<>();
+    for (ViewKeyRange range : ranges) {
+      List<String> rangeRows = KeysetPaginatorTest.rows(new KeysetPaginator(view, range, 100));
+      assertTrue("Unbalanced range " + range + "!", rangeRows.size() > 150 && rangeRows.size() < 350);
+      rows.addAll(rangeRows);
+    }
+    assertEquals(KeysetPaginatorTest.rows(new KeysetPaginator(view, ViewKeyRange.forKey("\"deep\""), 100)), rows);
+
+    // Two keys are cut into two sub-ranges each.
+    ranges = CouchbaseViewInputFormat.splitKeys(view, Arrays.asList("\"deep\"", "\"shallow\""), 4);
+    assertEquals(4, ranges.size());
+
+    // Enough keys for the threads are not sampled.
+    int queries = view.getQueries();
+    List<String> keys = Arrays.asList("\"deep\"", "\"shallow\"", "\"none\"", "\"other\"");
+    ranges = CouchbaseViewInputFormat.splitKeys(view, keys, 4);
+    assertEquals(queries, view.getQueries());
+    assertEquals(4, ranges.size());
+    assertEquals(ViewKeyRange.forKey("\"none\"").toString(), ranges.get(2).toString());
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.CountingStatusReporter;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat.CouchbaseViewInputSplit;
+import com.avira.couchdoop.imp.CouchbaseViewInputFormat.CouchbaseViewRecordReader;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.avira.couchdoop.imp.CouchbaseViewInputFormatTest.checkpointConf;
+import static com.avira.couchdoop.imp.CouchbaseViewInputFormatTest.split;
+import static org.junit.Assert.*;
+
+public class CouchbaseViewToPageFileMapperTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * View which fails after a number of queries, like a task whose node goes down.
+   */
+  private static class FailingView extends ViewQuerier {
+
+    private final ViewQuerier view;
+    private int queriesLeft;
+
+    FailingView(ViewQuerier view, int queries) {
+      this.view = view;
+      this.queriesLeft = queries;
+    }
+
+    @Override
+    ViewResponse query(Query query) {
+      if (queriesLeft-- == 0) {
+        throw new IllegalStateException("View query failed.");
+      }
+      return view.query(query);
+    }
+  }
+
+  /**
+   * Runs an attempt of the mapper over a split, writing its output through the committer of the attempt.
+   */
+  private static void runAttempt(Configuration conf, Path output, ViewQuerier view, CouchbaseViewInputSplit split,
+                                 TaskAttemptID attemptId) throws Exception {
+    CountingStatusReporter reporter = new CountingStatusReporter();
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, attemptId, reporter);
+    FileOutputCommitter committer = new FileOutputCommitter(output, context);
+    CouchbaseViewRecordReader reader = new CouchbaseViewRecordReader(view);
+    reader.initialize(split, context);
+
+    MapContextImpl<Text, ViewRow, Text, Text> mapContext =
+        new MapContextImpl<>(conf, attemptId, reader, null, committer, reporter, split);
+    Mapper<Text, ViewRow, Text, Text>.Context mapperContext =
+        new WrappedMapper<Text, ViewRow, Text, Text>().getMapContext(mapContext);
+    try {
+      new CouchbaseViewToPageFileMapper().run(mapperContext);
+      committer.commitTask(context);
+    } catch (Exception e) {
+      committer.abortTask(context);
+      throw e;
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void retriedTaskTest() throws Exception {
+    FakeView view = new FakeView();
+    List<String> expected = new ArrayList<>();
+    for (String key : new String[]{"k0", "k1", "k2"}) {
+      for (int i = 0; i < 10; i++) {
+        view.emit("\"" + key + "\"", key + "-doc" + i);
+        expected.add(key + "-doc" + i + "\t{\"id\":\"" + key + "-doc" + i + "\"}");
+      }
+    }
+    String[] keys = new String[]{"\"k0\"", "\"k1\"", "\"k2\""};
+    String checkpointDir = new File(folder.getRoot(), "checkpoints").toURI().toString();
+    Path output = new Path(new File(folder.getRoot(), "output").toURI());
+    Configuration conf = checkpointConf(checkpointDir, keys);
+    conf.setInt(CouchbaseViewInputFormat.CONF_CHECKPOINT_PAGES, 2);
+    conf.setInt(CouchbaseViewInputFormat.CONF_PREFETCH_PAGES, 0);
+
+    TaskAttemptID firstAttempt = new TaskAttemptID("test", 1, TaskType.MAP, 0, 0);
+    TaskAttemptID secondAttempt = new TaskAttemptID("test", 1, TaskType.MAP, 0, 1);
+    TaskAttemptID thirdAttempt = new TaskAttemptID("test", 1, TaskType.MAP, 0, 2);
+    FileOutputCommitter committer = new FileOutputCommitter(output, new JobContextImpl(conf, firstAttempt.getJobID()));
+    committer.setupJob(new JobContextImpl(conf, firstAttempt.getJobID()));
+
+    // The first attempt fails at the 6th page, after saving checkpoints after pages 2 and 4 and writing page 5.
+    try {
+      runAttempt(conf, output, new FailingView(view, 5), split(keys), firstAttempt);
+      fail("The first attempt should have failed.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    ImportCheckpoint checkpoint = ImportCheckpoint.load(conf, checkpointDir, firstAttempt.getTaskID());
+    assertEquals(2, checkpoint.getFiles());
+
+    // A file moved by an attempt which failed before saving its checkpoint.
+    FileSystem fileSystem = output.getFileSystem(conf);
+    Path filesDir = ImportCheckpoint.getFilesDir(checkpointDir, firstAttempt.getTaskID());
+    Path staleFile = new Path(filesDir, "part-m-00000-00002");
+    Files.write(new File(staleFile.toUri().getPath()).toPath(), "stale\n".getBytes(StandardCharsets.UTF_8));
+
+    // The second attempt deletes the stale file before failing at its first page.
+    try {
+      runAttempt(conf, output, new FailingView(view, 0), split(keys), secondAttempt);
+      fail("The second attempt should have failed.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assertFalse(fileSystem.exists(staleFile));
+
+    // The third attempt continues after page 4.
+    int queries = view.getQueries();
+    runAttempt(conf, output, view, split(keys), thirdAttempt);
+    assertEquals(8, view.getQueries() - queries);
+    committer.commitJob(new JobContextImpl(conf, thirdAttempt.getJobID()));
+
+    // Each document is in the output once, in the files of the task.
+    List<String> actual = new ArrayList<>();
+    List<String> fileNames = new ArrayList<>();
+    for (File file : new File(output.toUri().getPath()).listFiles()) {
+      if (file.getName().startsWith("part-")) {
+        fileNames.add(file.getName());
+        actual.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+      }
+    }
+    Collections.sort(fileNames);
+    assertEquals(Arrays.asList("part-m-00000-00000", "part-m-00000-00001", "part-m-00000-00002",
+        "part-m-00000-00003", "part-m-00000-00004", "part-m-00000-00005"), fileNames);
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+    assertFalse(fileSystem.exists(new Path(filesDir, "part-m-00000-00000")));
+  }
+}
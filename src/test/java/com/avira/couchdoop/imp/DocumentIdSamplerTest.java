@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DocumentIdSamplerTest {
+
+  @Test
+  public void splitPointsTest() {
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ids.add(String.format("doc%03d", i));
+    }
+    Collections.shuffle(ids);
+
+    byte[][] points = DocumentIdSampler.splitPoints(ids, 4);
+    assertEquals(3, points.length);
+    assertEquals("doc025", Bytes.toString(points[0]));
+    assertEquals("doc050", Bytes.toString(points[1]));
+    assertEquals("doc075", Bytes.toString(points[2]));
+  }
+
+  @Test
+  public void fewIdsTest() {
+    // Duplicate IDs count once and there are no empty regions.
+    byte[][] points = DocumentIdSampler.splitPoints(Arrays.asList("b", "a", "b", "a"), 8);
+    assertEquals(1, points.length);
+    assertEquals("b", Bytes.toString(points[0]));
+
+    assertEquals(0, DocumentIdSampler.splitPoints(Collections.<String>emptyList(), 8).length);
+  }
+
+  @Test
+  public void sampleTest() {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 900; i++) {
+      view.emit("\"big\"", String.format("big%03d", i));
+    }
+    for (int i = 0; i < 100; i++) {
+      view.emit("\"small\"", String.format("small%03d", i));
+    }
+    List<ViewKeyRange> ranges = Arrays.asList(ViewKeyRange.forKey("\"big\""), ViewKeyRange.forKey("\"empty\""),
+        ViewKeyRange.forKey("\"small\""));
+
+    // Samples are divided between the keys by their estimated rows, and spread through each key.
+    List<String> ids = new DocumentIdSampler(view, null).sample(ranges, 20);
+    assertEquals(20, ids.size());
+    int bigIds = 0;
+    for (String id : ids) {
+      if (id.startsWith("big")) {
+        bigIds++;
+      }
+    }
+    assertTrue("Too few samples of the big key: " + ids, bigIds >= 17 && bigIds <= 18);
+    assertTrue(ids.get(0).compareTo("big050") < 0 && ids.get(bigIds - 1).compareTo("big850") > 0);
+    assertTrue(ids.get(bigIds).compareTo("small050") < 0 && ids.get(19).compareTo("small050") > 0);
+
+    // The samples of a key don't cost a walk from its start each.
+    assertTrue("Sampling walked " + view.getWalkedRows() + " rows.", view.getWalkedRows() < 5000);
+  }
+}
@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.RowError;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewResponseNoDocs;
+import com.couchbase.client.protocol.views.ViewResponseReduced;
+import com.couchbase.client.protocol.views.ViewResponseWithDocs;
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowNoDocs;
+import com.couchbase.client.protocol.views.ViewRowReduced;
+import com.couchbase.client.protocol.views.ViewRowWithDocs;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory view which answers queries like Couchbase does, for testing paginators and samplers without a cluster.
+ *
+ * <p>Rows are sorted by key, in view collation order, and then by document ID. Like the view engine, a query finds
+ * the first row of its range by searching the index and then walks the rows one at a time, including those skipped
+ * with {@code skip}. The walked rows are counted, as a measure of the cost of the queries. Strings are compared by
+ * code points instead of with the Unicode collation of Couchbase.</p>
+ *
+ * <p>If the view has a {@code _count} reduce, queries are reduced unless they set {@code reduce=false}, like the
+ * Couchbase client does, and reduced queries with documents fail.</p>
+ */
+class FakeView extends ViewQuerier {
+
+  private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+    @Override
+    public int compare(Object a, Object b) {
+      int typeDiff = typeRank(a) - typeRank(b);
+      if (typeDiff != 0) {
+        return typeDiff;
+      }
+
+      if (a instanceof Boolean) {
+        return ((Boolean) a).compareTo((Boolean) b);
+      } else if (a instanceof Number) {
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      } else if (a instanceof String) {
+        return ((String) a).compareTo((String) b);
+      } else if (a instanceof JSONArray) {
+        JSONArray arrayA = (JSONArray) a;
+        JSONArray arrayB = (JSONArray) b;
+        for (int i = 0; i < arrayA.length() && i < arrayB.length(); i++) {
+          int diff = compare(arrayA.opt(i), arrayB.opt(i));
+          if (diff != 0) {
+            return diff;
+          }
+        }
+        return arrayA.length() - arrayB.length();
+      }
+      return 0;
+    }
+
+    private int typeRank(Object value) {
+      if (value == null || value == JSONObject.NULL) {
+        return 0;
+      } else if (Boolean.FALSE.equals(value)) {
+        return 1;
+      } else if (Boolean.TRUE.equals(value)) {
+        return 2;
+      } else if (value instanceof Number) {
+        return 3;
+      } else if (value instanceof String) {
+        return 4;
+      } else if (value instanceof JSONArray) {
+        return 5;
+      }
+      return 6;
+    }
+  };
+
+  private static class Row {
+    final Object key;
+    final String keyJson;
+    final String id;
+
+    Row(String keyJson, String id) {
+      this.key = parse(keyJson);
+      this.keyJson = keyJson;
+      this.id = id;
+    }
+
+    /**
+     * Compares the row to a position given by a key and, optionally, a document ID.
+     */
+    int compareTo(Object otherKey, String otherId) {
+      int diff = KEY_ORDER.compare(key, otherKey);
+      if (diff != 0 || otherId == null) {
+        return diff;
+      }
+      return id.compareTo(otherId);
+    }
+  }
+
+  private final List<Row> rows = new ArrayList<>();
+  private boolean sorted = true;
+  private final boolean countReduce;
+
+  private int queries = 0;
+  private long walkedRows = 0;
+
+  FakeView() {
+    this(false);
+  }
+
+  /**
+   * @param countReduce whether the view has a {@code _count} reduce
+   */
+  FakeView(boolean countReduce) {
+    this.countReduce = countReduce;
+  }
+
+  /**
+   * Emits a row, whose value is null and whose document is {@code {"id":"<docId>"}}.
+   *
+   * @param keyJson key of the row in JSON format
+   */
+  FakeView emit(String keyJson, String docId) {
+    rows.add(new Row(keyJson, docId));
+    sorted = false;
+    return this;
+  }
+
+  private static Object parse(String json) {
+    try {
+      JSONArray array = new JSONArray("[" + json + "]");
+      if (array.length() == 1) {
+        return array.get(0);
+      }
+    } catch (JSONException e) {
+      // Not JSON, so a plain string.
+    }
+    return json;
+  }
+
+  private static String decode(Object value) {
+    try {
+      return value == null ? null : URLDecoder.decode(value.toString(), "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  synchronized ViewResponse query(Query query) {
+    if (!sorted) {
+      Collections.sort(rows, new Comparator<Row>() {
+        @Override
+        public int compare(Row a, Row b) {
+          return a.compareTo(b.key, b.id);
+        }
+      });
+      sorted = true;
+    }
+    queries++;
+
+    Map<String, Object> args = query.getArgs();
+    boolean reduce = countReduce && !"false".equals(args.get("reduce"));
+    if (reduce && query.willIncludeDocs()) {
+      throw new IllegalStateException("Query parameter include_docs is invalid for reduce views.");
+    }
+
+    int skip = args.containsKey("skip") ? Integer.parseInt(decode(args.get("skip"))) : 0;
+    int limit = args.containsKey("limit") ? Integer.parseInt(decode(args.get("limit"))) : Integer.MAX_VALUE;
+
+    List<Row> result = new ArrayList<>();
+    if (args.containsKey("keys")) {
+      JSONArray keys;
+      try {
+        keys = new JSONArray(decode(args.get("keys")));
+      } catch (JSONException e) {
+        throw new IllegalArgumentException(e);
+      }
+      for (int i = 0; i < keys.length(); i++) {
+        Object key = keys.opt(i);
+        if (!walk(key, null, key, null, true, result, reduce ? Integer.MAX_VALUE : skip + limit)) {
+          break;
+        }
+      }
+    } else {
+      Object startKey = args.containsKey("key") ? parse(decode(args.get("key"))) :
+          args.containsKey("startkey") ? parse(decode(args.get("startkey"))) : null;
+      Object endKey = args.containsKey("key") ? startKey :
+          args.containsKey("endkey") ? parse(decode(args.get("endkey"))) : null;
+      boolean inclusiveEnd = !"false".equals(args.get("inclusive_end"));
+      walk(startKey, decode(args.get("startkey_docid")), endKey, decode(args.get("endkey_docid")), inclusiveEnd,
+          result, reduce ? Integer.MAX_VALUE : skip + limit);
+    }
+
+    if (reduce) {
+      List<ViewRow> reduced = new ArrayList<>();
+      reduced.add(new ViewRowReduced(null, String.valueOf(result.size())));
+      return new ViewResponseReduced(reduced, Collections.<RowError>emptyList());
+    }
+
+    List<ViewRow> viewRows = new ArrayList<>();
+    for (int i = skip; i < result.size(); i++) {
+      Row row = result.get(i);
+      String key = ViewKeys.canonical(row.keyJson);
+      if (query.willIncludeDocs()) {
+        viewRows.add(new ViewRowWithDocs(row.id, key, null, "{\"id\":\"" + row.id + "\"}"));
+      } else {
+        viewRows.add(new ViewRowNoDocs(row.id, key, null));
+      }
+    }
+    if (query.willIncludeDocs()) {
+      return new ViewResponseWithDocs(viewRows, Collections.<RowError>emptyList(), rows.size());
+    }
+    return new ViewResponseNoDocs(viewRows, Collections.<RowError>emptyList(), rows.size());
+  }
+
+  /**
+   * Adds the rows of a range to a result, up to a maximum size of the result.
+   *
+   * @return whether the result has room for more rows
+   */
+  private boolean walk(Object startKey, String startId, Object endKey, String endId, boolean inclusiveEnd,
+                       List<Row> result, int maxSize) {
+    // Search the index for the first row of the range.
+    int lo = 0;
+    int hi = rows.size();
+    while (startKey != null && lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (rows.get(mid).compareTo(startKey, startId) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    for (int i = lo; i < rows.size() && result.size() < maxSize; i++) {
+      Row row = rows.get(i);
+      if (endKey != null) {
+        int diff = row.compareTo(endKey, endId);
+        if (diff > 0 || diff == 0 && !inclusiveEnd) {
+          break;
+        }
+      }
+      walkedRows++;
+      result.add(row);
+    }
+    return result.size() < maxSize;
+  }
+
+  /**
+   * @return number of queries answered
+   */
+  synchronized int getQueries() {
+    return queries;
+  }
+
+  /**
+   * @return number of rows walked by the queries, including the skipped ones
+   */
+  synchronized long getWalkedRows() {
+    return walkedRows;
+  }
+}
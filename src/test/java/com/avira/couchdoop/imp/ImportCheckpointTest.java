@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ImportCheckpointTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void saveLoadTest() throws Exception {
+    Configuration conf = new Configuration();
+    String checkpointDir = folder.getRoot().toURI().toString();
+    TaskID taskId = new TaskID("test", 1, TaskType.MAP, 3);
+
+    assertNull(ImportCheckpoint.load(conf, checkpointDir, taskId));
+
+    new ImportCheckpoint(2, "[\"k\",1]", "doc7", 3, 5).save(conf, checkpointDir, taskId);
+    ImportCheckpoint checkpoint = ImportCheckpoint.load(conf, checkpointDir, taskId);
+    assertEquals(2, checkpoint.getKeyIndex());
+    assertEquals("[\"k\",1]", checkpoint.getLastKey());
+    assertEquals("doc7", checkpoint.getLastDocId());
+    assertEquals(3, checkpoint.getSkip());
+    assertEquals(5, checkpoint.getFiles());
+
+    // A later checkpoint replaces the previous one, here at the start of a key.
+    new ImportCheckpoint(3, null, null, 0, 6).save(conf, checkpointDir, taskId);
+    checkpoint = ImportCheckpoint.load(conf, checkpointDir, taskId);
+    assertEquals(3, checkpoint.getKeyIndex());
+    assertNull(checkpoint.getLastKey());
+    assertNull(checkpoint.getLastDocId());
+    assertEquals(0, checkpoint.getSkip());
+    assertEquals(6, checkpoint.getFiles());
+
+    // Checkpoints of other tasks are separate.
+    assertNull(ImportCheckpoint.load(conf, checkpointDir, new TaskID("test", 1, TaskType.MAP, 4)));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.ArgsException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImportOutputFormatsTest {
+
+  @Test
+  public void sequenceFileTest() throws Exception {
+    Job job = Job.getInstance(new Configuration());
+    ImportOutputFormats.configure(job, ImportViewArgs.OutputFormat.SEQUENCE_FILE, "gzip", "/tmp/output");
+
+    assertEquals(SequenceFileOutputFormat.class, job.getOutputFormatClass());
+    assertEquals(SequenceFile.CompressionType.BLOCK, SequenceFileOutputFormat.getOutputCompressionType(job));
+    assertTrue(FileOutputFormat.getCompressOutput(job));
+    assertEquals(GzipCodec.class, FileOutputFormat.getOutputCompressorClass(job, null));
+
+    job = Job.getInstance(new Configuration());
+    ImportOutputFormats.configure(job, ImportViewArgs.OutputFormat.SEQUENCE_FILE, ImportViewArgs.COMPRESSION_NONE,
+        "/tmp/output");
+    assertFalse(FileOutputFormat.getCompressOutput(job));
+  }
+
+  @Test
+  public void avroTest() throws Exception {
+    Job job = Job.getInstance(new Configuration());
+    ImportOutputFormats.configure(job, ImportViewArgs.OutputFormat.AVRO, "snappy", "/tmp/output");
+    assertEquals(AvroDocumentOutputFormat.class, job.getOutputFormatClass());
+    assertEquals("snappy", job.getConfiguration().get(ImportViewArgs.ARG_COMPRESSION.getPropertyName()));
+    // Avro compresses its own blocks.
+    assertFalse(FileOutputFormat.getCompressOutput(job));
+
+    try {
+      ImportOutputFormats.configure(Job.getInstance(new Configuration()), ImportViewArgs.OutputFormat.AVRO, "lz4",
+          "/tmp/output");
+      fail("A codec which Avro doesn't support was accepted!");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    Configuration conf = new Configuration();
+    conf.set(ImportViewArgs.ARG_OUTPUT_FORMAT.getPropertyName(), ImportViewArgs.OutputFormat.AVRO.name());
+    conf.set(ImportViewArgs.ARG_COMPRESSION.getPropertyName(), "lz4");
+    try {
+      ImportViewArgs.getCompression(conf);
+      fail("A codec which Avro doesn't support was accepted!");
+    } catch (ArgsException e) {
+      // Expected.
+    }
+  }
+}
@@ -19,11 +19,15 @@
 
 package com.avira.couchdoop.imp;
 
+import com.avira.couchdoop.ArgsException;
 import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -85,4 +89,49 @@ public class ImportViewArgsTest {
   }
 
 
+  @Test
+  public void keyRangeTest() throws ArgsException {
+    Configuration conf = new Configuration(false);
+    conf.set(ImportViewArgs.ARG_VIEW_STARTKEY.getPropertyName(), "[\"20140401\"]");
+    conf.set(ImportViewArgs.ARG_VIEW_ENDKEY.getPropertyName(), "[\"20140430\",{}]");
+
+    ImportViewArgs args = new ImportViewArgs(conf);
+    assertTrue(args.hasKeyRange());
+    assertEquals(0, args.getViewKeys().length);
+    assertEquals("Default number of mappers for a key range is not correct!", 1, args.getNumMappers());
+
+    conf.set(ImportViewArgs.ARG_VIEW_KEYS.getPropertyName(), "[\"20140401\",0]");
+    try {
+      new ImportViewArgs(conf);
+      fail("Both view keys and a key range were accepted!");
+    } catch (ArgsException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void clipViewKeysTest() {
+    String keysString = "[\"2014070812((00-23))\",0];[\"2014070812((00-23))\",1];\"((8-12))\";\"other\"";
+
+    Map<String, Integer> lastImported = new HashMap<>();
+    assertEquals("Keys were clipped without a watermark!", keysString,
+        ImportViewArgs.clipViewKeys(keysString, lastImported));
+
+    lastImported.put(ImportViewArgs.getKeyRangeId("[\"2014070812", "\",0]"), 5);
+    lastImported.put(ImportViewArgs.getKeyRangeId("\"", "\""), 12);
+    assertEquals("[\"2014070812((06-23))\",0];[\"2014070812((00-23))\",1];\"other\"",
+        ImportViewArgs.clipViewKeys(keysString, lastImported));
+
+    lastImported.put(ImportViewArgs.getKeyRangeId("[\"2014070812", "\",1]"), 23);
+    assertEquals("[\"2014070812((06-23))\",0];\"other\"", ImportViewArgs.clipViewKeys(keysString, lastImported));
+    assertEquals(18, ImportViewArgs.parseViewKeys(ImportViewArgs.clipViewKeys(keysString, lastImported)).length - 1);
+  }
+
+  @Test
+  public void keyRangeEndsTest() {
+    Map<String, Integer> rangeEnds = ImportViewArgs.getKeyRangeEnds("\"a((1-5))\";\"a((7-9))\";\"b((01-03))\";\"c\"");
+    assertEquals(2, rangeEnds.size());
+    assertEquals(9, (int) rangeEnds.get(ImportViewArgs.getKeyRangeId("\"a", "\"")));
+    assertEquals(3, (int) rangeEnds.get(ImportViewArgs.getKeyRangeId("\"b", "\"")));
+  }
 }
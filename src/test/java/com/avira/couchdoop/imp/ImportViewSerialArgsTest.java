@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.imp;
+
+import com.avira.couchdoop.ArgsException;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImportViewSerialArgsTest {
+
+  private static Configuration conf() {
+    Configuration conf = new Configuration(false);
+    conf.set(ImportViewArgs.ARG_VIEW_KEYS.getPropertyName(), "[\"20140401\",0]");
+    return conf;
+  }
+
+  private static void assertRejected(String property, String value) {
+    Configuration conf = conf();
+    conf.set(property, value);
+    try {
+      new ImportViewSerialArgs(conf);
+      fail(property + "=" + value + " was accepted!");
+    } catch (ArgsException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void defaultsTest() throws ArgsException {
+    ImportViewSerialArgs args = new ImportViewSerialArgs(conf());
+    assertEquals(4, args.getThreads());
+    assertEquals(256L * 1024 * 1024, args.getFileBytes());
+
+    Configuration conf = conf();
+    conf.set(ImportViewSerialArgs.ARG_THREADS.getPropertyName(), "16");
+    conf.set(ImportViewSerialArgs.ARG_FILE_BYTES.getPropertyName(), "1048576");
+    args = new ImportViewSerialArgs(conf);
+    assertEquals(16, args.getThreads());
+    assertEquals(1048576, args.getFileBytes());
+  }
+
+  @Test
+  public void nonPositiveValuesTest() {
+    assertRejected(ImportViewSerialArgs.ARG_THREADS.getPropertyName(), "0");
+    assertRejected(ImportViewSerialArgs.ARG_THREADS.getPropertyName(), "-2");
+    assertRejected(ImportViewSerialArgs.ARG_FILE_BYTES.getPropertyName(), "0");
+    assertRejected(ImportViewSerialArgs.ARG_FILE_BYTES.getPropertyName(), "-1");
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JsonColumnMappingTest {
+
+  private static final byte[] DOC = Bytes.toBytes("{\"type\":\"click\",\"user\":{\"id\":42,\"name\":\"johnny\"," +
+      "\"tags\":[\"a\",\"b\"]},\"price\":10.5,\"count\":\"7\",\"ref\":null}");
+
+  private static byte[] cell(Put put, String family, String qualifier) {
+    List<Cell> cells = put.get(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+    return cells.isEmpty() ? null : CellUtil.cloneValue(cells.get(0));
+  }
+
+  @Test
+  public void encodingsTest() throws IOException {
+    JsonColumnMapping mapping = new JsonColumnMapping("type=d:type,user.id=d:user_id:long,user.id=d:user_id_s," +
+        "price=d:price:double,user.id=d:user_id_d:double,user.tags=d:tags,user.name=d:name_json:bytes," +
+        "count=d:count:long,ref=d:ref,missing=d:missing,user=x:user:bytes");
+    Put put = new Put(Bytes.toBytes("doc1"));
+    mapping.addTo(put, DOC);
+
+    assertEquals("click", Bytes.toString(cell(put, "d", "type")));
+    assertEquals(42L, Bytes.toLong(cell(put, "d", "user_id")));
+    assertEquals("42", Bytes.toString(cell(put, "d", "user_id_s")));
+    assertEquals(10.5, Bytes.toDouble(cell(put, "d", "price")), 0.0);
+    assertEquals(42.0, Bytes.toDouble(cell(put, "d", "user_id_d")), 0.0);
+    assertEquals("[\"a\",\"b\"]", Bytes.toString(cell(put, "d", "tags")));
+    assertEquals("\"johnny\"", Bytes.toString(cell(put, "d", "name_json")));
+    assertEquals("{\"id\":42,\"name\":\"johnny\",\"tags\":[\"a\",\"b\"]}", Bytes.toString(cell(put, "x", "user")));
+
+    // Strings are not converted to numbers, and missing or null fields have no cells.
+    assertNull(cell(put, "d", "count"));
+    assertNull(cell(put, "d", "ref"));
+    assertNull(cell(put, "d", "missing"));
+    assertEquals(1, mapping.getUnencodableValues());
+    assertEquals(8, put.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidEncodingTest() {
+    new JsonColumnMapping("type=d:type:int");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidColumnTest() {
+    new JsonColumnMapping("type=d");
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class JsonProjectionTest {
+
+  private static final String DOC = "{\"id\":7,\"type\":\"click\",\"user\":{\"name\":\"johnny\",\"age\":30," +
+      "\"address\":{\"city\":\"Bucharest\"}},\"tags\":[\"a\",\"b\"],\"price\":10.50,\"paid\":true}";
+
+  private static String apply(JsonProjection projection, String document) throws IOException {
+    byte[] result = projection.apply(document);
+    return result == null ? null : new String(result, "UTF-8");
+  }
+
+  @Test
+  public void projectionTest() throws IOException {
+    JsonProjection projection = new JsonProjection("type,user.name,user.address,tags,missing.field", null);
+    assertEquals("{\"type\":\"click\",\"user\":{\"name\":\"johnny\",\"address\":{\"city\":\"Bucharest\"}}," +
+        "\"tags\":[\"a\",\"b\"]}", apply(projection, DOC));
+
+    // Objects without projected fields are left out.
+    assertEquals("{\"type\":\"view\"}", apply(projection, "{\"user\":{\"age\":3},\"type\":\"view\"}"));
+  }
+
+  @Test
+  public void filterTest() throws IOException {
+    assertEquals(DOC, apply(new JsonProjection(null, "type=click"), DOC));
+    assertEquals(DOC, apply(new JsonProjection(null, "type=\"click\";user.age=30;price=10.5;paid=true"), DOC));
+    assertNull(apply(new JsonProjection(null, "type=click;user.age=31"), DOC));
+    assertNull(apply(new JsonProjection(null, "id=\"7\""), DOC));
+
+    // A missing field doesn't equal any value.
+    assertNull(apply(new JsonProjection(null, "user.email=null"), DOC));
+    assertEquals(DOC, apply(new JsonProjection(null, "user.email!=x"), DOC));
+    assertNull(apply(new JsonProjection(null, "type!=click"), DOC));
+  }
+
+  @Test
+  public void projectionAndFilterTest() throws IOException {
+    // The filter may test fields which are not projected, before or after the projected ones.
+    JsonProjection projection = new JsonProjection("id", "user.address.city=Bucharest;paid=true");
+    assertEquals("{\"id\":7}", apply(projection, DOC));
+    assertNull(apply(projection, "{\"id\":8,\"paid\":false}"));
+
+    // The same instance is reused for many documents.
+    assertEquals("{\"id\":9}", apply(projection, "{\"id\":9,\"user\":{\"address\":{\"city\":\"Bucharest\"}},\"paid\":true}"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidFilterTest() {
+    new JsonProjection(null, "type");
+  }
+
+  @Test(expected = IOException.class)
+  public void invalidDocumentTest() throws IOException {
+    new JsonProjection("id", null).apply("[1, 2]");
+  }
+}
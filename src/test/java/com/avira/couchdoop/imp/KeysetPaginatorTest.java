@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeysetPaginatorTest {
+
+  static List<String> rows(Iterator<ViewResponse> pages) {
+    List<String> rows = new ArrayList<>();
+    while (pages.hasNext()) {
+      for (ViewRow row : pages.next()) {
+        rows.add(row.getKey() + "/" + row.getId());
+      }
+    }
+    return rows;
+  }
+
+  static List<String> rows(ViewQuerier view, Query query) {
+    List<String> rows = new ArrayList<>();
+    for (ViewRow row : view.query(query)) {
+      rows.add(row.getKey() + "/" + row.getId());
+    }
+    return rows;
+  }
+
+  @Test
+  public void pagesTest() {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 100; i++) {
+      view.emit("\"k\"", String.format("doc%03d", i));
+      // Documents which emit the key several times.
+      if (i % 7 == 0) {
+        view.emit("\"k\"", String.format("doc%03d", i)).emit("\"k\"", String.format("doc%03d", i));
+      }
+    }
+    view.emit("\"j\"", "before").emit("\"l\"", "after");
+
+    List<String> expected = rows(view, ViewKeyRange.forKey("\"k\"").applyTo(new Query()));
+    assertEquals(130, expected.size());
+
+    for (int docsPerPage : new int[]{1, 2, 3, 10, 129, 130, 1000}) {
+      KeysetPaginator paginator = new KeysetPaginator(view, ViewKeyRange.forKey("\"k\""), docsPerPage);
+      assertEquals("Wrong rows with " + docsPerPage + " documents per page!", expected, rows(paginator));
+    }
+  }
+
+  @Test
+  public void viewWithReduceTest() {
+    // A view with a _count reduce, which can also be used as the count view.
+    FakeView view = new FakeView(true);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      view.emit(String.format("\"k%d\"", i / 10), String.format("doc%03d", i));
+      expected.add(String.format("k%d/doc%03d", i / 10, i));
+    }
+    ViewKeyRange range = new ViewKeyRange("\"k0\"", null, "\"k1\"", null, true);
+
+    assertEquals(expected, rows(new KeysetPaginator(view, range, 3)));
+
+    MultiKeyPaginator multiKeyPaginator = new MultiKeyPaginator(view, Arrays.asList("\"k0\"", "\"k1\""), 3);
+    assertEquals(expected, rows(multiKeyPaginator));
+
+    ViewRangeSampler sampler = new ViewRangeSampler(view, range);
+    assertEquals(20, sampler.estimateRows(2));
+    assertEquals("doc010", sampler.rowAt(10).getId());
+  }
+}
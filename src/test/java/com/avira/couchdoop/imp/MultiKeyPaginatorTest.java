@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.ViewResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.avira.couchdoop.imp.KeysetPaginatorTest.rows;
+import static org.junit.Assert.*;
+
+public class MultiKeyPaginatorTest {
+
+  @Test
+  public void sameRowsAsEachKeyTest() {
+    FakeView view = new FakeView();
+    for (int i = 0; i < 25; i++) {
+      view.emit("\"many\"", String.format("doc%03d", i));
+      // Documents which emit the key several times.
+      if (i % 4 == 0) {
+        view.emit("\"many\"", String.format("doc%03d", i)).emit("\"many\"", String.format("doc%03d", i));
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      view.emit("[1,\"a\"]", "array" + i).emit("7", "number" + i);
+    }
+    view.emit("\"one\"", "single").emit("\"one\"", "single");
+    view.emit("\"other\"", "not-queried");
+
+    // Keys are not in collation order, and some of them don't have rows.
+    List<String> keys = Arrays.asList("\"one\"", "\"none\"", "\"many\"", "[1,\"a\"]", "\"missing\"", "7");
+    List<String> expected = new ArrayList<>();
+    for (String key : keys) {
+      expected.addAll(rows(view, ViewKeyRange.forKey(key).applyTo(new Query())));
+    }
+    assertEquals(47, expected.size());
+
+    // Pages end inside a key, right at its end, between documents which emit a key several times and after all keys.
+    for (int docsPerPage : new int[]{1, 2, 3, 4, 5, 7, 40, 41, 42, 44, 46, 47, 48, 1000}) {
+      MultiKeyPaginator paginator = new MultiKeyPaginator(view, keys, docsPerPage);
+      List<String> actual = new ArrayList<>();
+      while (paginator.hasNext()) {
+        ViewResponse page = paginator.next();
+        assertTrue("Page larger than " + docsPerPage + " rows!", page.size() <= docsPerPage);
+        actual.addAll(rows(Collections.singletonList(page).iterator()));
+      }
+      assertEquals("Wrong rows with " + docsPerPage + " documents per page!", expected, actual);
+    }
+  }
+
+  @Test
+  public void keysWithFewRowsTest() {
+    FakeView view = new FakeView();
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add(String.valueOf(i));
+      view.emit(String.valueOf(i), "doc" + i);
+    }
+
+    List<String> actual = rows(new MultiKeyPaginator(view, keys, 1000));
+    assertEquals(100, actual.size());
+    assertEquals("0/doc0", actual.get(0));
+    assertEquals("99/doc99", actual.get(99));
+    // A single query instead of one for each key.
+    assertEquals(1, view.getQueries());
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measures the throughput and the allocations per row of {@link PageFileWriter} against the previous way of writing
+ * rows, which encoded the key, the delimiters and the document with {@code String.getBytes} and wrote each of them
+ * to the stream. Rows are written to a stream which only counts bytes, so that the encoding cost is measured rather
+ * than the file system. Allocations are read from the HotSpot thread MX bean.
+ *
+ * <p>Usage: PageFileWriterBenchmark [rows [documentChars [rounds]]]</p>
+ *
+ * <p>Example: PageFileWriterBenchmark 1000000 1024 5</p>
+ */
+public class PageFileWriterBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int documentChars = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    char[] chars = new char[documentChars];
+    Arrays.fill(chars, 'x');
+    String document = "{\"id\":\"" + new String(chars, 0, Math.max(0, documentChars - 10)) + "\"}";
+    String[] keys = new String[1024];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "click::2014040100::" + i;
+    }
+
+    System.out.println("writer\tround\tMB/s\tbytes_allocated_per_row");
+    for (int round = 0; round < rounds; round++) {
+      run("previous", round, rows, keys, document);
+      run("PageFileWriter", round, rows, keys, document);
+    }
+  }
+
+  private static void run(String name, int round, int rows, String[] keys, String document) throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    PageFileWriter writer = name.equals("previous") ? null : new PageFileWriter(out);
+
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < rows; i++) {
+      String key = keys[i & (keys.length - 1)];
+      if (writer == null) {
+        out.write(key.getBytes("UTF-8"));
+        out.write("\t".getBytes("UTF-8"));
+        out.write(document.getBytes("UTF-8"));
+        out.write("\n".getBytes("UTF-8"));
+      } else {
+        writer.write(key, document);
+      }
+    }
+    if (writer != null) {
+      writer.close();
+    }
+    long nanos = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+
+    System.out.println(name + "\t" + round + "\t" + String.format("%.1f", out.count / 1048576.0 / (nanos / 1e9)) +
+        "\t" + String.format("%.1f", (double) allocated / rows));
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Discards the bytes written to it, only counting them.
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PageFileWriterTest {
+
+  @Test
+  public void writeTest() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PageFileWriter writer = new PageFileWriter(out);
+    writer.write("key1", "{\"city\":\"București\"}");
+    writer.write("keyé2", "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+    assertEquals(2, writer.getRows());
+    writer.close();
+
+    byte[] expected = "key1\t{\"city\":\"București\"}\nkeyé2\t{\"a\":1}\n".getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expected, out.toByteArray());
+    assertEquals(expected.length, writer.getBytes());
+  }
+
+  @Test
+  public void writeAcrossBufferBoundariesTest() throws IOException {
+    // Multi-byte characters, including surrogate pairs, end up split between flushes of the buffer.
+    char[] chars = new char[100000];
+    for (int i = 0; i < chars.length; i += 2) {
+      chars[i] = '\ud83d';
+      chars[i + 1] = '\ude00';
+    }
+    String longDocument = new String(chars);
+    byte[] bigDocument = new byte[300000];
+    Arrays.fill(bigDocument, (byte) 'x');
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    PageFileWriter writer = new PageFileWriter(out);
+    for (int i = 0; i < 3; i++) {
+      writer.write("kă" + i, longDocument);
+      expected.write(("kă" + i + "\t" + longDocument + "\n").getBytes(StandardCharsets.UTF_8));
+      writer.write("b" + i, bigDocument);
+      expected.write(("b" + i + "\t").getBytes(StandardCharsets.UTF_8));
+      expected.write(bigDocument);
+      expected.write('\n');
+    }
+    writer.close();
+
+    assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    assertEquals(expected.size(), writer.getBytes());
+    assertEquals(6, writer.getRows());
+  }
+
+  @Test
+  public void delimitersTest() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PageFileWriter writer = new PageFileWriter(out);
+    writer.setKeyDocumentDelimiter(",");
+    writer.setRowDelimiter("\r\n");
+    writer.write("a", "1");
+    writer.write("b", "2");
+    writer.close();
+
+    assertEquals("a,1\r\nb,2\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+public class PagePrefetcherTest {
+
+  @Test
+  public void pagesInOrderTest() throws Exception {
+    PagePrefetcher<Integer> prefetcher = new PagePrefetcher<>(new Callable<Integer>() {
+      private int page = 0;
+
+      @Override
+      public Integer call() {
+        return page < 100 ? page++ : null;
+      }
+    }, 2);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals("Pages are not in order!", Integer.valueOf(i), prefetcher.take());
+    }
+    assertNull(prefetcher.take());
+    assertNull(prefetcher.take());
+    prefetcher.close();
+  }
+
+  @Test
+  public void failureTest() throws Exception {
+    PagePrefetcher<Integer> prefetcher = new PagePrefetcher<>(new Callable<Integer>() {
+      private int page = 0;
+
+      @Override
+      public Integer call() {
+        if (page == 3) {
+          throw new IllegalStateException("View query failed");
+        }
+        return page++;
+      }
+    }, 1);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Integer.valueOf(i), prefetcher.take());
+    }
+    try {
+      prefetcher.take();
+      fail("The failure was not propagated!");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    prefetcher.close();
+  }
+
+  @Test(timeout = 10000)
+  public void errorTest() throws Exception {
+    PagePrefetcher<Integer> prefetcher = new PagePrefetcher<>(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        throw new AssertionError("Out of luck");
+      }
+    }, 1);
+
+    try {
+      prefetcher.take();
+      fail("The error was not propagated!");
+    } catch (AssertionError e) {
+      assertEquals("Out of luck", e.getMessage());
+    }
+    prefetcher.close();
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PageSizeControllerTest {
+
+  @Test
+  public void targetBytesTest() {
+    // Rows of 100 bytes and a target of 1 MB converge to 10000 rows per page, doubling at most each page.
+    PageSizeController controller = new PageSizeController(1000, 10, 100000, 1000000, 0);
+    controller.update(1000, 100000, 50);
+    assertEquals(2000, controller.getPageSize());
+    controller.update(2000, 200000, 50);
+    controller.update(4000, 400000, 50);
+    controller.update(8000, 800000, 50);
+    assertEquals(10000, controller.getPageSize());
+
+    // Larger documents shrink the pages, at most by half each page.
+    controller.update(10000, 10000000, 50);
+    assertEquals(5000, controller.getPageSize());
+    controller.update(5000, 5000000, 50);
+    assertEquals(2500, controller.getPageSize());
+    controller.update(2500, 2500000, 50);
+    assertEquals(1250, controller.getPageSize());
+    controller.update(1250, 1250000, 50);
+    assertEquals(1000, controller.getPageSize());
+
+    assertEquals(8, controller.getPages());
+    assertEquals(1000, controller.getMinChosenPageSize());
+    assertEquals(10000, controller.getMaxChosenPageSize());
+  }
+
+  @Test
+  public void targetLatencyTest() {
+    PageSizeController controller = new PageSizeController(1000, 10, 100000, 0, 200);
+    controller.update(1000, 100000, 250);
+    assertEquals(800, controller.getPageSize());
+
+    // Pages which are not full don't tell much about the latency.
+    controller.update(3, 300, 100);
+    assertEquals(800, controller.getPageSize());
+  }
+
+  @Test
+  public void boundsTest() {
+    PageSizeController controller = new PageSizeController(1000000, 10, 5000, 1000000, 0);
+    assertEquals("The initial page size was not bounded!", 5000, controller.getPageSize());
+
+    controller.update(5000, 1000000000, 0);
+    controller.update(2500, 1000000000, 0);
+    controller.update(1250, 1000000000, 0);
+    controller.update(625, 1000000000, 0);
+    controller.update(313, 1000000000, 0);
+    controller.update(157, 1000000000, 0);
+    controller.update(79, 1000000000, 0);
+    controller.update(40, 1000000000, 0);
+    controller.update(20, 1000000000, 0);
+    assertEquals("The page size went below the minimum!", 10, controller.getPageSize());
+  }
+}
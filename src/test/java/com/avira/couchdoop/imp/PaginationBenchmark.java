@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.ViewResponse;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Measures the latency of each page of a deep view key, and the number of index rows walked by the view engine to
+ * answer it, for keyset pagination and for skip pagination, whose cost grows with the depth of the page. The key is
+ * held by an in-memory {@link FakeView}, which walks rows like the view engine does, so no cluster is needed.
+ *
+ * <p>Usage: PaginationBenchmark [rows [docsPerPage]]</p>
+ *
+ * <p>Example: PaginationBenchmark 1000000 1024</p>
+ */
+public class PaginationBenchmark {
+
+  private static final String VIEW_KEY = "\"20150101\"";
+
+  public static void main(String[] args) {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int docsPerPage = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+    FakeView view = new FakeView();
+    for (int i = 0; i < rows; i++) {
+      view.emit(VIEW_KEY, String.format("doc%09d", i));
+    }
+    // Other keys around the benchmarked one.
+    view.emit("\"20141231\"", "before").emit("\"20150102\"", "after");
+
+    // Warm up, then measure.
+    for (int round = 0; round < 2; round++) {
+      boolean print = round == 1;
+      run("KEYSET", view, new KeysetPaginator(view, ViewKeyRange.forKey(VIEW_KEY), docsPerPage), print);
+      run("SKIP", view, new SkipPaginator(view, VIEW_KEY, docsPerPage), print);
+    }
+  }
+
+  private static void run(String name, FakeView view, Iterator<ViewResponse> pages, boolean print) {
+    if (print) {
+      System.out.println("# " + name);
+      System.out.println("page\trows\tlatency_ms\twalked_rows");
+    }
+
+    int page = 0;
+    long rows = 0;
+    long totalNanos = 0;
+    long firstNanos = 0;
+    long lastNanos = 0;
+    long walkedBefore = view.getWalkedRows();
+    while (pages.hasNext()) {
+      long walked = view.getWalkedRows();
+      long start = System.nanoTime();
+      ViewResponse response = pages.next();
+      long nanos = System.nanoTime() - start;
+
+      if (print) {
+        System.out.println(page + "\t" + response.size() + "\t" + nanos / 1000000.0 + "\t" +
+            (view.getWalkedRows() - walked));
+      }
+      if (page == 0) {
+        firstNanos = nanos;
+      }
+      lastNanos = nanos;
+      totalNanos += nanos;
+      rows += response.size();
+      page++;
+    }
+
+    if (print) {
+      System.out.println("# " + name + ": " + page + " pages, " + rows + " rows, " +
+          (view.getWalkedRows() - walkedBefore) + " rows walked, total " + totalNanos / 1000000 +
+          " ms, first page " + firstNanos / 1000000.0 + " ms, last page " + lastNanos / 1000000.0 + " ms");
+    }
+  }
+
+  /**
+   * Queries pages by skipping all the rows of the previous pages.
+   */
+  private static class SkipPaginator implements Iterator<ViewResponse> {
+
+    private final ViewQuerier querier;
+    private final String viewKey;
+    private final int docsPerPage;
+
+    private int skip = 0;
+    private boolean finished = false;
+
+    SkipPaginator(ViewQuerier querier, String viewKey, int docsPerPage) {
+      this.querier = querier;
+      this.viewKey = viewKey;
+      this.docsPerPage = docsPerPage;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !finished;
+    }
+
+    @Override
+    public ViewResponse next() {
+      if (finished) {
+        throw new NoSuchElementException();
+      }
+
+      Query query = new Query();
+      query.setKey(viewKey);
+      query.setIncludeDocs(true);
+      query.setLimit(docsPerPage);
+      query.setSkip(skip);
+
+      ViewResponse response = querier.query(query);
+      skip += response.size();
+      finished = response.size() < docsPerPage;
+      return response;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
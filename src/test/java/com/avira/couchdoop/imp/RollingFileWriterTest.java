@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.imp;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RollingFileWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return names of the files of the writer, without the checksum files of the local file system
+   */
+  private List<String> fileNames() {
+    List<String> names = new ArrayList<>();
+    for (String name : folder.getRoot().list()) {
+      if (!name.endsWith(".crc")) {
+        names.add(name);
+      }
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  @Test
+  public void rollOverTest() throws Exception {
+    // Each row has 20 bytes, so a file is full after 5 rows.
+    RollingFileWriter writer = new RollingFileWriter(new Configuration(), folder.getRoot().toURI().toString(),
+        "part-00", 100, null);
+    for (int i = 0; i < 12; i++) {
+      writer.write(String.format("doc%02d", i), String.format("{\"n\":\"%05d\"}", i));
+    }
+    assertEquals(3, writer.getFiles());
+    assertEquals(12, writer.getRows());
+    assertEquals(240, writer.getBytes());
+    writer.close();
+    assertEquals(12, writer.getRows());
+    assertEquals(240, writer.getBytes());
+
+    assertEquals(Arrays.asList("part-00-00000", "part-00-00001", "part-00-00002"), fileNames());
+    try (InputStream in = new FileInputStream(new File(folder.getRoot(), "part-00-00001"))) {
+      assertEquals(Arrays.asList("doc05\t{\"n\":\"00005\"}", "doc06\t{\"n\":\"00006\"}", "doc07\t{\"n\":\"00007\"}",
+          "doc08\t{\"n\":\"00008\"}", "doc09\t{\"n\":\"00009\"}"), IOUtils.readLines(in, "UTF-8"));
+    }
+  }
+
+  @Test
+  public void compressionTest() throws Exception {
+    Configuration conf = new Configuration();
+    CompressionCodec codec = ReflectionUtils.newInstance(DefaultCodec.class, conf);
+    int leasedCompressors = CodecPool.getLeasedCompressorsCount(codec);
+
+    RollingFileWriter writer = new RollingFileWriter(conf, folder.getRoot().toURI().toString(), "part-00", 100,
+        codec);
+    for (int i = 0; i < 6; i++) {
+      writer.write(String.format("doc%02d", i), String.format("{\"n\":\"%05d\"}", i).getBytes(StandardCharsets.UTF_8));
+      // Only the compressor of the current file is leased.
+      assertEquals(leasedCompressors + 1, CodecPool.getLeasedCompressorsCount(codec));
+    }
+    writer.close();
+    assertEquals(leasedCompressors, CodecPool.getLeasedCompressorsCount(codec));
+
+    assertEquals(Arrays.asList("part-00-00000.deflate", "part-00-00001.deflate"), fileNames());
+    try (InputStream in = codec.createInputStream(
+        new FileInputStream(new File(folder.getRoot(), "part-00-00001.deflate")))) {
+      assertEquals(Collections.singletonList("doc05\t{\"n\":\"00005\"}"), IOUtils.readLines(in, "UTF-8"));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StreamingViewRowsTest {
+
+  private static StreamingViewRows parse(String response) throws IOException {
+    return new StreamingViewRows(new ByteArrayInputStream(response.getBytes("UTF-8")), null);
+  }
+
+  @Test
+  public void rowsTest() throws IOException {
+    StreamingViewRows rows = parse("{\"total_rows\":3,\"rows\":[\n" +
+        "{\"id\":\"doc1\",\"key\":\"2014-07-07\",\"value\":null},\n" +
+        "{\"id\":\"doc2\",\"key\":[\"2014-07-07\",1],\"value\":{\"a\":[1,2]},\"doc\":{\"ignored\":true}},\n" +
+        "{\"key\":3,\"value\":\"v\",\"id\":\"doc3\"}\n" +
+        "],\n\"errors\":[{\"from\":\"node2\",\"reason\":\"timeout\"}]}");
+
+    ViewRow row = rows.next();
+    assertEquals("doc1", row.getId());
+    assertEquals("2014-07-07", row.getKey());
+    // Like the rows of the Couchbase client, null values are null.
+    assertNull(row.getValue());
+
+    row = rows.next();
+    assertEquals("doc2", row.getId());
+    assertEquals("[\"2014-07-07\",1]", row.getKey());
+    assertEquals("{\"a\":[1,2]}", row.getValue());
+
+    row = rows.next();
+    assertEquals("doc3", row.getId());
+    assertEquals("3", row.getKey());
+    assertEquals("v", row.getValue());
+
+    assertFalse(rows.hasNext());
+  }
+
+  @Test
+  public void noRowsTest() throws IOException {
+    assertFalse(parse("{\"total_rows\":0,\"rows\":[]}").hasNext());
+    assertFalse(parse("{\"total_rows\":0}").hasNext());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void truncatedResponseTest() throws IOException {
+    StreamingViewRows rows = parse("{\"total_rows\":3,\"rows\":[{\"id\":\"doc1\",\"key\":\"k\",\"value\":1},{\"id\":");
+    assertTrue(rows.hasNext());
+    rows.next();
+    rows.hasNext();
+  }
+}
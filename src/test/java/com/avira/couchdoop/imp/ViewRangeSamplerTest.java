@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.imp;
+
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowNoDocs;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ViewRangeSamplerTest {
+
+  /**
+   * Sampler of a view with the given number of rows, where each key has 10 rows.
+   */
+  private static ViewRangeSampler sampler(final long rows) {
+    return new ViewRangeSampler(null, new ViewKeyRange("\"a\"", null, "\"z\"", null, true)) {
+      @Override
+      ViewRow rowAt(long index) {
+        if (index >= rows) {
+          return null;
+        }
+        return new ViewRowNoDocs("doc" + index, String.format("k%06d", index / 10), null);
+      }
+    };
+  }
+
+  @Test
+  public void estimateRowsTest() {
+    assertEquals(0, sampler(0).estimateRows(4));
+    assertEquals(1, sampler(1).estimateRows(4));
+
+    long estimate = sampler(1000003).estimateRows(10);
+    assertTrue("Row estimate is not precise enough: " + estimate,
+        estimate <= 1000003 && estimate > 1000003 - 1000003 / 100);
+  }
+
+  @Test
+  public void splitTest() {
+    ViewRangeSampler sampler = sampler(1000);
+    List<ViewKeyRange> ranges = sampler.split(1000, 4);
+    assertEquals(4, ranges.size());
+
+    // Sub-ranges are contiguous, from the start to the end of the range.
+    assertEquals("\"a\"", ranges.get(0).getStartKey());
+    assertNull(ranges.get(0).getStartDocId());
+    assertEquals("\"k000025\"", ranges.get(0).getEndKey());
+    assertEquals("doc250", ranges.get(0).getEndDocId());
+    assertFalse(ranges.get(0).isInclusiveEnd());
+    for (int i = 1; i < ranges.size(); i++) {
+      assertEquals(ranges.get(i - 1).getEndKey(), ranges.get(i).getStartKey());
+      assertEquals(ranges.get(i - 1).getEndDocId(), ranges.get(i).getStartDocId());
+    }
+    assertEquals("\"z\"", ranges.get(3).getEndKey());
+    assertTrue(ranges.get(3).isInclusiveEnd());
+
+    // Fewer rows than sub-ranges.
+    assertEquals(2, sampler(2).split(2, 4).size());
+  }
+
+  @Test
+  public void probesWalkRangeAFewTimesTest() {
+    int rows = 100000;
+    FakeView view = new FakeView();
+    for (int i = 0; i < rows; i++) {
+      view.emit(String.format("\"k%05d\"", i / 10), String.format("doc%06d", i));
+    }
+    ViewRangeSampler sampler = new ViewRangeSampler(view, new ViewKeyRange("\"a\"", null, "\"z\"", null, true));
+
+    long estimate = sampler.estimateRows(8);
+    assertTrue("Row estimate is not precise enough: " + estimate, estimate <= rows && estimate > rows - rows / 100);
+
+    List<ViewKeyRange> ranges = sampler.split(estimate, 8);
+    assertEquals(8, ranges.size());
+    for (int i = 1; i < ranges.size(); i++) {
+      long index = estimate * i / 8;
+      assertEquals(String.format("\"k%05d\"", index / 10), ranges.get(i).getStartKey());
+      assertEquals(String.format("doc%06d", index), ranges.get(i).getStartDocId());
+    }
+
+    // Skipping from the start of the range for each probe would walk about 17 times the rows.
+    assertTrue("Probes walked " + view.getWalkedRows() + " rows.", view.getWalkedRows() < 4L * rows);
+  }
+}
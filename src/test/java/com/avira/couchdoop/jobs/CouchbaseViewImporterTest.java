@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.avira.couchdoop.jobs;
+
+import com.avira.couchdoop.imp.ImportViewArgs;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CouchbaseViewImporterTest {
+
+  @Test
+  public void mapFailuresWithWatermarkTest() throws Exception {
+    Configuration conf = new Configuration(false);
+    Job job = new CouchbaseViewImporter().configureJob(conf, "/tmp/output");
+    assertEquals(5, job.getConfiguration().getInt("mapreduce.map.failures.maxpercent", -1));
+    assertEquals(5, job.getConfiguration().getInt("mapred.max.map.failures.percent", -1));
+
+    // A failed task would leave keys behind the watermark which are never imported.
+    conf = new Configuration(false);
+    conf.set(ImportViewArgs.ARG_WATERMARK_FILE.getPropertyName(), "/tmp/watermark");
+    job = new CouchbaseViewImporter().configureJob(conf, "/tmp/output");
+    assertEquals(0, job.getConfiguration().getInt("mapreduce.map.failures.maxpercent", -1));
+    assertEquals(0, job.getConfiguration().getInt("mapred.max.map.failures.percent", -1));
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void failedWatermarkTest() throws Exception {
+    File watermarkFile = folder.newFile("watermark");
+    try (FileOutputStream out = new FileOutputStream(watermarkFile)) {
+      out.write("not a watermark\n".getBytes("UTF-8"));
+    }
+
+    String[] args = new String[]{
+        "-h", "http://localhost:8091/pools", "-b", "bucket", "-d", "design", "-v", "view",
+        "-k", "[\"((1-3))\"]", "-o", new File(folder.getRoot(), "output").toURI().toString(),
+        "-w", watermarkFile.toURI().toString()};
+
+    // The keys after the watermark are unknown, so running again mustn't look like a success.
+    CouchbaseViewImporter importer = new CouchbaseViewImporter();
+    importer.setConf(new Configuration());
+    assertEquals(2, importer.run(args));
+  }
+}
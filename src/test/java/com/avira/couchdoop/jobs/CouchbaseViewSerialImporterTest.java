@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.avira.couchdoop.jobs;
+
+import com.avira.couchdoop.imp.ImportViewArgs;
+import com.avira.couchdoop.imp.RollingFileWriter;
+import com.avira.couchdoop.imp.ViewKeyRange;
+import com.couchbase.client.protocol.views.RowError;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewResponseWithDocs;
+import com.couchbase.client.protocol.views.ViewRow;
+import com.couchbase.client.protocol.views.ViewRowWithDocs;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class CouchbaseViewSerialImporterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Imports ranges whose pages are generated instead of queried, with a writer for each thread.
+   */
+  private static List<String> importRanges(Configuration conf, File output, List<ViewKeyRange> ranges, int threads)
+      throws Exception {
+    BlockingQueue<RollingFileWriter> writers = new ArrayBlockingQueue<>(threads);
+    for (int i = 0; i < threads; i++) {
+      writers.add(new RollingFileWriter(conf, output.toURI().toString(), "part-" + i, 64 * 1024, null));
+    }
+
+    CouchbaseViewSerialImporter.RangeImporter rangeImporter =
+        new CouchbaseViewSerialImporter.RangeImporter(conf, null, null, 100, writers) {
+          @Override
+          Iterator<ViewResponse> query(ViewKeyRange range) {
+            List<ViewResponse> pages = new ArrayList<>();
+            for (int page = 0; page < 5; page++) {
+              List<ViewRow> rows = new ArrayList<>();
+              for (int i = 0; i < 100; i++) {
+                String id = range.getStartKey() + "-" + (page * 100 + i);
+                rows.add(new ViewRowWithDocs(id, range.getStartKey(), null, "{\"user\":{\"name\":\"u" + id +
+                    "\",\"age\":" + i + ",\"tags\":[\"a\",\"b\"]},\"type\":\"" + (i % 3 == 0 ? "view" : "click") +
+                    "\",\"id\":\"" + id + "\"}"));
+              }
+              pages.add(new ViewResponseWithDocs(rows, Collections.<RowError>emptyList(), 500));
+            }
+            return pages.iterator();
+          }
+        };
+    assertEquals(0, CouchbaseViewSerialImporter.importRanges(rangeImporter, ranges, threads));
+
+    List<String> lines = new ArrayList<>();
+    for (RollingFileWriter writer : writers) {
+      writer.close();
+    }
+    for (File file : output.listFiles()) {
+      if (file.getName().startsWith("part-")) {
+        lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+      }
+    }
+    Collections.sort(lines);
+    return lines;
+  }
+
+  @Test
+  public void concurrentProjectionTest() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(ImportViewArgs.ARG_FIELDS.getPropertyName(), "id,user.name,user.tags");
+    conf.set(ImportViewArgs.ARG_FILTER.getPropertyName(), "type=click");
+    List<ViewKeyRange> ranges = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      ranges.add(ViewKeyRange.forKey("k" + i));
+    }
+
+    List<String> serial = importRanges(conf, folder.newFolder("serial"), ranges, 1);
+    List<String> concurrent = importRanges(conf, folder.newFolder("concurrent"), ranges, 8);
+    // Documents 0, 3, ..., 99 of each page are filtered out.
+    assertEquals(40 * 5 * 66, serial.size());
+    assertTrue(serial.contains("k7-1\t{\"user\":{\"name\":\"uk7-1\",\"tags\":[\"a\",\"b\"]},\"id\":\"k7-1\"}"));
+    assertEquals(serial, concurrent);
+  }
+
+  @Test
+  public void failedRangesTest() throws Exception {
+    BlockingQueue<RollingFileWriter> writers = new ArrayBlockingQueue<>(2);
+    for (int i = 0; i < 2; i++) {
+      writers.add(new RollingFileWriter(new Configuration(), folder.getRoot().toURI().toString(), "part-" + i, 1024,
+          null));
+    }
+    CouchbaseViewSerialImporter.RangeImporter rangeImporter =
+        new CouchbaseViewSerialImporter.RangeImporter(new Configuration(), null, null, 100, writers) {
+          @Override
+          Iterator<ViewResponse> query(ViewKeyRange range) {
+            if (range.getStartKey().endsWith("3") || range.getStartKey().endsWith("7")) {
+              throw new IllegalStateException("View query failed.");
+            }
+            return Collections.<ViewResponse>emptyList().iterator();
+          }
+        };
+
+    List<ViewKeyRange> ranges = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      ranges.add(ViewKeyRange.forKey("k" + i));
+    }
+    assertEquals(2, CouchbaseViewSerialImporter.importRanges(rangeImporter, ranges, 2));
+    // Writers are given back after failed ranges too.
+    assertEquals(2, writers.size());
+  }
+}